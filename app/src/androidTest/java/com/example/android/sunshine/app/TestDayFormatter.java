@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+    Checks DayFormatter says what Utility's day strings said before they were remembered, that
+    it remembers them, and that what it remembers moves on at midnight and with the locale.
+ */
+public class TestDayFormatter extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private Locale mLocale;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mLocale = Locale.getDefault();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Locale.setDefault(mLocale);
+        super.tearDown();
+    }
+
+    /*
+        What Utility.getFriendlyDayString did before DayFormatter, with the clock passed in.
+     */
+    private String legacyFriendlyDayString(long dateInMillis, boolean displayLongToday, long now) {
+        Time time = new Time();
+        time.set(now);
+        int julianDay = Time.getJulianDay(dateInMillis, time.gmtoff);
+        int currentJulianDay = Time.getJulianDay(now, time.gmtoff);
+        if (displayLongToday && julianDay == currentJulianDay) {
+            return String.format(mContext.getString(R.string.format_full_friendly_date,
+                    mContext.getString(R.string.today),
+                    new SimpleDateFormat("MMMM dd").format(dateInMillis)));
+        } else if (julianDay < currentJulianDay + 7) {
+            if (julianDay == currentJulianDay) {
+                return mContext.getString(R.string.today);
+            } else if (julianDay == currentJulianDay + 1) {
+                return mContext.getString(R.string.tomorrow);
+            }
+            return new SimpleDateFormat("EEEE").format(dateInMillis);
+        }
+        return new SimpleDateFormat("EEE MMM dd").format(dateInMillis);
+    }
+
+    private static long today() {
+        return WeatherContract.normalizeDate(System.currentTimeMillis());
+    }
+
+    public void testFormatsWhatUtilityFormatted() {
+        DayFormatter formatter = new DayFormatter();
+        long now = System.currentTimeMillis();
+        long today = today();
+        // Yesterday is outside the window, and so is the day after it
+        for (int i = -1; i <= DayFormatter.WINDOW_DAYS; i++) {
+            long date = today + i * DAY_IN_MILLIS;
+            assertEquals("Error: wrong short string for day " + i,
+                    legacyFriendlyDayString(date, false, now),
+                    formatter.getFriendlyDayString(mContext, date, false, now));
+            assertEquals("Error: wrong long string for day " + i,
+                    legacyFriendlyDayString(date, true, now),
+                    formatter.getFriendlyDayString(mContext, date, true, now));
+        }
+    }
+
+    public void testWindowIsRemembered() {
+        DayFormatter formatter = new DayFormatter();
+        long now = System.currentTimeMillis();
+        long today = today();
+        String[] first = new String[DayFormatter.WINDOW_DAYS];
+        for (int i = 0; i < first.length; i++) {
+            first[i] = formatter.getFriendlyDayString(mContext, today + i * DAY_IN_MILLIS, false,
+                    now);
+        }
+        int misses = formatter.getMissCount();
+        int hits = formatter.getHitCount();
+
+        for (int i = 0; i < first.length; i++) {
+            assertSame("Error: day " + i + " wasn't remembered", first[i],
+                    formatter.getFriendlyDayString(mContext, today + i * DAY_IN_MILLIS, false,
+                            now));
+        }
+        assertEquals(misses, formatter.getMissCount());
+        assertEquals(hits + first.length, formatter.getHitCount());
+    }
+
+    public void testWindowMovesOnAtMidnight() {
+        DayFormatter formatter = new DayFormatter();
+        long now = System.currentTimeMillis();
+        long tomorrow = today() + DAY_IN_MILLIS;
+        assertEquals(mContext.getString(R.string.tomorrow),
+                formatter.getDayName(mContext, tomorrow, now));
+        assertEquals(mContext.getString(R.string.today),
+                formatter.getDayName(mContext, tomorrow, now + DAY_IN_MILLIS));
+    }
+
+    public void testLocaleChangeDropsTheWindow() {
+        DayFormatter formatter = new DayFormatter();
+        long now = System.currentTimeMillis();
+        long date = today() + 3 * DAY_IN_MILLIS;
+
+        Locale.setDefault(Locale.US);
+        String english = formatter.getDayName(mContext, date, now);
+        Locale.setDefault(Locale.FRANCE);
+        String french = formatter.getDayName(mContext, date, now);
+        assertEquals(new SimpleDateFormat("EEEE", Locale.US).format(date), english);
+        assertEquals(new SimpleDateFormat("EEEE", Locale.FRANCE).format(date), french);
+    }
+
+    public void testConcurrentCallersAgree() throws InterruptedException {
+        final DayFormatter formatter = new DayFormatter();
+        final long now = System.currentTimeMillis();
+        final long today = today();
+        // Past the window too, so the shared formatters are used from every thread
+        final int days = 3 * DayFormatter.WINDOW_DAYS;
+        final String[] expected = new String[days];
+        for (int i = 0; i < days; i++) {
+            expected[i] = legacyFriendlyDayString(today + i * DAY_IN_MILLIS, false, now);
+        }
+
+        final int threadCount = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threadCount);
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        for (int t = 0; t < threadCount; t++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int pass = 0; pass < 200; pass++) {
+                            for (int i = 0; i < days; i++) {
+                                String s = formatter.getFriendlyDayString(mContext,
+                                        today + i * DAY_IN_MILLIS, false, now);
+                                if (!expected[i].equals(s)) {
+                                    failure.compareAndSet(null, "day " + i + ": " + s);
+                                }
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        failure.compareAndSet(null, e.toString());
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        start.countDown();
+        done.await();
+        assertNull("Error: concurrent formatting went wrong, " + failure.get(), failure.get());
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.database.MatrixCursor;
+import android.preference.PreferenceManager;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.view.ViewGroup;
+
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Checks that the updates worked out between two forecast lists take the rows of the first
+    to the rows of the second, and redraw only the rows that look different once formatted.
+ */
+public class TestForecastListDiff extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final long TODAY = 1419033600000L;
+
+    private String mUnits;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mUnits = PreferenceManager.getDefaultSharedPreferences(mContext)
+                .getString(mContext.getString(R.string.pref_units_key),
+                        mContext.getString(R.string.pref_units_metric));
+        setUnits(R.string.pref_units_metric);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putString(mContext.getString(R.string.pref_units_key), mUnits)
+                .commit();
+        super.tearDown();
+    }
+
+    /**
+     * Replays item notifications on a copy of the old list's dates.  Rows that are inserted or
+     * changed are rebound, which is marked with a null.
+     */
+    private static class ReplayAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+        final List<Long> rows = new ArrayList<Long>();
+        int rebound;
+        boolean redrewEverything;
+
+        ReplayAdapter(ForecastList shown) {
+            for (int i = 0; i < shown.size(); i++) {
+                rows.add(shown.getDate(i));
+            }
+            registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+                @Override
+                public void onChanged() {
+                    redrewEverything = true;
+                }
+
+                @Override
+                public void onItemRangeChanged(int positionStart, int itemCount) {
+                    for (int i = positionStart; i < positionStart + itemCount; i++) {
+                        rows.set(i, null);
+                    }
+                    rebound += itemCount;
+                }
+
+                @Override
+                public void onItemRangeInserted(int positionStart, int itemCount) {
+                    for (int i = 0; i < itemCount; i++) {
+                        rows.add(positionStart, null);
+                    }
+                    rebound += itemCount;
+                }
+
+                @Override
+                public void onItemRangeRemoved(int positionStart, int itemCount) {
+                    for (int i = 0; i < itemCount; i++) {
+                        rows.remove(positionStart);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public RecyclerView.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            return null;
+        }
+
+        @Override
+        public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
+        }
+
+        @Override
+        public int getItemCount() {
+            return rows.size();
+        }
+    }
+
+    private static ForecastSnapshot snapshot(long firstDate, double[] highs) {
+        MatrixCursor cursor = new MatrixCursor(ForecastSnapshot.COLUMNS);
+        for (int i = 0; i < highs.length; i++) {
+            cursor.addRow(new Object[]{i + 1, firstDate + i * DAY_IN_MILLIS, 800, "Clear",
+                    highs[i], 10.0, 64.7488, -147.353});
+        }
+        try {
+            return ForecastSnapshot.fromCursor("99705", cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static double[] week() {
+        return new double[]{20, 21, 22, 23, 24, 25, 26};
+    }
+
+    private ForecastList build(ForecastSnapshot snapshot, long today, ForecastList previous) {
+        return ForecastList.build(mContext, snapshot, today, previous);
+    }
+
+    private void setUnits(int unitsId) {
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putString(mContext.getString(R.string.pref_units_key),
+                        mContext.getString(unitsId))
+                .commit();
+    }
+
+    /**
+     * Applies the new list's changes to the old one and checks the rows that weren't
+     * rebound are the new list's days.
+     *
+     * @return how many rows were rebound
+     */
+    private static int replay(ForecastList from, ForecastList to) {
+        ReplayAdapter adapter = new ReplayAdapter(from);
+        assertTrue("Error: the changes don't start from the list shown",
+                to.getChanges().appliesTo(from));
+        to.getChanges().dispatchTo(adapter);
+        assertFalse(adapter.redrewEverything);
+        assertEquals("Error: wrong number of rows after the changes", to.size(),
+                adapter.rows.size());
+        for (int i = 0; i < to.size(); i++) {
+            Long row = adapter.rows.get(i);
+            if (row != null) {
+                assertEquals("Error: row " + i + " is showing the wrong day",
+                        to.getDate(i), row.longValue());
+            }
+        }
+        return adapter.rebound;
+    }
+
+    public void testOneDayChangingRebindsOneRow() {
+        ForecastList before = build(snapshot(TODAY, week()), TODAY, null);
+        double[] highs = week();
+        highs[3] = 30;
+        ForecastList after = build(snapshot(TODAY, highs), TODAY, before);
+
+        assertEquals(1, replay(before, after));
+        assertEquals(1, after.getChanges().getChangedCount());
+        assertEquals(0, after.getChanges().getInsertedCount());
+        assertEquals(0, after.getChanges().getRemovedCount());
+    }
+
+    public void testNothingChangingRebindsNothing() {
+        ForecastList before = build(snapshot(TODAY, week()), TODAY, null);
+        ForecastList after = build(snapshot(TODAY, week()), TODAY, before);
+        assertEquals(0, replay(before, after));
+    }
+
+    public void testNewDaysAreInserted() {
+        ForecastList before = build(snapshot(TODAY, week()), TODAY, null);
+        double[] longer = {20, 21, 22, 23, 24, 25, 26, 27, 28};
+        ForecastList after = build(snapshot(TODAY, longer), TODAY, before);
+
+        assertEquals(2, replay(before, after));
+        assertEquals(2, after.getChanges().getInsertedCount());
+        assertEquals(0, after.getChanges().getChangedCount());
+    }
+
+    public void testYesterdayDropsOffAtMidnight() {
+        // The same snapshot, a day later.  The day names are formatted against the clock, so
+        // they stay put here; only the new first row is redrawn, as today.
+        ForecastSnapshot snapshot = snapshot(TODAY, week());
+        ForecastList before = build(snapshot, TODAY, null);
+        ForecastList after = build(snapshot, TODAY + DAY_IN_MILLIS, before);
+
+        assertEquals(6, after.size());
+        assertEquals(1, replay(before, after));
+        assertEquals(1, after.getChanges().getRemovedCount());
+        assertEquals(1, after.getChanges().getChangedCount());
+    }
+
+    public void testNewFirstRowIsRedrawnAsToday() {
+        // Yesterday's sync didn't have today; today's does
+        ForecastList before = build(snapshot(TODAY + DAY_IN_MILLIS, week()), TODAY, null);
+        double[] highs = {19, 20, 21, 22, 23, 24, 25, 26};
+        ForecastList after = build(snapshot(TODAY, highs), TODAY, before);
+
+        // The new today is inserted, and the old first row no longer gets the today layout
+        assertEquals(2, replay(before, after));
+        assertEquals(1, after.getChanges().getInsertedCount());
+        assertEquals(1, after.getChanges().getChangedCount());
+    }
+
+    public void testUnitsChangeRedrawsEveryRow() {
+        ForecastSnapshot snapshot = snapshot(TODAY, week());
+        setUnits(R.string.pref_units_metric);
+        ForecastList before = build(snapshot, TODAY, null);
+        setUnits(R.string.pref_units_imperial);
+        ForecastList after = build(snapshot, TODAY, before);
+        assertEquals(7, replay(before, after));
+    }
+
+    public void testChangesOnlyApplyToTheListTheyStartFrom() {
+        ForecastSnapshot snapshot = snapshot(TODAY, week());
+        ForecastList first = build(snapshot, TODAY, null);
+        ForecastList other = build(snapshot, TODAY, null);
+        ForecastList next = build(snapshot, TODAY, first);
+
+        assertFalse(first.getChanges().appliesTo(null));
+        assertTrue(next.getChanges().appliesTo(first));
+        assertFalse(next.getChanges().appliesTo(other));
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.MatrixCursor;
+import android.preference.PreferenceManager;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import android.view.ContextThemeWrapper;
+import android.view.View;
+import android.widget.AbsListView;
+
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.Arrays;
+
+/*
+    Scrolls a fortnight's forecast past a few recycled rows, binding them the way
+    ForecastAdapter did before the rows were formatted by the loader, and the way it does now.
+    A frame is counted as janky when binding the rows it brings on screen takes more than
+    BIND_BUDGET_NANOS, leaving too little of the frame for layout and drawing.  Frame times for
+    each are written to the log under this class's tag.  The two are compared by their 90th
+    percentile frame, the median over several runs taken in turn, so a GC pause or a stall on a
+    slow emulator in one run doesn't decide the result.
+ */
+public class TestForecastRowBinding extends AndroidTestCase {
+    public static final String LOG_TAG = TestForecastRowBinding.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int DAYS = 14;
+    // A fling brings a couple of rows on screen each frame, for a few seconds
+    private static final int FRAMES = 300;
+    private static final int ROWS_PER_FRAME = 2;
+    // A quarter of a 60fps frame
+    private static final long BIND_BUDGET_NANOS = 4 * 1000 * 1000;
+    // Runs of each binder, alternated so both see the same background noise
+    private static final int RUNS = 5;
+    // How much slower than formatting on bind the precomputed rows may look before we call it
+    // a regression rather than timer noise
+    private static final double TOLERANCE = 1.25;
+
+    private interface Binder {
+        void bind(ForecastAdapter.ForecastAdapterViewHolder holder, int position);
+    }
+
+    private String mArtPack;
+    private ForecastAdapter mAdapter;
+    private ForecastAdapter.ForecastAdapterViewHolder[] mHolders;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // Remote art would go through Glide, which has to be on the main thread
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String key = mContext.getString(R.string.pref_art_pack_key);
+        mArtPack = prefs.getString(key, mContext.getString(R.string.pref_art_pack_sunshine));
+        prefs.edit().putString(key, mContext.getString(R.string.pref_art_pack_sunshine)).commit();
+
+        Context themed = new ContextThemeWrapper(mContext, R.style.AppTheme_Main);
+        RecyclerView recyclerView = new RecyclerView(themed);
+        mAdapter = new ForecastAdapter(themed, new ForecastAdapter.ForecastAdapterOnClickHandler() {
+            @Override
+            public void onClick(Long date, ForecastAdapter.ForecastAdapterViewHolder vh) {
+            }
+        }, new View(themed), AbsListView.CHOICE_MODE_NONE);
+        mAdapter.setUseTodayLayout(false);
+        mHolders = new ForecastAdapter.ForecastAdapterViewHolder[ROWS_PER_FRAME * 4];
+        for (int i = 0; i < mHolders.length; i++) {
+            mHolders[i] = mAdapter.onCreateViewHolder(recyclerView, mAdapter.getItemViewType(1));
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putString(mContext.getString(R.string.pref_art_pack_key), mArtPack)
+                .commit();
+        super.tearDown();
+    }
+
+    private static ForecastSnapshot fortnight(long today) {
+        MatrixCursor cursor = new MatrixCursor(ForecastSnapshot.COLUMNS);
+        for (int i = 0; i < DAYS; i++) {
+            cursor.addRow(new Object[]{i + 1, today + i * DAY_IN_MILLIS, 500 + i * 20, "Rain",
+                    20.0 + i, 10.0 + i, 64.7488, -147.353});
+        }
+        try {
+            return ForecastSnapshot.fromCursor("99705", cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+        What ForecastAdapter.onBindViewHolder did for each row before the loader formatted
+        them, with the bundled art.
+     */
+    private void legacyBind(ForecastSnapshot snapshot, ForecastAdapter.ForecastAdapterViewHolder holder,
+                            int position) {
+        int weatherId = snapshot.getWeatherId(position);
+        if (Utility.usingLocalGraphics(mContext)) {
+            holder.mIconView.setImageResource(Utility.getIconResourceForWeatherCondition(weatherId));
+        }
+        holder.mDateView.setText(
+                Utility.getFriendlyDayString(mContext, snapshot.getDate(position), false));
+        String description = Utility.getStringForWeatherCondition(mContext, weatherId);
+        holder.mDescriptionView.setText(description);
+        holder.mDescriptionView.setContentDescription(
+                mContext.getString(R.string.a11y_forecast, description));
+        String highString = Utility.formatTemperature(mContext, snapshot.getHigh(position));
+        holder.mHighTempView.setText(highString);
+        holder.mHighTempView.setContentDescription(
+                mContext.getString(R.string.a11y_high_temp, highString));
+        String lowString = Utility.formatTemperature(mContext, snapshot.getLow(position));
+        holder.mLowTempView.setText(lowString);
+        holder.mLowTempView.setContentDescription(
+                mContext.getString(R.string.a11y_low_temp, lowString));
+    }
+
+    /**
+     * Binds ROWS_PER_FRAME rows a frame, moving down the list and round again, and logs how
+     * many frames went over the binding budget.
+     * @return the 90th percentile frame's binding time, in nanoseconds
+     */
+    private long scroll(String name, Binder binder) {
+        long[] frames = new long[FRAMES];
+        int janky = 0;
+        long total = 0;
+        int position = 0;
+        for (int frame = 0; frame < FRAMES; frame++) {
+            long start = System.nanoTime();
+            for (int r = 0; r < ROWS_PER_FRAME; r++, position++) {
+                binder.bind(mHolders[position % mHolders.length], position % DAYS);
+            }
+            long elapsed = System.nanoTime() - start;
+            frames[frame] = elapsed;
+            total += elapsed;
+            if (elapsed > BIND_BUDGET_NANOS) {
+                janky++;
+            }
+        }
+        Arrays.sort(frames);
+        long p90 = frames[FRAMES * 9 / 10];
+        Log.i(LOG_TAG, String.format(
+                "%s: %d of %d frames over budget, mean %.3f ms, p90 %.3f ms, worst %.3f ms",
+                name, janky, FRAMES, total / 1e6 / FRAMES, p90 / 1e6, frames[FRAMES - 1] / 1e6));
+        return p90;
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    public void testPrecomputedRowsBindNoSlowerThanFormattingOnBind() {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        final ForecastSnapshot snapshot = fortnight(today);
+        mAdapter.swapList(ForecastList.build(mContext, snapshot, today, null));
+        assertEquals(DAYS, mAdapter.getItemCount());
+
+        // Once each to warm up, so neither pays for class loading and the first resource reads
+        Binder legacy = new Binder() {
+            @Override
+            public void bind(ForecastAdapter.ForecastAdapterViewHolder holder, int position) {
+                legacyBind(snapshot, holder, position);
+            }
+        };
+        Binder precomputed = new Binder() {
+            @Override
+            public void bind(ForecastAdapter.ForecastAdapterViewHolder holder, int position) {
+                mAdapter.onBindViewHolder(holder, position);
+            }
+        };
+        scroll("warm-up", legacy);
+        scroll("warm-up", precomputed);
+
+        long[] legacyP90 = new long[RUNS];
+        long[] precomputedP90 = new long[RUNS];
+        for (int run = 0; run < RUNS; run++) {
+            legacyP90[run] = scroll("formatting on bind", legacy);
+            precomputedP90[run] = scroll("precomputed rows", precomputed);
+        }
+        long legacyMedian = median(legacyP90);
+        long precomputedMedian = median(precomputedP90);
+        assertTrue(String.format("Error: binding precomputed rows took %.3f ms at the 90th "
+                        + "percentile, formatting on bind %.3f ms",
+                        precomputedMedian / 1e6, legacyMedian / 1e6),
+                precomputedMedian <= legacyMedian * TOLERANCE);
+    }
+
+    public void testPrecomputedRowsShowWhatBindingFormatted() {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        ForecastSnapshot snapshot = fortnight(today);
+        mAdapter.swapList(ForecastList.build(mContext, snapshot, today, null));
+
+        ForecastAdapter.ForecastAdapterViewHolder legacy = mHolders[0];
+        ForecastAdapter.ForecastAdapterViewHolder precomputed = mHolders[1];
+        for (int i = 1; i < DAYS; i++) {
+            legacyBind(snapshot, legacy, i);
+            mAdapter.onBindViewHolder(precomputed, i);
+            String error = "Error: row " + i + " doesn't match formatting on bind";
+            assertEquals(error, legacy.mDateView.getText().toString(),
+                    precomputed.mDateView.getText().toString());
+            assertEquals(error, legacy.mDescriptionView.getText().toString(),
+                    precomputed.mDescriptionView.getText().toString());
+            assertEquals(error, legacy.mDescriptionView.getContentDescription().toString(),
+                    precomputed.mDescriptionView.getContentDescription().toString());
+            assertEquals(error, legacy.mHighTempView.getText().toString(),
+                    precomputed.mHighTempView.getText().toString());
+            assertEquals(error, legacy.mHighTempView.getContentDescription().toString(),
+                    precomputed.mHighTempView.getContentDescription().toString());
+            assertEquals(error, legacy.mLowTempView.getText().toString(),
+                    precomputed.mLowTempView.getText().toString());
+            assertEquals(error, legacy.mLowTempView.getContentDescription().toString(),
+                    precomputed.mLowTempView.getContentDescription().toString());
+        }
+    }
+}
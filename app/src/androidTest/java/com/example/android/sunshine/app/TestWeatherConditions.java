@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.shared.WeatherConditions;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+    Checks the condition tables give, for every code, what the if/else chains they replaced in
+    Utility and in the watch face gave.
+ */
+public class TestWeatherConditions extends AndroidTestCase {
+
+    // Past both ends of the code range, to cover the unknown codes too
+    private static final int FIRST_CODE = -1;
+    private static final int LAST_CODE = WeatherConditions.MAX_CODE + 1;
+
+    // The codes Utility.getStringForWeatherCondition had a case for
+    private static final int[] DESCRIBED_CODES = {
+            500, 501, 502, 503, 504, 511, 520, 531,
+            600, 601, 602, 611, 612, 615, 616, 620, 621, 622,
+            701, 711, 721, 731, 741, 751, 761, 762, 771, 781,
+            800, 801, 802, 803, 804,
+            900, 901, 902, 903, 904, 905, 906,
+            951, 952, 953, 954, 955, 956, 957, 958, 959, 960, 961, 962
+    };
+
+    /*
+        The chain Utility's icon, art and art URL helpers, and the watch face's art helper,
+        each had a copy of, giving the art name.
+     */
+    private static String legacyArtName(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return "storm";
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return "light_rain";
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return "rain";
+        } else if (weatherId == 511) {
+            return "snow";
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return "rain";
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return "snow";
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return "fog";
+        } else if (weatherId == 761 || weatherId == 781) {
+            return "storm";
+        } else if (weatherId == 800) {
+            return "clear";
+        } else if (weatherId == 801) {
+            return "light_clouds";
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return "clouds";
+        }
+        return null;
+    }
+
+    /*
+        WatchFace.getBgForWeatherCondition, giving the name of the background colors.
+     */
+    private static String legacyWatchBackground(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return "storm";
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return "sky_blue";
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return "gray";
+        } else if (weatherId == 511) {
+            return "gray";
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return "gray";
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return "gray";
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return "gray";
+        } else if (weatherId == 761 || weatherId == 781) {
+            return "storm";
+        } else if (weatherId == 800) {
+            return "sky_blue";
+        } else if (weatherId == 801) {
+            return "sky_blue";
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return "gray";
+        }
+        return null;
+    }
+
+    /*
+        Utility.getImageUrlForWeatherCondition, giving the image's file name.
+     */
+    private static String legacyImageName(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return "Thunderstorm_in_Annemasse,_France.jpg";
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return "Rain_on_leaf_504605006.jpg";
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return "Rain-on-Thassos.jpg";
+        } else if (weatherId == 511) {
+            return "Fresh_snow.JPG";
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return "Rain-on-Thassos.jpg";
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return "Fresh_snow.JPG";
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return "Westminster_fog_-_London_-_UK.jpg";
+        } else if (weatherId == 761 || weatherId == 781) {
+            return "Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg";
+        } else if (weatherId == 800) {
+            return "A_few_trees_and_the_sun_(6009964513).jpg";
+        } else if (weatherId == 801) {
+            return "Cloudy_Blue_Sky_(5031259890).jpg";
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return "Cloudy_hills_in_Elis,_Greece_2.jpg";
+        }
+        return null;
+    }
+
+    /*
+        Utility.getStringForWeatherCondition, with its switch looked up by resource name.
+     */
+    private String legacyDescription(int weatherId) {
+        String name = null;
+        if (weatherId >= 200 && weatherId <= 232) {
+            name = "condition_2xx";
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            name = "condition_3xx";
+        } else {
+            for (int code : DESCRIBED_CODES) {
+                if (code == weatherId) {
+                    name = "condition_" + code;
+                }
+            }
+        }
+        if (name == null) {
+            return mContext.getString(R.string.condition_unknown, weatherId);
+        }
+        int stringId = mContext.getResources().getIdentifier(name, "string",
+                mContext.getPackageName());
+        assertTrue("Error: no string " + name, stringId != 0);
+        return mContext.getString(stringId);
+    }
+
+    private int drawable(String name) {
+        int id = mContext.getResources().getIdentifier(name, "drawable",
+                mContext.getPackageName());
+        assertTrue("Error: no drawable " + name, id != 0);
+        return id;
+    }
+
+    public void testAppHelpersMatchTheChains() {
+        for (int code = FIRST_CODE; code <= LAST_CODE; code++) {
+            String artName = legacyArtName(code);
+            String error = "Error: code " + code + " doesn't match the old helpers";
+            if (artName == null) {
+                assertEquals(error, -1, Utility.getIconResourceForWeatherCondition(code));
+                assertEquals(error, -1, Utility.getArtResourceForWeatherCondition(code));
+                assertNull(error, Utility.getArtUrlForWeatherCondition(mContext, code));
+                assertNull(error, Utility.getImageUrlForWeatherCondition(code));
+            } else {
+                // The icon for clouds is the odd one out in its name
+                String iconName = "ic_" + (artName.equals("clouds") ? "cloudy" : artName);
+                assertEquals(error, drawable(iconName),
+                        Utility.getIconResourceForWeatherCondition(code));
+                assertEquals(error, drawable("art_" + artName),
+                        Utility.getArtResourceForWeatherCondition(code));
+                assertTrue(error, Utility.getArtUrlForWeatherCondition(mContext, code)
+                        .endsWith("art_" + artName + ".png"));
+                assertTrue(error, Utility.getImageUrlForWeatherCondition(code)
+                        .endsWith("/" + legacyImageName(code)));
+            }
+            assertEquals(error, legacyDescription(code),
+                    Utility.getStringForWeatherCondition(mContext, code));
+        }
+    }
+
+    public void testKindsMatchTheWatchFaceChains() {
+        // The watch face keeps its art and colors by kind, so each kind has to stand for one
+        // art name and one pair of background colors
+        Map<Integer, String> artByKind = new HashMap<Integer, String>();
+        Map<Integer, String> backgroundByKind = new HashMap<Integer, String>();
+        for (int code = FIRST_CODE; code <= LAST_CODE; code++) {
+            int kind = WeatherConditions.kindOf(code);
+            String error = "Error: code " + code + " is in the wrong kind";
+            assertEquals(error, legacyArtName(code), WeatherConditions.artName(kind));
+            if (!artByKind.containsKey(kind)) {
+                artByKind.put(kind, legacyArtName(code));
+                backgroundByKind.put(kind, legacyWatchBackground(code));
+            }
+            assertEquals(error, artByKind.get(kind), legacyArtName(code));
+            assertEquals(error, backgroundByKind.get(kind), legacyWatchBackground(code));
+        }
+        assertEquals(WeatherConditions.KIND_COUNT, artByKind.size());
+    }
+}
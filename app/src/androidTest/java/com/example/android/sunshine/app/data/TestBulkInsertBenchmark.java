@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Compares WeatherProvider's compiled-statement insert path with the db.insert loop it
+    replaced, for a fortnight's sync, a large sync and a very large import.  Rows per second
+    for each are written to the log under this class's tag.  The import takes a while, so it
+    is marked as a large test for runners that pick tests by size.
+ */
+public class TestBulkInsertBenchmark extends AndroidTestCase {
+    public static final String LOG_TAG = TestBulkInsertBenchmark.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    // Rows are fed in batches of this size, so 100,000 rows don't need 100,000 ContentValues
+    // in memory.  Each batch goes to its own location so that no row replaces another.
+    private static final int BATCH_SIZE = 1000;
+
+    private interface RowWriter {
+        boolean write(ContentValues value);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    /*
+        What WeatherProvider.bulkInsert did for each row before the compiled-statement path:
+        normalize the date with a new Time, then db.insert.
+     */
+    private static boolean legacyInsert(SQLiteDatabase db, ContentValues value) {
+        long date = value.getAsLong(WeatherEntry.COLUMN_DATE);
+        Time time = new Time();
+        time.set(date);
+        value.put(WeatherEntry.COLUMN_DATE, time.setJulianDay(Time.getJulianDay(date, time.gmtoff)));
+        return db.insert(WeatherEntry.TABLE_NAME, null, value) != -1;
+    }
+
+    private static long[] insertLocations(SQLiteDatabase db, int count) {
+        long[] ids = new long[count];
+        for (int i = 0; i < count; i++) {
+            ContentValues location = TestUtilities.createNorthPoleLocationValues();
+            location.put(LocationEntry.COLUMN_LOCATION_SETTING, "benchmark-" + i);
+            ids[i] = db.insert(LocationEntry.TABLE_NAME, null, location);
+            assertTrue(ids[i] != -1);
+        }
+        return ids;
+    }
+
+    private static ContentValues[] createBatch(int size) {
+        ContentValues[] batch = new ContentValues[size];
+        long date = TestUtilities.TEST_DATE;
+        for (int i = 0; i < size; i++, date += DAY_IN_MILLIS) {
+            batch[i] = TestUtilities.createWeatherValues(0);
+            batch[i].put(WeatherEntry.COLUMN_DATE, date);
+        }
+        return batch;
+    }
+
+    /**
+     * Writes rows rows in one transaction, the way a single bulkInsert would.
+     * @return the elapsed time in nanoseconds
+     */
+    private static long time(SQLiteDatabase db, int rows, long[] locationIds, RowWriter writer) {
+        ContentValues[] batch = createBatch(Math.min(rows, BATCH_SIZE));
+        long start = System.nanoTime();
+        db.beginTransaction();
+        try {
+            int written = 0;
+            for (int b = 0; written < rows; b++) {
+                for (int i = 0; i < batch.length && written < rows; i++, written++) {
+                    batch[i].put(WeatherEntry.COLUMN_LOC_KEY, locationIds[b]);
+                    assertTrue(writer.write(batch[i]));
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private void runBenchmark(int rows) {
+        int locations = (rows + BATCH_SIZE - 1) / BATCH_SIZE;
+
+        // The old path
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        final SQLiteDatabase legacyDb = dbHelper.getWritableDatabase();
+        long legacyNanos = time(legacyDb, rows, insertLocations(legacyDb, locations),
+                new RowWriter() {
+                    @Override
+                    public boolean write(ContentValues value) {
+                        return legacyInsert(legacyDb, value);
+                    }
+                });
+        assertEquals(rows, DatabaseUtils.queryNumEntries(legacyDb, WeatherEntry.TABLE_NAME));
+        dbHelper.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+
+        // The compiled-statement path, into an identical empty database
+        dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        long[] locationIds = insertLocations(db, locations);
+        final WeatherProvider.WeatherInserter inserter = new WeatherProvider.WeatherInserter(db);
+        long fastNanos;
+        try {
+            fastNanos = time(db, rows, locationIds, new RowWriter() {
+                @Override
+                public boolean write(ContentValues value) {
+                    return inserter.insert(value);
+                }
+            });
+        } finally {
+            inserter.close();
+        }
+        assertEquals(rows, DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME));
+        dbHelper.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+
+        Log.i(LOG_TAG, String.format("%,d rows: db.insert %,.0f rows/s, compiled %,.0f rows/s (%.2fx)",
+                rows, rowsPerSecond(rows, legacyNanos), rowsPerSecond(rows, fastNanos),
+                (double) legacyNanos / fastNanos));
+    }
+
+    private static double rowsPerSecond(int rows, long nanos) {
+        return rows * 1e9 / nanos;
+    }
+
+    public void testBenchmark14Rows() {
+        // A fortnight for one location: what every sync writes.  Run it twice so the first
+        // measurement doesn't carry class loading and JIT warm-up.
+        runBenchmark(14);
+        runBenchmark(14);
+    }
+
+    public void testBenchmark1000Rows() {
+        runBenchmark(1000);
+    }
+
+    @LargeTest
+    public void testBenchmark100000Rows() {
+        runBenchmark(100000);
+    }
+
+    public void testCompiledPathStoresTheSameRows() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        long[] locationIds = insertLocations(db, 2);
+
+        ContentValues[] legacy = createBatch(14);
+        ContentValues[] compiled = createBatch(14);
+        WeatherProvider.WeatherInserter inserter = new WeatherProvider.WeatherInserter(db);
+        try {
+            for (int i = 0; i < 14; i++) {
+                legacy[i].put(WeatherEntry.COLUMN_LOC_KEY, locationIds[0]);
+                assertTrue(legacyInsert(db, legacy[i]));
+                compiled[i].put(WeatherEntry.COLUMN_LOC_KEY, locationIds[1]);
+                assertTrue(inserter.insert(compiled[i]));
+            }
+        } finally {
+            inserter.close();
+        }
+
+        // legacyInsert left the normalized dates in its values; the rows written by the
+        // compiled path must match them, with only the location changed
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME, null,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?", new String[]{Long.toString(locationIds[1])},
+                null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(14, cursor.getCount());
+        for (int i = 0; i < 14; i++) {
+            assertTrue(cursor.moveToNext());
+            legacy[i].put(WeatherEntry.COLUMN_LOC_KEY, locationIds[1]);
+            TestUtilities.validateCurrentRecord("Error: compiled insert of row " + i +
+                    " doesn't match db.insert", cursor, legacy[i]);
+        }
+        cursor.close();
+        dbHelper.close();
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Counts the change notifications a sync's writes send, and who gets them: a location's
+    forecast list should hear once per write to that location, and a single day only when
+    that day was written.
+ */
+public class TestChangeNotifications extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final String OTHER_LOCATION = "94043";
+    private static final int DAYS = 7;
+
+    private long mToday;
+    private long mNorthPoleId;
+    private long mOtherId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mToday = WeatherContract.normalizeDate(TestUtilities.TEST_DATE + 10 * DAY_IN_MILLIS);
+        mNorthPoleId = insertLocation(TestUtilities.TEST_LOCATION);
+        mOtherId = insertLocation(OTHER_LOCATION);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private long insertLocation(String locationSetting) {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        return ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values));
+    }
+
+    private long day(int i) {
+        return WeatherContract.normalizeDate(mToday + i * DAY_IN_MILLIS + DAY_IN_MILLIS / 2);
+    }
+
+    // What a sync writes for a location: a week from today, dropping the days before
+    private void sync(String locationSetting, long locationId) {
+        ContentValues[] values = new ContentValues[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            values[i] = TestUtilities.createWeatherValues(locationId);
+            values[i].put(WeatherEntry.COLUMN_DATE, day(i));
+        }
+        mContext.getContentResolver().bulkInsert(
+                WeatherEntry.buildWeatherLocationReplace(locationSetting, mToday), values);
+    }
+
+    private TestUtilities.CountingContentObserver observe(Uri uri) {
+        return TestUtilities.CountingContentObserver.register(mContext, uri);
+    }
+
+    private void assertChanges(String message, int expected,
+                               TestUtilities.CountingContentObserver observer) {
+        List<Uri> changes = observer.countChanges(mContext);
+        observer.unregister(mContext);
+        assertEquals("Error: " + message + ", got " + changes, expected, changes.size());
+    }
+
+    public void testSyncOfOneLocationOnlyReachesItsObservers() {
+        TestUtilities.CountingContentObserver list =
+                observe(WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION));
+        TestUtilities.CountingContentObserver otherList =
+                observe(WeatherEntry.buildWeatherLocation(OTHER_LOCATION));
+        TestUtilities.CountingContentObserver today =
+                observe(WeatherEntry.buildWeatherDayChangeUri(TestUtilities.TEST_LOCATION, day(0)));
+        TestUtilities.CountingContentObserver otherToday =
+                observe(WeatherEntry.buildWeatherDayChangeUri(OTHER_LOCATION, day(0)));
+        TestUtilities.CountingContentObserver nextMonth =
+                observe(WeatherEntry.buildWeatherDayChangeUri(TestUtilities.TEST_LOCATION, day(30)));
+
+        sync(TestUtilities.TEST_LOCATION, mNorthPoleId);
+
+        assertChanges("the location's list should reload once", 1, list);
+        assertChanges("another location's list shouldn't reload", 0, otherList);
+        assertChanges("a day that was written should reload once", 1, today);
+        assertChanges("another location's day shouldn't reload", 0, otherToday);
+        assertChanges("a day that wasn't written shouldn't reload", 0, nextMonth);
+    }
+
+    public void testMultiLocationSync() {
+        TestUtilities.CountingContentObserver everything = observe(WeatherEntry.CONTENT_URI);
+        TestUtilities.CountingContentObserver list =
+                observe(WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION));
+
+        sync(TestUtilities.TEST_LOCATION, mNorthPoleId);
+        sync(OTHER_LOCATION, mOtherId);
+
+        assertChanges("each location's write should be heard once", 2, everything);
+        assertChanges("the list should only hear its own location", 1, list);
+    }
+
+    public void testPrunedDaysAreNotified() {
+        sync(TestUtilities.TEST_LOCATION, mNorthPoleId);
+        TestUtilities.CountingContentObserver firstDay =
+                observe(WeatherEntry.buildWeatherDayChangeUri(TestUtilities.TEST_LOCATION, day(0)));
+
+        // The next day's sync drops what was today
+        mToday = day(1);
+        sync(TestUtilities.TEST_LOCATION, mNorthPoleId);
+
+        assertChanges("a day that was dropped should reload", 1, firstDay);
+    }
+
+    public void testDayCursorHearsOnlyItsDay() {
+        sync(TestUtilities.TEST_LOCATION, mNorthPoleId);
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION, day(2)),
+                null, null, null, null);
+        TestUtilities.TestContentObserver tco = TestUtilities.getTestContentObserver();
+        cursor.registerContentObserver(tco);
+
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, 99);
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, values,
+                WeatherEntry.COLUMN_DATE + " = ?", new String[]{Long.toString(day(2))});
+        tco.waitForNotificationOrFail();
+
+        cursor.unregisterContentObserver(tco);
+        cursor.close();
+    }
+
+    public void testUpdateOfOneDayReachesOnlyThatDay() {
+        sync(TestUtilities.TEST_LOCATION, mNorthPoleId);
+        TestUtilities.CountingContentObserver list =
+                observe(WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION));
+        TestUtilities.CountingContentObserver updated =
+                observe(WeatherEntry.buildWeatherDayChangeUri(TestUtilities.TEST_LOCATION, day(2)));
+        TestUtilities.CountingContentObserver notUpdated =
+                observe(WeatherEntry.buildWeatherDayChangeUri(TestUtilities.TEST_LOCATION, day(3)));
+
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, 99);
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, values,
+                WeatherEntry.COLUMN_DATE + " = ?", new String[]{Long.toString(day(2))});
+
+        assertChanges("the list shows the day, so should reload", 1, list);
+        assertChanges("the updated day should reload", 1, updated);
+        assertChanges("another day shouldn't reload", 0, notUpdated);
+    }
+
+    public void testDeletingEverythingReachesEveryDay() {
+        sync(TestUtilities.TEST_LOCATION, mNorthPoleId);
+        for (int i = 0; i < ChangedWeather.MAX_DAYS_NOTIFIED; i++) {
+            // More days than are notified one by one
+            ContentValues values = TestUtilities.createWeatherValues(mNorthPoleId);
+            values.put(WeatherEntry.COLUMN_DATE, day(DAYS + i));
+            mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, values);
+        }
+        TestUtilities.CountingContentObserver days =
+                observe(WeatherEntry.buildWeatherDaysChangeUri(TestUtilities.TEST_LOCATION));
+
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+
+        assertChanges("every day should hear the delete, once", 1, days);
+    }
+
+    public void testBatchIsNotifiedOnce() throws Exception {
+        TestUtilities.CountingContentObserver list =
+                observe(WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION));
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (int i = 0; i < DAYS; i++) {
+            ContentValues values = TestUtilities.createWeatherValues(mNorthPoleId);
+            values.put(WeatherEntry.COLUMN_DATE, day(i));
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(values).build());
+        }
+        NotificationCoalescer notifications =
+                TestUtilities.getProvider(mContext).getNotificationCoalescer();
+        long emitted = notifications.getEmittedCount();
+
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+
+        assertChanges("a batch should reload the list once", 1, list);
+        // The list once, and each day
+        assertEquals(1 + DAYS, notifications.getEmittedCount() - emitted);
+    }
+}
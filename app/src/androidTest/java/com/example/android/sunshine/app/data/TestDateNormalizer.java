@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/*
+    Checks that WeatherContract.normalizeDate gives the same answers as the Time based
+    version it replaced, every half hour through 2016 and so across both DST transitions, in
+    zones either side of the equator, with half and three-quarter hour offsets, and in one
+    where the clocks jumped over midnight.  These run on the device rather than the JVM
+    because the old version, which they compare against, needs android.text.format.Time.
+ */
+public class TestDateNormalizer extends AndroidTestCase {
+
+    private static final long HALF_HOUR_IN_MILLIS = 30 * 60 * 1000L;
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final long START_OF_2016 = 1451606400000L;  // UTC
+    private static final long END_OF_2016 = START_OF_2016 + 366 * DAY_IN_MILLIS;
+
+    private TimeZone mDefaultZone;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDefaultZone = TimeZone.getDefault();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TimeZone.setDefault(mDefaultZone);
+        WeatherContract.onTimeZoneChanged();
+        super.tearDown();
+    }
+
+    private static void useZone(String id) {
+        TimeZone.setDefault(TimeZone.getTimeZone(id));
+        WeatherContract.onTimeZoneChanged();
+    }
+
+    // What normalizeDate did before it stopped using Time
+    private static long legacyNormalizeDate(long date) {
+        Time time = new Time();
+        time.set(date);
+        int julianDay = Time.getJulianDay(date, time.gmtoff);
+        return time.setJulianDay(julianDay);
+    }
+
+    private static int[] localDate(long date) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(date);
+        return new int[]{calendar.get(Calendar.YEAR), calendar.get(Calendar.DAY_OF_YEAR)};
+    }
+
+    /*
+        The answer must be on the same local day as the date, and the instant before it on
+        the day before: that is, it is the first instant of the day.
+     */
+    private static void assertStartOfSameDay(String zone, long date, long normalized) {
+        String message = "Error: " + zone + " normalized " + date + " to " + normalized;
+        int[] day = localDate(date);
+        int[] start = localDate(normalized);
+        assertEquals(message, day[0], start[0]);
+        assertEquals(message, day[1], start[1]);
+        int[] before = localDate(normalized - 1);
+        assertFalse(message, before[0] == day[0] && before[1] == day[1]);
+    }
+
+    private void checkYear(String zone, boolean compareWithLegacy) {
+        useZone(zone);
+        for (long date = START_OF_2016; date < END_OF_2016; date += HALF_HOUR_IN_MILLIS) {
+            long normalized = WeatherContract.normalizeDate(date);
+            if (compareWithLegacy) {
+                assertEquals("Error: " + zone + " disagrees with Time at " + date,
+                        legacyNormalizeDate(date), normalized);
+            }
+            assertStartOfSameDay(zone, date, normalized);
+            // Already normalized dates are left alone
+            assertEquals(normalized, WeatherContract.normalizeDate(normalized));
+        }
+    }
+
+    public void testNorthernHemisphereDst() {
+        checkYear("America/Los_Angeles", true);
+        checkYear("America/New_York", true);
+        checkYear("Europe/London", true);
+    }
+
+    public void testSouthernHemisphereDst() {
+        checkYear("Australia/Sydney", true);
+    }
+
+    public void testOddOffsets() {
+        checkYear("Asia/Kolkata", true);
+        checkYear("Asia/Kathmandu", true);
+        checkYear("Pacific/Chatham", true);
+        checkYear("UTC", true);
+    }
+
+    public void testClocksJumpingOverMidnight() {
+        // Brazil's DST began at midnight until 2019, so 16 October 2016 started at 01:00.
+        // What Time did with a midnight that didn't exist isn't worth matching; the day
+        // still has to start at its first instant.
+        checkYear("America/Sao_Paulo", false);
+
+        long noon = 1476626400000L;  // 16 October 2016, 12:00 in Sao Paulo
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(WeatherContract.normalizeDate(noon));
+        assertEquals(16, calendar.get(Calendar.DAY_OF_MONTH));
+        assertEquals(1, calendar.get(Calendar.HOUR_OF_DAY));
+    }
+
+    public void testTimeZoneChangeIsPickedUp() {
+        long date = START_OF_2016 + 100 * DAY_IN_MILLIS;
+        useZone("America/Los_Angeles");
+        long inLosAngeles = WeatherContract.normalizeDate(date);
+
+        // Until it is told, normalizeDate keeps using the zone it looked up
+        TimeZone.setDefault(TimeZone.getTimeZone("Asia/Tokyo"));
+        assertEquals(inLosAngeles, WeatherContract.normalizeDate(date));
+
+        WeatherContract.onTimeZoneChanged();
+        assertEquals(legacyNormalizeDate(date), WeatherContract.normalizeDate(date));
+        assertFalse(inLosAngeles == WeatherContract.normalizeDate(date));
+    }
+
+    public void testNormalizingDoesNotAllocate() {
+        useZone("Europe/London");
+        // Warm up, so any lazily built zone data is already there
+        for (long date = START_OF_2016; date < END_OF_2016; date += DAY_IN_MILLIS) {
+            WeatherContract.normalizeDate(date);
+        }
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        for (long date = START_OF_2016; date < END_OF_2016; date += HALF_HOUR_IN_MILLIS) {
+            WeatherContract.normalizeDate(date);
+        }
+        Debug.stopAllocCounting();
+        assertEquals("Error: normalizeDate allocated", 0, Debug.getThreadAllocCount());
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.PackedForecastEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+    Builds a database the way version 2 of the app did, fills it, and then opens it with the
+    current WeatherDbHelper to check the migrations keep the data and end up with the same
+    schema as a fresh install.
+ */
+public class TestDbUpgrade extends AndroidTestCase {
+
+    private static final int DAYS = 14;
+
+    /**
+     * Creates the schema exactly as it shipped in version 2.  Never change this to match
+     * WeatherDbHelper; it is a snapshot of what is out on users' devices.
+     */
+    static class Version2DbHelper extends SQLiteOpenHelper {
+        Version2DbHelper(Context context) {
+            super(context, WeatherDbHelper.DATABASE_NAME, null, 2);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE location (" +
+                    "_id INTEGER PRIMARY KEY," +
+                    "location_setting TEXT UNIQUE NOT NULL, " +
+                    "city_name TEXT NOT NULL, " +
+                    "coord_lat REAL NOT NULL, " +
+                    "coord_long REAL NOT NULL " +
+                    " );");
+            db.execSQL("CREATE TABLE weather (" +
+                    "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    "location_id INTEGER NOT NULL, " +
+                    "date INTEGER NOT NULL, " +
+                    "short_desc TEXT NOT NULL, " +
+                    "weather_id INTEGER NOT NULL," +
+                    "min REAL NOT NULL, " +
+                    "max REAL NOT NULL, " +
+                    "humidity REAL NOT NULL, " +
+                    "pressure REAL NOT NULL, " +
+                    "wind REAL NOT NULL, " +
+                    "degrees REAL NOT NULL, " +
+                    " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+                    " UNIQUE (date, location_id) ON CONFLICT REPLACE);");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    private long populateVersion2() {
+        Version2DbHelper helper = new Version2DbHelper(mContext);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        long locationRowId = db.insert(LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        assertTrue(locationRowId != -1);
+        for (int i = 0; i < DAYS; i++) {
+            ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+            weatherValues.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + i);
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, 75 + i);
+            assertTrue(db.insert(WeatherEntry.TABLE_NAME, null, weatherValues) != -1);
+        }
+        helper.close();
+        return locationRowId;
+    }
+
+    public void testUpgradeFromVersion2KeepsForecasts() {
+        long locationRowId = populateVersion2();
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+
+        TestUtilities.validateCursor("Error: location lost in upgrade",
+                db.query(LocationEntry.TABLE_NAME, null, null, null, null, null, null),
+                TestUtilities.createNorthPoleLocationValues());
+
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME, null, null, null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals("Error: forecasts lost in upgrade", DAYS, cursor.getCount());
+        for (int i = 0; i < DAYS; i++) {
+            assertTrue(cursor.moveToNext());
+            ContentValues expected = TestUtilities.createWeatherValues(locationRowId);
+            expected.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + i);
+            expected.put(WeatherEntry.COLUMN_MAX_TEMP, 75 + i);
+            TestUtilities.validateCurrentRecord("Error: forecast changed in upgrade",
+                    cursor, expected);
+        }
+        cursor.close();
+
+        // One row per location per day still holds after the table has been rebuilt
+        db.insert(WeatherEntry.TABLE_NAME, null, TestUtilities.createWeatherValues(locationRowId));
+        assertEquals(DAYS, count(db, WeatherEntry.TABLE_NAME));
+
+        dbHelper.close();
+    }
+
+    public void testUpgradedSchemaMatchesFreshInstall() {
+        populateVersion2();
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        List<String> upgraded = describeSchema(dbHelper.getReadableDatabase());
+        dbHelper.close();
+
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        dbHelper = new WeatherDbHelper(mContext);
+        List<String> fresh = describeSchema(dbHelper.getReadableDatabase());
+        dbHelper.close();
+
+        assertEquals("Error: onCreate and the migrations disagree about the schema",
+                fresh, upgraded);
+    }
+
+    public void testEveryVersionHasAMigration() {
+        int version = WeatherDbHelper.OLDEST_MIGRATABLE_VERSION;
+        for (WeatherDbHelper.Migration migration : WeatherDbHelper.MIGRATIONS) {
+            assertEquals("Error: migrations must be in order with no gaps",
+                    version + 1, migration.toVersion);
+            version = migration.toVersion;
+        }
+        assertEquals(WeatherDbHelper.DATABASE_VERSION, version);
+    }
+
+    private static long count(SQLiteDatabase db, String table) {
+        Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + table, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+        Columns and indexes of every app table, in a form that doesn't depend on the order
+        things were created in or on the names SQLite gave to its automatic indexes.
+     */
+    private static List<String> describeSchema(SQLiteDatabase db) {
+        List<String> schema = new ArrayList<String>();
+        for (String table : new String[]{LocationEntry.TABLE_NAME, WeatherEntry.TABLE_NAME,
+                PackedForecastEntry.TABLE_NAME, HistoryEntry.TABLE_NAME}) {
+            Cursor columns = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+            while (columns.moveToNext()) {
+                schema.add(table + " column " + columns.getString(columns.getColumnIndex("name"))
+                        + " " + columns.getString(columns.getColumnIndex("type"))
+                        + " notnull=" + columns.getInt(columns.getColumnIndex("notnull"))
+                        + " pk=" + columns.getInt(columns.getColumnIndex("pk")));
+            }
+            columns.close();
+
+            Cursor indexes = db.rawQuery("PRAGMA index_list(" + table + ")", null);
+            while (indexes.moveToNext()) {
+                String index = indexes.getString(indexes.getColumnIndex("name"));
+                StringBuilder description = new StringBuilder(table).append(" index unique=")
+                        .append(indexes.getInt(indexes.getColumnIndex("unique"))).append(" on");
+                Cursor indexColumns = db.rawQuery("PRAGMA index_info(" + index + ")", null);
+                while (indexColumns.moveToNext()) {
+                    description.append(' ')
+                            .append(indexColumns.getString(indexColumns.getColumnIndex("name")));
+                }
+                indexColumns.close();
+                schema.add(description.toString());
+            }
+            indexes.close();
+        }
+        Collections.sort(schema);
+        return schema;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+public class TestForecastSnapshotCache extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        // Nothing is notified if there was nothing to delete
+        ForecastSnapshotCache.getInstance().invalidate();
+    }
+
+    private long insertLocation(String locationSetting) {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        Uri uri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values);
+        return ContentUris.parseId(uri);
+    }
+
+    private void insertDays(long locationId, int days) {
+        ContentValues[] values = new ContentValues[days];
+        for (int i = 0; i < days; i++) {
+            values[i] = TestUtilities.createWeatherValues(locationId);
+            values[i].put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + i * DAY_IN_MILLIS);
+            values[i].put(WeatherEntry.COLUMN_MAX_TEMP, 70 + i);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+    }
+
+    public void testSecondReadIsAnsweredFromMemory() {
+        insertDays(insertLocation(TestUtilities.TEST_LOCATION), 7);
+        ForecastSnapshotCache cache = ForecastSnapshotCache.getInstance();
+        int hits = cache.getHitCount();
+        int misses = cache.getMissCount();
+
+        ForecastSnapshot first = cache.get(mContext, TestUtilities.TEST_LOCATION);
+        ForecastSnapshot second = cache.get(mContext, TestUtilities.TEST_LOCATION);
+        assertSame("Error: the second read built another snapshot", first, second);
+        assertEquals(misses + 1, cache.getMissCount());
+        assertEquals(hits + 1, cache.getHitCount());
+
+        assertEquals(7, first.size());
+        for (int i = 1; i < first.size(); i++) {
+            assertTrue("Error: days out of order", first.getDate(i - 1) < first.getDate(i));
+        }
+        assertEquals(70.0, first.getHigh(0));
+        assertEquals(76.0, first.getHigh(6));
+        assertEquals(321, first.getWeatherId(0));
+        assertEquals("Asteroids", first.getDescription(0));
+        assertEquals(TestUtilities.TEST_LOCATION, first.getLocationSetting());
+    }
+
+    public void testProviderChangesAreSeen() {
+        insertDays(insertLocation(TestUtilities.TEST_LOCATION), 3);
+        ForecastSnapshotCache cache = ForecastSnapshotCache.getInstance();
+        ForecastSnapshot before = cache.get(mContext, TestUtilities.TEST_LOCATION);
+
+        ContentValues hotter = new ContentValues();
+        hotter.put(WeatherEntry.COLUMN_MAX_TEMP, 99);
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, hotter,
+                WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(WeatherContract.normalizeDate(TestUtilities.TEST_DATE))});
+
+        ForecastSnapshot after = cache.get(mContext, TestUtilities.TEST_LOCATION);
+        assertNotSame("Error: a stale snapshot survived an update", before, after);
+        assertEquals(70.0, before.getHigh(0));
+        assertEquals(99.0, after.getHigh(0));
+        // The row was updated in place, so it keeps its id
+        assertEquals(before.getId(0), after.getId(0));
+    }
+
+    public void testLeastRecentlyReadLocationIsDropped() {
+        insertDays(insertLocation("11111"), 4);
+        insertDays(insertLocation("22222"), 4);
+        insertDays(insertLocation("33333"), 4);
+
+        // Room for two of the three
+        ForecastSnapshotCache cache = new ForecastSnapshotCache(8);
+        cache.get(mContext, "11111");
+        cache.get(mContext, "22222");
+        cache.get(mContext, "11111");
+        cache.get(mContext, "33333");
+        assertEquals(1, cache.getEvictionCount());
+
+        int misses = cache.getMissCount();
+        cache.get(mContext, "11111");
+        assertEquals("Error: the most recently read location was dropped",
+                misses, cache.getMissCount());
+        cache.get(mContext, "22222");
+        assertEquals("Error: the least recently read location was kept",
+                misses + 1, cache.getMissCount());
+    }
+
+    public void testIndexFromSkipsPastDays() {
+        insertDays(insertLocation(TestUtilities.TEST_LOCATION), 5);
+        ForecastSnapshot forecast =
+                ForecastSnapshotCache.getInstance().get(mContext, TestUtilities.TEST_LOCATION);
+        long third = forecast.getDate(2);
+        assertEquals(2, forecast.indexFrom(third));
+        assertEquals(2, forecast.indexOf(third));
+        assertEquals(3, forecast.indexFrom(third + 1));
+        assertEquals(-1, forecast.indexOf(third + 1));
+        assertEquals(0, forecast.indexFrom(0));
+        assertEquals(forecast.size(), forecast.indexFrom(Long.MAX_VALUE));
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    The days a sync drops from the weather table should come back out of the history, for any
+    range, until the retention runs out.
+ */
+public class TestHistoryArchive extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int DAYS = 100;
+
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mLocationId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        getHistory().setRetentionDays(
+                mContext.getResources().getInteger(R.integer.history_retention_days));
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private HistoryArchive getHistory() {
+        return TestUtilities.getProvider(mContext).getHistoryArchive();
+    }
+
+    private static long day(int i) {
+        return WeatherContract.normalizeDate(
+                TestUtilities.TEST_DATE + i * DAY_IN_MILLIS + DAY_IN_MILLIS / 2);
+    }
+
+    // Values that change from day to day, as real weather does, and that like the API's
+    // have no more than two decimal places
+    private ContentValues createDay(int i) {
+        ContentValues values = TestUtilities.createWeatherValues(mLocationId);
+        values.put(WeatherEntry.COLUMN_DATE, day(i));
+        values.put(WeatherEntry.COLUMN_WEATHER_ID, 800 + i % 4);
+        values.put(WeatherEntry.COLUMN_MIN_TEMP, -10.25 + (i % 17) * 1.5);
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, 4.75 + (i % 13) * 0.75);
+        values.put(WeatherEntry.COLUMN_HUMIDITY, 40 + i % 50);
+        values.put(WeatherEntry.COLUMN_PRESSURE, 1013.25 - i % 9);
+        values.put(WeatherEntry.COLUMN_WIND_SPEED, 1 + (i % 7) * 0.25);
+        values.put(WeatherEntry.COLUMN_DEGREES, (i * 37) % 360);
+        return values;
+    }
+
+    // A sync on the first day: writes days first until last, dropping the days before first
+    private void sync(int first, int last) {
+        ContentValues[] values = new ContentValues[last - first];
+        for (int i = first; i < last; i++) {
+            values[i - first] = createDay(i);
+        }
+        mContext.getContentResolver().bulkInsert(
+                WeatherEntry.buildWeatherLocationReplace(TestUtilities.TEST_LOCATION, day(first)),
+                values);
+    }
+
+    private Cursor queryHistory(int first, int last) {
+        return mContext.getContentResolver().query(
+                HistoryEntry.buildHistoryRange(TestUtilities.TEST_LOCATION, day(first), day(last)),
+                null, null, null, null);
+    }
+
+    private void assertDay(int i, Cursor cursor) {
+        ContentValues expected = createDay(i);
+        expected.remove(WeatherEntry.COLUMN_LOC_KEY);
+        expected.remove(WeatherEntry.COLUMN_SHORT_DESC);
+        for (String column : expected.keySet()) {
+            int index = cursor.getColumnIndexOrThrow(column);
+            assertEquals("Error: day " + i + ", " + column,
+                    expected.getAsDouble(column), cursor.getDouble(index));
+        }
+        assertEquals(day(i), cursor.getLong(cursor.getColumnIndexOrThrow(HistoryEntry._ID)));
+    }
+
+    public void testChunkRoundTrip() {
+        sync(0, DAYS);
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI, HistoryChunk.WEATHER_COLUMNS, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        HistoryChunk chunk = HistoryChunk.fromCursor(cursor);
+        HistoryChunk decoded = HistoryChunk.decode(chunk.encode());
+        assertEquals(DAYS, decoded.size());
+        for (int i = 0; i < DAYS && cursor.moveToPosition(i); i++) {
+            assertEquals(cursor.getLong(0), decoded.getDate(i));
+            assertEquals(cursor.getInt(1), decoded.getWeatherId(i));
+            for (int m = 0; m < HistoryChunk.MEASURES; m++) {
+                assertEquals(cursor.getDouble(2 + m), decoded.getMeasure(m, i));
+            }
+        }
+        cursor.close();
+    }
+
+    public void testSyncMovesDroppedDaysIntoHistory() {
+        sync(0, DAYS);
+        sync(DAYS, DAYS + 7);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: the dropped days are still in the forecast", 7, cursor.getCount());
+        cursor.close();
+
+        cursor = queryHistory(0, DAYS + 7);
+        assertEquals(DAYS, cursor.getCount());
+        for (int i = 0; cursor.moveToNext(); i++) {
+            assertDay(i, cursor);
+        }
+        cursor.close();
+    }
+
+    public void testRangeSpansChunks() {
+        sync(0, DAYS);
+        sync(DAYS, DAYS + 7);
+
+        Cursor cursor = queryHistory(10, 70);
+        assertEquals(61, cursor.getCount());
+        // Backwards, so every chunk is decoded again
+        for (int position = cursor.getCount() - 1; position >= 0; position--) {
+            assertTrue(cursor.moveToPosition(position));
+            assertDay(10 + position, cursor);
+        }
+        cursor.close();
+
+        cursor = queryHistory(DAYS + 10, DAYS + 20);
+        assertEquals("Error: the future has no history", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testDailySyncsAppend() {
+        sync(0, 7);
+        for (int i = 1; i < 2 * HistoryArchive.CHUNK_DAYS + 5; i++) {
+            sync(i, i + 7);
+        }
+        int archived = 2 * HistoryArchive.CHUNK_DAYS + 4;
+        Cursor cursor = queryHistory(0, archived);
+        assertEquals(archived, cursor.getCount());
+        for (int i = 0; cursor.moveToNext(); i++) {
+            assertDay(i, cursor);
+        }
+        cursor.close();
+    }
+
+    public void testRetention() {
+        getHistory().setRetentionDays(30);
+        sync(0, DAYS);
+        sync(DAYS, DAYS + 7);
+
+        int firstKept = 0;
+        while (day(firstKept) < day(DAYS) - 30 * DAY_IN_MILLIS) {
+            firstKept++;
+        }
+        Cursor cursor = queryHistory(0, DAYS);
+        assertEquals(DAYS - firstKept, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertDay(firstKept, cursor);
+        cursor.close();
+    }
+
+    public void testNoRetentionDeletesAsBefore() {
+        getHistory().setRetentionDays(0);
+        sync(0, DAYS);
+        sync(DAYS, DAYS + 7);
+
+        Cursor cursor = queryHistory(0, DAYS);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testHistoryIsNotified() {
+        sync(0, 7);
+        TestUtilities.CountingContentObserver observer =
+                TestUtilities.CountingContentObserver.register(mContext,
+                        HistoryEntry.buildHistoryLocation(TestUtilities.TEST_LOCATION));
+
+        sync(3, 10);
+
+        assertEquals(1, observer.countChanges(mContext).size());
+        observer.unregister(mContext);
+    }
+
+    public void testDeletedLocationTakesItsHistory() {
+        sync(0, 7);
+        sync(3, 10);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        mLocationId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+
+        Cursor cursor = queryHistory(0, 10);
+        assertEquals("Error: a new location inherited history", 0, cursor.getCount());
+        cursor.close();
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class TestNotificationCoalescer extends AndroidTestCase {
+
+    private static final Uri NORTH_POLE = WeatherEntry.buildWeatherLocation("99705");
+    private static final Uri MOUNTAIN_VIEW = WeatherEntry.buildWeatherLocation("94043");
+
+    private final List<Uri> mSent = new ArrayList<Uri>();
+    private NotificationCoalescer mCoalescer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCoalescer = new NotificationCoalescer(new NotificationCoalescer.Notifier() {
+            @Override
+            public void notifyChange(Uri uri) {
+                synchronized (mSent) {
+                    mSent.add(uri);
+                }
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCoalescer.shutdown();
+        super.tearDown();
+    }
+
+    private List<Uri> sent() {
+        synchronized (mSent) {
+            return new ArrayList<Uri>(mSent);
+        }
+    }
+
+    private void add(Uri... uris) {
+        mCoalescer.add(Arrays.asList(uris));
+    }
+
+    public void testNoWindowSendsAtOnce() {
+        mCoalescer.setWindowMillis(0);
+        add(NORTH_POLE);
+        assertEquals(Collections.singletonList(NORTH_POLE), sent());
+    }
+
+    public void testBurstIsSentOnceAfterTheWindow() {
+        mCoalescer.setWindowMillis(200);
+        add(NORTH_POLE);
+        add(NORTH_POLE, MOUNTAIN_VIEW);
+        add(NORTH_POLE);
+        assertTrue("Error: nothing should go out before the window ends", sent().isEmpty());
+
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return sent().size() == 2;
+            }
+        }.run();
+        assertEquals(Arrays.asList(NORTH_POLE, MOUNTAIN_VIEW), sent());
+        assertEquals(4, mCoalescer.getRequestedCount());
+        assertEquals(2, mCoalescer.getEmittedCount());
+        assertEquals(2, mCoalescer.getCoalescedCount());
+    }
+
+    public void testAncestorCoversDescendants() {
+        mCoalescer.setWindowMillis(0);
+        mCoalescer.beginBatch();
+        add(NORTH_POLE, WeatherEntry.buildWeatherDayChangeUri("99705", 0));
+        add(WeatherEntry.CONTENT_URI, MOUNTAIN_VIEW);
+        mCoalescer.endBatch();
+        // The day URIs aren't under the weather URI, so they still go out
+        assertEquals(Arrays.asList(WeatherEntry.buildWeatherDayChangeUri("99705", 0),
+                WeatherEntry.CONTENT_URI), sent());
+        assertEquals(2, mCoalescer.getCoalescedCount());
+    }
+
+    public void testBatchHoldsPastTheWindow() throws Exception {
+        mCoalescer.setWindowMillis(50);
+        mCoalescer.beginBatch();
+        add(NORTH_POLE);
+        mCoalescer.flush();
+        Thread.sleep(200);
+        assertTrue("Error: nothing should go out while a batch is open", sent().isEmpty());
+
+        mCoalescer.setWindowMillis(0);
+        mCoalescer.endBatch();
+        assertEquals(Collections.singletonList(NORTH_POLE), sent());
+    }
+
+    public void testShutdownSendsWhatIsHeld() {
+        mCoalescer.setWindowMillis(60 * 1000);
+        add(NORTH_POLE);
+        mCoalescer.shutdown();
+        assertEquals(Collections.singletonList(NORTH_POLE), sent());
+    }
+
+    public void testIsAncestor() {
+        assertTrue(NotificationCoalescer.isAncestor(WeatherEntry.CONTENT_URI, NORTH_POLE));
+        assertFalse(NotificationCoalescer.isAncestor(NORTH_POLE, NORTH_POLE));
+        assertFalse(NotificationCoalescer.isAncestor(NORTH_POLE, MOUNTAIN_VIEW));
+        assertFalse(NotificationCoalescer.isAncestor(WeatherEntry.CONTENT_URI,
+                WeatherEntry.DAY_CHANGE_URI));
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+
+/*
+    The packed forecast must always decode to what the weather table holds, or be missing.
+ */
+public class TestPackedForecast extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int DAYS = 14;
+
+    private long mToday;
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        TestUtilities.getProvider(mContext).setPackForecasts(true);
+        mToday = WeatherContract.normalizeDate(TestUtilities.TEST_DATE + 10 * DAY_IN_MILLIS);
+        mLocationId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.getProvider(mContext).setPackForecasts(
+                mContext.getResources().getBoolean(R.bool.pack_forecasts));
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        ForecastSnapshotCache.getInstance().invalidate();
+    }
+
+    private long day(int i) {
+        return WeatherContract.normalizeDate(mToday + i * DAY_IN_MILLIS + DAY_IN_MILLIS / 2);
+    }
+
+    // A fortnight from today, dropping the days before, as a sync writes it
+    private void sync() {
+        ContentValues[] values = new ContentValues[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            values[i] = TestUtilities.createWeatherValues(mLocationId);
+            values[i].put(WeatherEntry.COLUMN_DATE, day(i));
+            values[i].put(WeatherEntry.COLUMN_MAX_TEMP, 70.25 + i);
+            values[i].put(WeatherEntry.COLUMN_WEATHER_ID, 800 + i);
+            values[i].put(WeatherEntry.COLUMN_SHORT_DESC, "Day " + i);
+        }
+        mContext.getContentResolver().bulkInsert(
+                WeatherEntry.buildWeatherLocationReplace(TestUtilities.TEST_LOCATION, mToday),
+                values);
+    }
+
+    private ForecastSnapshot readTable() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                ForecastSnapshot.COLUMNS, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            return ForecastSnapshot.fromCursor(TestUtilities.TEST_LOCATION, cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    static void assertSameDays(ForecastSnapshot expected, ForecastSnapshot actual) {
+        assertEquals(expected.getLocationSetting(), actual.getLocationSetting());
+        assertEquals(expected.getCoordLat(), actual.getCoordLat());
+        assertEquals(expected.getCoordLong(), actual.getCoordLong());
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getId(i), actual.getId(i));
+            assertEquals(expected.getDate(i), actual.getDate(i));
+            assertEquals(expected.getWeatherId(i), actual.getWeatherId(i));
+            assertEquals(expected.getDescription(i), actual.getDescription(i));
+            assertEquals(expected.getHigh(i), actual.getHigh(i));
+            assertEquals(expected.getLow(i), actual.getLow(i));
+        }
+    }
+
+    public void testRoundTrip() {
+        sync();
+        ForecastSnapshot table = readTable();
+        assertEquals(DAYS, table.size());
+        assertSameDays(table,
+                ForecastSnapshot.fromPacked(TestUtilities.TEST_LOCATION, table.toPacked()));
+    }
+
+    public void testEmptyRoundTrip() {
+        ForecastSnapshot empty = readTable();
+        assertEquals(0, empty.size());
+        assertSameDays(empty,
+                ForecastSnapshot.fromPacked(TestUtilities.TEST_LOCATION, empty.toPacked()));
+    }
+
+    public void testUnreadableBlobsAreRejected() {
+        sync();
+        byte[] packed = readTable().toPacked();
+
+        byte[] otherVersion = packed.clone();
+        otherVersion[0] = (byte) (ForecastSnapshot.PACKED_VERSION + 1);
+        byte[] cutShort = Arrays.copyOf(packed, packed.length - 1);
+        byte[] tooLong = Arrays.copyOf(packed, packed.length + 1);
+        for (byte[] blob : new byte[][]{otherVersion, cutShort, tooLong, new byte[0]}) {
+            try {
+                ForecastSnapshot.fromPacked(TestUtilities.TEST_LOCATION, blob);
+                fail("Error: decoded a blob of " + blob.length + " bytes");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    public void testSyncPacksTheForecast() {
+        sync();
+        ForecastSnapshot packed =
+                ForecastSnapshotCache.readPacked(mContext, TestUtilities.TEST_LOCATION);
+        assertNotNull("Error: the sync didn't pack the forecast", packed);
+        assertSameDays(readTable(), packed);
+
+        // The next day's sync drops what was today, and the packed forecast with it
+        mToday = day(1);
+        sync();
+        packed = ForecastSnapshotCache.readPacked(mContext, TestUtilities.TEST_LOCATION);
+        assertEquals(day(0), packed.getDate(0));
+        assertSameDays(readTable(), packed);
+    }
+
+    public void testOtherWritesDropThePackedForecast() {
+        sync();
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, 99);
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, values,
+                WeatherEntry.COLUMN_DATE + " = ?", new String[]{Long.toString(day(2))});
+
+        assertNull("Error: the packed forecast outlived a change to the table",
+                ForecastSnapshotCache.readPacked(mContext, TestUtilities.TEST_LOCATION));
+        ForecastSnapshot snapshot =
+                ForecastSnapshotCache.getInstance().get(mContext, TestUtilities.TEST_LOCATION);
+        assertEquals(99.0, snapshot.getHigh(snapshot.indexOf(day(2))));
+    }
+
+    public void testLocationChangesDropThePackedForecast() {
+        sync();
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_COORD_LAT, 12.5);
+        mContext.getContentResolver().update(LocationEntry.CONTENT_URI, values, null, null);
+
+        assertNull("Error: the packed forecast kept the old coordinates",
+                ForecastSnapshotCache.readPacked(mContext, TestUtilities.TEST_LOCATION));
+        assertEquals(12.5, ForecastSnapshotCache.getInstance()
+                .get(mContext, TestUtilities.TEST_LOCATION).getCoordLat());
+    }
+
+    public void testOffReadsTheTable() {
+        TestUtilities.getProvider(mContext).setPackForecasts(false);
+        sync();
+        assertNull(ForecastSnapshotCache.readPacked(mContext, TestUtilities.TEST_LOCATION));
+        assertSameDays(readTable(),
+                ForecastSnapshotCache.getInstance().get(mContext, TestUtilities.TEST_LOCATION));
+    }
+}
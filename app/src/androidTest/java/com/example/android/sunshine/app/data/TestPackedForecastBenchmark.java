@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+
+/*
+    Compares reading a location's forecast through the packed forecast URI, one row decoded
+    into a snapshot, with the join over the weather and location tables it replaces.  Both go
+    through the ContentResolver, as ForecastSnapshotCache does.  Microseconds per read for
+    each are written to the log under this class's tag.
+ */
+public class TestPackedForecastBenchmark extends AndroidTestCase {
+    public static final String LOG_TAG = TestPackedForecastBenchmark.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int READS = 200;
+
+    private interface Reader {
+        ForecastSnapshot read(String locationSetting);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        TestUtilities.getProvider(mContext).setPackForecasts(true);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.getProvider(mContext).setPackForecasts(
+                mContext.getResources().getBoolean(R.bool.pack_forecasts));
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        ForecastSnapshotCache.getInstance().invalidate();
+    }
+
+    // Syncs days of forecast for each location, the way the sync adapter writes them
+    private String[] syncLocations(int locations, int days) {
+        String[] settings = new String[locations];
+        long today = WeatherContract.normalizeDate(TestUtilities.TEST_DATE);
+        for (int l = 0; l < locations; l++) {
+            ContentValues location = TestUtilities.createNorthPoleLocationValues();
+            settings[l] = "benchmark-" + l;
+            location.put(LocationEntry.COLUMN_LOCATION_SETTING, settings[l]);
+            long locationId = ContentUris.parseId(
+                    mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, location));
+
+            ContentValues[] values = new ContentValues[days];
+            for (int i = 0; i < days; i++) {
+                values[i] = TestUtilities.createWeatherValues(locationId);
+                values[i].put(WeatherEntry.COLUMN_DATE, today + i * DAY_IN_MILLIS);
+            }
+            mContext.getContentResolver().bulkInsert(
+                    WeatherEntry.buildWeatherLocationReplace(settings[l], today), values);
+        }
+        return settings;
+    }
+
+    private ForecastSnapshot readJoin(String locationSetting) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(locationSetting),
+                ForecastSnapshot.COLUMNS, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            return ForecastSnapshot.fromCursor(locationSetting, cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return the median time of a read, in nanoseconds
+     */
+    private static long time(String[] locationSettings, int days, Reader reader) {
+        long[] nanos = new long[READS];
+        for (int i = 0; i < READS; i++) {
+            String locationSetting = locationSettings[i % locationSettings.length];
+            long start = System.nanoTime();
+            ForecastSnapshot snapshot = reader.read(locationSetting);
+            nanos[i] = System.nanoTime() - start;
+            assertEquals(days, snapshot.size());
+        }
+        Arrays.sort(nanos);
+        return nanos[READS / 2];
+    }
+
+    private void runBenchmark(int locations, int days) {
+        String[] locationSettings = syncLocations(locations, days);
+
+        Reader join = new Reader() {
+            @Override
+            public ForecastSnapshot read(String locationSetting) {
+                return readJoin(locationSetting);
+            }
+        };
+        Reader packed = new Reader() {
+            @Override
+            public ForecastSnapshot read(String locationSetting) {
+                return ForecastSnapshotCache.readPacked(mContext, locationSetting);
+            }
+        };
+
+        // Each path is run once first, so neither measurement carries class loading, JIT
+        // warm-up or a cold page cache
+        time(locationSettings, days, join);
+        long joinNanos = time(locationSettings, days, join);
+        time(locationSettings, days, packed);
+        long packedNanos = time(locationSettings, days, packed);
+
+        Log.i(LOG_TAG, String.format(
+                "%d locations of %d days: join %,.0fus, packed %,.0fus (%.2fx)", locations, days, joinNanos / 1e3, packedNanos / 1e3,
+                (double) joinNanos / packedNanos));
+    }
+
+    public void testBenchmarkOneLocation() {
+        runBenchmark(1, 14);
+    }
+
+    public void testBenchmarkSeveralLocations() {
+        // About what ForecastSnapshotCache is sized for
+        runBenchmark(8, 14);
+    }
+
+    public void testPackedReadMatchesTheJoin() {
+        String[] locationSettings = syncLocations(2, 14);
+        for (String locationSetting : locationSettings) {
+            TestPackedForecast.assertSameDays(readJoin(locationSetting),
+                    ForecastSnapshotCache.readPacked(mContext, locationSetting));
+        }
+    }
+}
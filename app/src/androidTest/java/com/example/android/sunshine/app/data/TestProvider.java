@@ -27,9 +27,12 @@ import android.os.Build;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.List;
+
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
     that at least the basic functionality has been implemented correctly.
@@ -512,4 +515,78 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    public void testReplaceForecast() {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        ContentValues[] lastSync = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, lastSync);
+
+        // The next sync starts three days on, and has new highs for the days it shares
+        long millisecondsInADay = 1000*60*60*24;
+        long today = TestUtilities.TEST_DATE + 3 * millisecondsInADay;
+        ContentValues[] thisSync = createBulkInsertWeatherValues(locationRowId);
+        for (int i = 0; i < thisSync.length; i++) {
+            thisSync[i].put(WeatherEntry.COLUMN_DATE,
+                    WeatherContract.normalizeDate(today + i * millisecondsInADay));
+            thisSync[i].put(WeatherEntry.COLUMN_MAX_TEMP, 90 + i);
+        }
+
+        TestUtilities.CountingContentObserver observer =
+                TestUtilities.CountingContentObserver.register(mContext, WeatherEntry.CONTENT_URI);
+        int insertCount = mContext.getContentResolver().bulkInsert(
+                WeatherEntry.buildWeatherLocationReplace(TestUtilities.TEST_LOCATION, today),
+                thisSync);
+        List<Uri> changes = observer.countChanges(mContext);
+        observer.unregister(mContext);
+
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, insertCount);
+        assertEquals("Error: replacing a forecast should notify once, got " + changes,
+                1, changes.size());
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        // The three days before today are gone, and the days both syncs had were replaced
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.moveToFirst();
+        for ( int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext() ) {
+            TestUtilities.validateCurrentRecord("testReplaceForecast.  Error validating WeatherEntry " + i,
+                    cursor, thisSync[i]);
+        }
+        cursor.close();
+    }
+
+    public void testReplaceForecastPrunesEveryLocation() {
+        long northPoleRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        ContentValues elsewhere = TestUtilities.createNorthPoleLocationValues();
+        elsewhere.put(LocationEntry.COLUMN_LOCATION_SETTING, "94043");
+        long elsewhereRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, elsewhere));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(elsewhereRowId));
+
+        // A location the user has moved on from isn't synced again, but its old days still go
+        long millisecondsInADay = 1000*60*60*24;
+        mContext.getContentResolver().bulkInsert(
+                WeatherEntry.buildWeatherLocationReplace(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE + 3 * millisecondsInADay),
+                createBulkInsertWeatherValues(northPoleRowId));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation("94043"), null, null, null, null);
+        assertEquals("Error: another location's old days were kept",
+                BULK_INSERT_RECORDS_TO_INSERT - 3, cursor.getCount());
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                HistoryEntry.buildHistoryLocation("94043"), null, null, null, null);
+        assertEquals("Error: another location's old days weren't archived", 3, cursor.getCount());
+        cursor.close();
+    }
 }
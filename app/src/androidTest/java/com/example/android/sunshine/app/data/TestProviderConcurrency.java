@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Build;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Stress test: several threads query the provider the way the forecast list, widgets and
+    Muzei do, while the test thread bulk inserts forecasts the way the sync adapter does.
+    Reader latency percentiles are written to the log under this class's tag.
+ */
+public class TestProviderConcurrency extends AndroidTestCase {
+    public static final String LOG_TAG = TestProviderConcurrency.class.getSimpleName();
+
+    private static final int READERS = 4;
+    private static final int ROUNDS = 5;
+    private static final int ROWS_PER_ROUND = 1000;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private final AtomicBoolean mWriting = new AtomicBoolean();
+    private final AtomicBoolean mStop = new AtomicBoolean();
+    // Queries that started and finished while a bulkInsert transaction was open
+    private final AtomicInteger mReadsDuringWrite = new AtomicInteger();
+
+    /**
+     * Queries the forecast list URI in a loop, recording how long each query took.
+     */
+    private class Reader extends Thread {
+        long[] mLatenciesNanos = new long[1024];
+        int mCount;
+
+        @Override
+        public void run() {
+            Uri uri = WeatherEntry.buildWeatherLocationWithStartDate(
+                    TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+            while (!mStop.get()) {
+                boolean writingBefore = mWriting.get();
+                long start = System.nanoTime();
+                Cursor cursor = mContext.getContentResolver().query(uri, null, null, null,
+                        WeatherEntry.COLUMN_DATE + " ASC");
+                // getCount fills the cursor window, which is where the query really runs
+                assertNotNull(cursor);
+                cursor.getCount();
+                cursor.close();
+                long elapsed = System.nanoTime() - start;
+                if (writingBefore && mWriting.get()) {
+                    mReadsDuringWrite.incrementAndGet();
+                }
+
+                if (mCount == mLatenciesNanos.length) {
+                    mLatenciesNanos = Arrays.copyOf(mLatenciesNanos, mCount * 2);
+                }
+                mLatenciesNanos[mCount++] = elapsed;
+            }
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private static ContentValues[] createForecast(long locationRowId, int round) {
+        ContentValues[] values = new ContentValues[ROWS_PER_ROUND];
+        long date = TestUtilities.TEST_DATE;
+        for (int i = 0; i < ROWS_PER_ROUND; i++, date += DAY_IN_MILLIS) {
+            values[i] = TestUtilities.createWeatherValues(locationRowId);
+            values[i].put(WeatherEntry.COLUMN_DATE, date);
+            values[i].put(WeatherEntry.COLUMN_MAX_TEMP, 75 + round);
+        }
+        return values;
+    }
+
+    public void testWriteAheadLoggingIsEnabled() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        Cursor cursor = db.rawQuery("PRAGMA journal_mode", null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("wal", cursor.getString(0).toLowerCase());
+        cursor.close();
+        dbHelper.close();
+    }
+
+    public void testReadersDuringBulkInsert() throws InterruptedException {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        // Start from a full table, as a sync replacing yesterday's forecast would
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createForecast(locationRowId, 0));
+
+        Reader[] readers = new Reader[READERS];
+        for (int i = 0; i < READERS; i++) {
+            readers[i] = new Reader();
+            readers[i].start();
+        }
+
+        long writeNanos = 0;
+        for (int round = 1; round <= ROUNDS; round++) {
+            ContentValues[] values = createForecast(locationRowId, round);
+            mWriting.set(true);
+            long start = System.nanoTime();
+            int inserted = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+            writeNanos += System.nanoTime() - start;
+            mWriting.set(false);
+            assertEquals(ROWS_PER_ROUND, inserted);
+        }
+
+        mStop.set(true);
+        int reads = 0;
+        for (Reader reader : readers) {
+            reader.join();
+            reads += reader.mCount;
+        }
+        long[] latencies = new long[reads];
+        int offset = 0;
+        for (Reader reader : readers) {
+            System.arraycopy(reader.mLatenciesNanos, 0, latencies, offset, reader.mCount);
+            offset += reader.mCount;
+        }
+        Arrays.sort(latencies);
+
+        Log.i(LOG_TAG, READERS + " readers, " + reads + " queries ("
+                + mReadsDuringWrite.get() + " inside a write) while writing "
+                + ROUNDS + "x" + ROWS_PER_ROUND + " rows in " + writeNanos / 1000000 + "ms");
+        Log.i(LOG_TAG, "Reader latency p50=" + millis(percentile(latencies, 50))
+                + " p90=" + millis(percentile(latencies, 90))
+                + " p99=" + millis(percentile(latencies, 99))
+                + " max=" + millis(latencies[latencies.length - 1]));
+
+        assertTrue("Error: the readers never got a query in", reads > 0);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            // With a reader pool, queries complete while the sync transaction is still open
+            assertTrue("Error: every query waited for the writer to commit",
+                    mReadsDuringWrite.get() > 0);
+        }
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        int index = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, index)];
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.2fms", nanos / 1000000.0);
+    }
+}
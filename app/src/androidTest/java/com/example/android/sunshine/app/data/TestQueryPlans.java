@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.PackedForecastEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Runs EXPLAIN QUERY PLAN for the statements behind every WeatherProvider route, with the
+    projections and selections the app really uses, and fails if any of them scans a whole
+    table.  If you add a route to the UriMatcher, add it to ROUTES and to statementsFor.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+
+    private static final int[] ROUTES = {
+            WeatherProvider.WEATHER,
+            WeatherProvider.WEATHER_WITH_LOCATION,
+            WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE,
+            WeatherProvider.LOCATION,
+            WeatherProvider.PACKED_FORECAST_WITH_LOCATION,
+            WeatherProvider.HISTORY_WITH_LOCATION,
+    };
+
+    // What the forecast list asks for; the widgets and Muzei ask for a subset of it
+    private static final String[] FORECAST_LIST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    private static final String DATE_ORDER = WeatherEntry.COLUMN_DATE + " ASC";
+
+    /**
+     * A statement a route runs, with arguments for its parameters.
+     */
+    private static class Statement {
+        final String description;
+        final String sql;
+        final String[] args;
+        // Set if the rows must come back in index order, without a sort step
+        boolean ordered;
+        // Set if the statement should be answered from an index alone
+        boolean covered;
+
+        Statement(String description, String sql, String... args) {
+            this.description = description;
+            this.sql = sql;
+            this.args = args;
+        }
+    }
+
+    private SQLiteDatabase mDb;
+    private WeatherDbHelper mDbHelper;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        TestUtilities.insertNorthPoleLocationValues(mContext);
+        mDbHelper = new WeatherDbHelper(mContext);
+        mDb = mDbHelper.getReadableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    private static List<Statement> statementsFor(int route) {
+        String location = TestUtilities.TEST_LOCATION;
+        String date = Long.toString(TestUtilities.TEST_DATE);
+        List<Statement> statements = new ArrayList<Statement>();
+        switch (route) {
+            case WeatherProvider.WEATHER: {
+                // A sync's search for every location with days to prune
+                statements.add(new Statement("locations with days before a date",
+                        WeatherProvider.SQL_LOCATIONS_WITH_DAYS_BEFORE, date));
+                break;
+            }
+            case WeatherProvider.WEATHER_WITH_LOCATION: {
+                Statement withStartDate = new Statement("forecast list from a start date",
+                        WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                                FORECAST_LIST_COLUMNS,
+                                WeatherProvider.sLocationSettingWithStartDateSelection,
+                                null, null, DATE_ORDER, null),
+                        location, date);
+                withStartDate.ordered = true;
+                withStartDate.covered = true;
+                statements.add(withStartDate);
+
+                Statement allDays = new Statement("forecast list, all days",
+                        WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                                FORECAST_LIST_COLUMNS,
+                                WeatherProvider.sLocationSettingSelection,
+                                null, null, DATE_ORDER, null),
+                        location);
+                allDays.ordered = true;
+                allDays.covered = true;
+                statements.add(allDays);
+                break;
+            }
+            case WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE: {
+                statements.add(new Statement("one day",
+                        WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                                null, WeatherProvider.sLocationSettingAndDaySelection,
+                                null, null, null, null),
+                        location, date));
+                break;
+            }
+            case WeatherProvider.LOCATION: {
+                // The sync adapter's lookup of a location's row
+                statements.add(new Statement("location by setting",
+                        "SELECT " + LocationEntry._ID + " FROM " + LocationEntry.TABLE_NAME +
+                                " WHERE " + LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                        location));
+                break;
+            }
+            case WeatherProvider.PACKED_FORECAST_WITH_LOCATION: {
+                statements.add(new Statement("packed forecast by setting",
+                        "SELECT " + PackedForecastEntry.COLUMN_DATA + " FROM " +
+                                PackedForecastEntry.TABLE_NAME + " WHERE " +
+                                WeatherProvider.sPackedForecastByLocationSettingSelection,
+                        location));
+                break;
+            }
+            case WeatherProvider.HISTORY_WITH_LOCATION: {
+                StringBuilder columns = new StringBuilder();
+                for (String column : HistoryArchive.HEADER_COLUMNS) {
+                    columns.append(columns.length() == 0 ? "" : ", ").append(column);
+                }
+                Statement range = new Statement("history chunks in a range",
+                        "SELECT " + columns + " FROM " + HistoryEntry.TABLE_NAME + " WHERE " +
+                                HistoryArchive.sLocationSettingAndRangeSelection +
+                                " ORDER BY " + HistoryEntry.COLUMN_FIRST_DATE + " ASC",
+                        location, date, date);
+                range.ordered = true;
+                statements.add(range);
+                break;
+            }
+            default:
+                fail("Error: no query plan check for route " + route);
+        }
+        return statements;
+    }
+
+    private List<String> explain(Statement statement) {
+        List<String> plan = new ArrayList<String>();
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + statement.sql, statement.args);
+        int detailIndex = cursor.getColumnIndex("detail");
+        while (cursor.moveToNext()) {
+            plan.add(cursor.getString(detailIndex));
+        }
+        cursor.close();
+        return plan;
+    }
+
+    public void testNoRouteScansATable() {
+        for (int route : ROUTES) {
+            for (Statement statement : statementsFor(route)) {
+                List<String> plan = explain(statement);
+                assertFalse("Error: empty plan for " + statement.description, plan.isEmpty());
+                boolean covered = false;
+                for (String step : plan) {
+                    // "SCAN TABLE weather", or "SCAN weather" on newer SQLite; either way a
+                    // walk over every row of a table or index
+                    assertFalse("Error: " + statement.description + " does a full scan: " + plan,
+                            step.startsWith("SCAN"));
+                    if (statement.ordered) {
+                        assertFalse("Error: " + statement.description + " sorts its rows: " + plan,
+                                step.contains("TEMP B-TREE"));
+                    }
+                    covered |= step.contains(WeatherEntry.TABLE_NAME)
+                            && step.contains("COVERING INDEX");
+                }
+                if (statement.covered) {
+                    assertTrue("Error: " + statement.description +
+                            " should be answered from an index: " + plan, covered);
+                }
+            }
+        }
+    }
+}
@@ -36,6 +36,8 @@ public class TestUriMatcher extends AndroidTestCase {
     private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
     // content://com.example.android.sunshine.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    private static final Uri TEST_HISTORY_RANGE_DIR = WeatherContract.HistoryEntry.buildHistoryRange(LOCATION_QUERY, TEST_DATE, TEST_DATE);
+    private static final Uri TEST_PACKED_FORECAST_ITEM = WeatherContract.PackedForecastEntry.buildPackedForecastUri(LOCATION_QUERY);
 
     /*
         Students: This function tests that your UriMatcher returns the correct integer value
@@ -53,5 +55,9 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
+        assertEquals("Error: The PACKED FORECAST URI was matched incorrectly.",
+                testMatcher.match(TEST_PACKED_FORECAST_ITEM), WeatherProvider.PACKED_FORECAST_WITH_LOCATION);
+        assertEquals("Error: The HISTORY URI was matched incorrectly.",
+                testMatcher.match(TEST_HISTORY_RANGE_DIR), WeatherProvider.HISTORY_WITH_LOCATION);
     }
 }
@@ -15,6 +15,7 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.content.ContentProviderClient;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.ContentObserver;
@@ -27,6 +28,8 @@ import android.test.AndroidTestCase;
 
 import com.example.android.sunshine.app.utils.PollingCheck;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -163,4 +166,92 @@ public class TestUtilities extends AndroidTestCase {
     static TestContentObserver getTestContentObserver() {
         return TestContentObserver.getTestContentObserver();
     }
+
+    /*
+        The provider running in this process, to get at its internals.
+     */
+    static WeatherProvider getProvider(Context context) {
+        ContentProviderClient client = context.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        try {
+            return (WeatherProvider) client.getLocalContentProvider();
+        } finally {
+            client.release();
+        }
+    }
+
+    /*
+        Counts the change notifications an observer gets, rather than noting that there was one.
+        Notifications arrive asynchronously, so before counting, countChanges has the provider
+        send what it's holding back, then sends a marker notification of its own and waits for
+        it; everything sent before the marker has arrived by then.
+     */
+    static class CountingContentObserver extends ContentObserver {
+        private static final String MARKER = "counting_observer_marker";
+
+        final HandlerThread mHT;
+        private final Uri mObserved;
+        private final List<Uri> mChanges = new ArrayList<Uri>();
+        private boolean mSawMarker;
+
+        static CountingContentObserver register(Context context, Uri uri) {
+            // Earlier writes' notifications aren't ours to count
+            getProvider(context).getNotificationCoalescer().flush();
+            HandlerThread ht = new HandlerThread("CountingObserverThread");
+            ht.start();
+            CountingContentObserver observer = new CountingContentObserver(ht, uri);
+            context.getContentResolver().registerContentObserver(uri, true, observer);
+            return observer;
+        }
+
+        private CountingContentObserver(HandlerThread ht, Uri observed) {
+            super(new Handler(ht.getLooper()));
+            mHT = ht;
+            mObserved = observed;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public synchronized void onChange(boolean selfChange, Uri uri) {
+            if (uri != null && uri.getQueryParameter(MARKER) != null) {
+                mSawMarker = true;
+            } else {
+                mChanges.add(uri);
+            }
+        }
+
+        /**
+         * @return the URIs notified since the last count, in order
+         */
+        List<Uri> countChanges(Context context) {
+            synchronized (this) {
+                mSawMarker = false;
+            }
+            getProvider(context).getNotificationCoalescer().flush();
+            context.getContentResolver().notifyChange(
+                    mObserved.buildUpon().appendQueryParameter(MARKER, "1").build(), null);
+            new PollingCheck(5000) {
+                @Override
+                protected boolean check() {
+                    synchronized (CountingContentObserver.this) {
+                        return mSawMarker;
+                    }
+                }
+            }.run();
+            synchronized (this) {
+                List<Uri> changes = new ArrayList<Uri>(mChanges);
+                mChanges.clear();
+                return changes;
+            }
+        }
+
+        void unregister(Context context) {
+            context.getContentResolver().unregisterContentObserver(this);
+            mHT.quit();
+        }
+    }
 }
@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.database.MatrixCursor;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TestFanOutDispatcher extends AndroidTestCase {
+
+    private static final long TODAY = 1419033600000L;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private FanOutDispatcher mDispatcher;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDispatcher = new FanOutDispatcher();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDispatcher.shutdown();
+        super.tearDown();
+    }
+
+    private static void awaitRuns(FanOutDispatcher.Stats stats) throws InterruptedException {
+        long deadline = SystemClock.elapsedRealtime() + 5000;
+        while (SystemClock.elapsedRealtime() < deadline) {
+            synchronized (stats) {
+                if (stats.runs != 0) {
+                    return;
+                }
+            }
+            Thread.sleep(10);
+        }
+        fail("Error: the run was never recorded");
+    }
+
+    public void testDispatchDoesNotWait() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        long start = SystemClock.elapsedRealtime();
+        mDispatcher.dispatch("slow", 10000, new FanOutDispatcher.Consumer() {
+            @Override
+            public void update() throws Exception {
+                release.await();
+                done.countDown();
+            }
+        });
+        assertTrue("Error: dispatch waited for the consumer",
+                SystemClock.elapsedRealtime() - start < 1000);
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    public void testConsumersRunSideBySide() throws InterruptedException {
+        // Every consumer waits for all the others to start, which only works if they run at once
+        final CountDownLatch started = new CountDownLatch(FanOutGate.CONSUMERS.length);
+        final CountDownLatch finished = new CountDownLatch(FanOutGate.CONSUMERS.length);
+        for (String consumer : FanOutGate.CONSUMERS) {
+            mDispatcher.dispatch(consumer, 5000, new FanOutDispatcher.Consumer() {
+                @Override
+                public void update() throws Exception {
+                    started.countDown();
+                    if (started.await(5, TimeUnit.SECONDS)) {
+                        finished.countDown();
+                    }
+                }
+            });
+        }
+        assertTrue("Error: consumers ran one after another",
+                finished.await(10, TimeUnit.SECONDS));
+    }
+
+    public void testSlowConsumerIsInterrupted() throws InterruptedException {
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        mDispatcher.dispatch("stuck", 200, new FanOutDispatcher.Consumer() {
+            @Override
+            public void update() {
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+            }
+        });
+        assertTrue("Error: the consumer ran past its time limit",
+                interrupted.await(5, TimeUnit.SECONDS));
+
+        FanOutDispatcher.Stats stats = mDispatcher.getStats("stuck");
+        // The run is recorded as the consumer returns, just after it is interrupted
+        awaitRuns(stats);
+        synchronized (stats) {
+            assertEquals(1, stats.timeouts);
+            assertEquals(1, stats.runs);
+            assertTrue(stats.maxMillis < 5000);
+        }
+    }
+
+    public void testLatencyAndFailuresAreRecorded() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(2);
+        mDispatcher.dispatch("fine", 500, new FanOutDispatcher.Consumer() {
+            @Override
+            public void update() throws Exception {
+                Thread.sleep(100);
+                done.countDown();
+            }
+        });
+        mDispatcher.dispatch("broken", 500, new FanOutDispatcher.Consumer() {
+            @Override
+            public void update() throws Exception {
+                done.countDown();
+                throw new IllegalStateException("expected by the test");
+            }
+        });
+        // The watchdog handles time limits in order, so once it has interrupted this, it has
+        // been past the other two as well
+        final CountDownLatch probed = new CountDownLatch(1);
+        mDispatcher.dispatch("probe", 600, new FanOutDispatcher.Consumer() {
+            @Override
+            public void update() {
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                    probed.countDown();
+                }
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        FanOutDispatcher.Stats fine = mDispatcher.getStats("fine");
+        FanOutDispatcher.Stats broken = mDispatcher.getStats("broken");
+        // The runs are recorded as the consumers return, just after the latch
+        awaitRuns(fine);
+        awaitRuns(broken);
+        synchronized (fine) {
+            assertEquals(1, fine.runs);
+            assertEquals(0, fine.failures);
+            assertTrue("Error: latency " + fine.maxMillis + "ms", fine.maxMillis >= 100);
+        }
+        synchronized (broken) {
+            assertEquals(1, broken.runs);
+            assertEquals(1, broken.failures);
+        }
+
+        assertTrue(probed.await(5, TimeUnit.SECONDS));
+        synchronized (fine) {
+            assertEquals("Error: a finished update was timed out", 0, fine.timeouts);
+        }
+        synchronized (broken) {
+            assertEquals("Error: a failed update was also timed out", 0, broken.timeouts);
+        }
+    }
+
+    public void testOnlyUpdatesThatGoThroughAreDelivered() throws InterruptedException {
+        final CountDownLatch delivered = new CountDownLatch(1);
+        final CountDownLatch wrongly = new CountDownLatch(1);
+        Runnable onWrongDelivery = new Runnable() {
+            @Override
+            public void run() {
+                wrongly.countDown();
+            }
+        };
+        mDispatcher.dispatch("broken", 5000, new FanOutDispatcher.Consumer() {
+            @Override
+            public void update() throws Exception {
+                throw new IllegalStateException("expected by the test");
+            }
+        }, onWrongDelivery);
+        // Swallows the interrupt and returns, as if it had finished
+        mDispatcher.dispatch("stuck", 200, new FanOutDispatcher.Consumer() {
+            @Override
+            public void update() {
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException ignored) {
+                }
+            }
+        }, onWrongDelivery);
+        mDispatcher.dispatch("fine", 5000, new FanOutDispatcher.Consumer() {
+            @Override
+            public void update() {
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                delivered.countDown();
+            }
+        });
+
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        awaitRuns(mDispatcher.getStats("broken"));
+        awaitRuns(mDispatcher.getStats("stuck"));
+        assertEquals("Error: a failed or timed out update was taken as delivered",
+                1, wrongly.getCount());
+    }
+
+    public void testTodayIsTakenFromTheSnapshot() {
+        MatrixCursor cursor = new MatrixCursor(ForecastSnapshot.COLUMNS);
+        cursor.addRow(new Object[]{1, TODAY, 800, "Clear", 25.0, 10.0, 37.4, -122.1});
+        cursor.addRow(new Object[]{2, TODAY + DAY_IN_MILLIS, 500, "Rain", 18.0, 9.0, 37.4, -122.1});
+        ForecastSnapshot forecast = ForecastSnapshot.fromCursor("94043", cursor);
+        cursor.close();
+
+        TodayForecast today = TodayForecast.from(forecast, TODAY);
+        assertNotNull(today);
+        assertEquals("94043", today.locationSetting);
+        assertEquals(800, today.weatherId);
+        assertEquals(25.0, today.high);
+        assertEquals(10.0, today.low);
+        assertEquals("Clear", today.description);
+
+        assertEquals(500, TodayForecast.from(forecast, TODAY + DAY_IN_MILLIS).weatherId);
+        // A forecast that starts tomorrow has nothing for today
+        assertNull(TodayForecast.from(forecast, TODAY - DAY_IN_MILLIS));
+    }
+}
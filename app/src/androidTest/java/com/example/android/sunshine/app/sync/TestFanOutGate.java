@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.database.MatrixCursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+
+import java.util.Map;
+
+public class TestFanOutGate extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final long TODAY = 1419033600000L;
+    private static final String LOCATION = "94043";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        FanOutGate.clear(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FanOutGate.clear(mContext);
+        super.tearDown();
+    }
+
+    private static ForecastSnapshot forecast(double todaysHigh, double lastDaysHigh) {
+        MatrixCursor cursor = new MatrixCursor(ForecastSnapshot.COLUMNS);
+        for (int i = 0; i < 7; i++) {
+            double high = i == 0 ? todaysHigh : (i == 6 ? lastDaysHigh : 20);
+            cursor.addRow(new Object[]{i + 1, TODAY + i * DAY_IN_MILLIS, 800, "Clear", high, 10.0,
+                    37.4, -122.1});
+        }
+        try {
+            return ForecastSnapshot.fromCursor(LOCATION, cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static Map<String, Long> digest(double todaysHigh, double lastDaysHigh,
+                                            boolean metric, long today) {
+        return FanOutGate.digest(forecast(todaysHigh, lastDaysHigh), metric, today);
+    }
+
+    // What the sync adapter does for a consumer whose update goes through
+    private static boolean update(FanOutGate gate, String consumer, Map<String, Long> digests) {
+        long digest = digests.get(consumer);
+        if (gate.shouldUpdate(consumer, digest)) {
+            gate.recordDelivered(consumer, digest);
+            return true;
+        }
+        return false;
+    }
+
+    public void testOnlyConsumersThatShowTheChangeAreUpdated() {
+        FanOutGate gate = new FanOutGate(mContext);
+        Map<String, Long> before = digest(25, 20, true, TODAY);
+        for (String consumer : FanOutGate.CONSUMERS) {
+            assertTrue("Error: " + consumer + " has never been updated",
+                    update(gate, consumer, before));
+        }
+
+        // The same forecast again changes nothing for anybody
+        Map<String, Long> same = digest(25, 20, true, TODAY);
+        for (String consumer : FanOutGate.CONSUMERS) {
+            assertFalse("Error: nothing " + consumer + " shows has changed",
+                    update(gate, consumer, same));
+        }
+
+        // A change at the end of the week only matters to the widgets, and the watch, which
+        // is sent the whole week
+        Map<String, Long> lastDay = digest(25, 21, true, TODAY);
+        assertTrue(update(gate, FanOutGate.WIDGETS, lastDay));
+        assertTrue(update(gate, FanOutGate.WEARABLES, lastDay));
+        assertFalse(update(gate, FanOutGate.MUZEI, lastDay));
+
+        // Today's high shows on everything but Muzei, which only shows the conditions
+        Map<String, Long> today = digest(26, 21, true, TODAY);
+        assertTrue(update(gate, FanOutGate.WIDGETS, today));
+        assertTrue(update(gate, FanOutGate.WEARABLES, today));
+        assertFalse(update(gate, FanOutGate.MUZEI, today));
+
+        assertEquals(3, gate.getDeliveredCount(FanOutGate.WIDGETS));
+        assertEquals(1, gate.getSuppressedCount(FanOutGate.WIDGETS));
+        assertEquals(3, gate.getDeliveredCount(FanOutGate.WEARABLES));
+        assertEquals(1, gate.getSuppressedCount(FanOutGate.WEARABLES));
+        assertEquals(1, gate.getDeliveredCount(FanOutGate.MUZEI));
+        assertEquals(3, gate.getSuppressedCount(FanOutGate.MUZEI));
+    }
+
+    public void testUndeliveredUpdateIsTriedAgain() {
+        FanOutGate gate = new FanOutGate(mContext);
+        long digest = digest(25, 20, true, TODAY).get(FanOutGate.WEARABLES);
+        // The update failed, so it was never recorded
+        assertTrue(gate.shouldUpdate(FanOutGate.WEARABLES, digest));
+        assertTrue("Error: a failed update was taken as delivered",
+                gate.shouldUpdate(FanOutGate.WEARABLES, digest));
+        assertEquals(0, gate.getDeliveredCount(FanOutGate.WEARABLES));
+
+        gate.recordDelivered(FanOutGate.WEARABLES, digest);
+        assertFalse(gate.shouldUpdate(FanOutGate.WEARABLES, digest));
+    }
+
+    public void testUnitsChangeReachesTheWatch() {
+        Map<String, Long> metric = digest(25, 20, true, TODAY);
+        Map<String, Long> imperial = digest(25, 20, false, TODAY);
+        assertFalse(metric.get(FanOutGate.WEARABLES).equals(imperial.get(FanOutGate.WEARABLES)));
+        assertFalse(metric.get(FanOutGate.WIDGETS).equals(imperial.get(FanOutGate.WIDGETS)));
+        assertEquals(metric.get(FanOutGate.MUZEI), imperial.get(FanOutGate.MUZEI));
+    }
+
+    public void testDaysBeforeTodayAreIgnored() {
+        // A snapshot built yesterday still has yesterday in it; today is what counts
+        Map<String, Long> fromToday = digest(25, 20, true, TODAY);
+        Map<String, Long> fromTomorrow = digest(25, 20, true, TODAY + DAY_IN_MILLIS);
+        assertFalse(fromToday.get(FanOutGate.WIDGETS).equals(fromTomorrow.get(FanOutGate.WIDGETS)));
+        // Today drops off what the watch is sent
+        assertFalse(fromToday.get(FanOutGate.WEARABLES)
+                .equals(fromTomorrow.get(FanOutGate.WEARABLES)));
+    }
+
+    public void testCountsSurviveANewGate() {
+        FanOutGate gate = new FanOutGate(mContext);
+        long digest = digest(25, 20, true, TODAY).get(FanOutGate.WIDGETS);
+        assertTrue(gate.shouldUpdate(FanOutGate.WIDGETS, digest));
+        gate.recordDelivered(FanOutGate.WIDGETS, digest);
+
+        // A new sync adapter process picks up where the last one left off
+        FanOutGate next = new FanOutGate(mContext);
+        assertFalse(next.shouldUpdate(FanOutGate.WIDGETS, digest));
+        assertEquals(1, next.getDeliveredCount(FanOutGate.WIDGETS));
+        assertEquals(1, next.getSuppressedCount(FanOutGate.WIDGETS));
+    }
+}
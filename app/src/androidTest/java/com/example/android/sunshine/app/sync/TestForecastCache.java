@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+public class TestForecastCache extends AndroidTestCase {
+
+    private static final String URL =
+            "http://api.openweathermap.org/data/2.5/forecast/daily?q=94043&mode=json";
+    private static final int TODAY = 2457012;
+    private static final String PAYLOAD = "{\"city\":{\"name\":\"Mountain View\"},\"list\":[]}";
+    private static final String ETAG = "\"abc123\"";
+    private static final String LAST_MODIFIED = "Sat, 20 Dec 2014 00:00:00 GMT";
+
+    private ForecastCache mCache;
+    private String mKey;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        ForecastCache.clear(mContext);
+        mCache = new ForecastCache(mContext);
+        mKey = ForecastCache.keyFor(URL);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ForecastCache.clear(mContext);
+        super.tearDown();
+    }
+
+    // A 200 carrying the given validators, as the transport hands it back
+    private static WeatherTransport.Response response(final String etag,
+                                                      final String lastModified) {
+        return new WeatherTransport.Response() {
+            @Override
+            public int getResponseCode() {
+                return 200;
+            }
+
+            @Override
+            public String getHeaderField(String name) {
+                if (name.equals("ETag")) {
+                    return etag;
+                } else if (name.equals("Last-Modified")) {
+                    return lastModified;
+                }
+                return null;
+            }
+
+            @Override
+            public InputStream getBody() {
+                return new ByteArrayInputStream(PAYLOAD.getBytes());
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    // What a sync does with a body it parsed and stored
+    private ForecastCache.Body store(String payload, int julianDay) throws IOException {
+        ForecastCache.Body body = mCache.save(mKey,
+                new ByteArrayInputStream(payload.getBytes("UTF-8")));
+        mCache.commit(mKey, response(ETAG, LAST_MODIFIED), body.digest, julianDay);
+        return body;
+    }
+
+    private Map<String, String> validators(int julianDay) {
+        Map<String, String> headers = new HashMap<String, String>();
+        mCache.addValidators(headers, mKey, julianDay);
+        return headers;
+    }
+
+    public void testKeyIsAFileNamePerUrl() throws IOException {
+        assertEquals("Error: the key should be the URL's SHA-1 in hex", 40, mKey.length());
+        assertTrue(mKey.matches("[0-9a-f]+"));
+        assertEquals(mKey, ForecastCache.keyFor(URL));
+        assertFalse(mKey.equals(ForecastCache.keyFor(URL.replace("94043", "94044"))));
+    }
+
+    public void testSaveSpoolsAndHashesTheBody() throws IOException {
+        ForecastCache.Body body = mCache.save(mKey,
+                new ByteArrayInputStream(PAYLOAD.getBytes("UTF-8")));
+        assertEquals(PAYLOAD.length(), body.length);
+        assertTrue(body.file.exists());
+
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        InputStream in = body.open();
+        try {
+            byte[] buffer = new byte[64];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                copy.write(buffer, 0, count);
+            }
+        } finally {
+            in.close();
+        }
+        assertEquals(PAYLOAD, copy.toString("UTF-8"));
+
+        // The same bytes hash the same, different ones don't
+        assertEquals(body.digest, mCache.save(mKey,
+                new ByteArrayInputStream(PAYLOAD.getBytes("UTF-8"))).digest);
+        assertFalse(body.digest.equals(mCache.save(mKey,
+                new ByteArrayInputStream((PAYLOAD + " ").getBytes("UTF-8"))).digest));
+    }
+
+    public void testNothingIsCurrentBeforeACommit() throws IOException {
+        mCache.save(mKey, new ByteArrayInputStream(PAYLOAD.getBytes("UTF-8")));
+        assertFalse(mCache.isCurrent(mKey, TODAY));
+        assertTrue("Error: no validators should be sent for an unknown forecast",
+                validators(TODAY).isEmpty());
+    }
+
+    public void testCommitKeepsTheDigestAndDropsTheBody() throws IOException {
+        ForecastCache.Body body = store(PAYLOAD, TODAY);
+
+        assertFalse("Error: the spooled body should be deleted once committed",
+                body.file.exists());
+        assertTrue(mCache.isCurrent(mKey, TODAY));
+        assertTrue(mCache.isUnchanged(mKey, body.digest, TODAY));
+        assertFalse(mCache.isUnchanged(mKey, "0000", TODAY));
+    }
+
+    public void testValidatorsAreSentBackTheSameDay() throws IOException {
+        store(PAYLOAD, TODAY);
+
+        Map<String, String> headers = validators(TODAY);
+        assertEquals(ETAG, headers.get("If-None-Match"));
+        assertEquals(LAST_MODIFIED, headers.get("If-Modified-Since"));
+    }
+
+    public void testMissingValidatorsAreNotSent() throws IOException {
+        ForecastCache.Body body = mCache.save(mKey,
+                new ByteArrayInputStream(PAYLOAD.getBytes("UTF-8")));
+        mCache.commit(mKey, response(null, null), body.digest, TODAY);
+
+        // A server without validators can't answer 304, but the digest still spares a parse
+        assertTrue(validators(TODAY).isEmpty());
+        assertTrue(mCache.isUnchanged(mKey, body.digest, TODAY));
+    }
+
+    public void testNothingIsTrustedOnAnotherDay() throws IOException {
+        // The weather table's dates come from the day of the sync, so yesterday's 304 or
+        // matching payload would leave today's rows unwritten
+        ForecastCache.Body body = store(PAYLOAD, TODAY - 1);
+
+        assertFalse(mCache.isCurrent(mKey, TODAY));
+        assertFalse(mCache.isUnchanged(mKey, body.digest, TODAY));
+        assertTrue("Error: no validators should be sent from another day",
+                validators(TODAY).isEmpty());
+    }
+
+    public void testInvalidateForgetsTheKeyOnly() throws IOException {
+        ForecastCache.Body body = store(PAYLOAD, TODAY);
+        String otherKey = ForecastCache.keyFor(URL.replace("94043", "94044"));
+        mCache.commit(otherKey, response(ETAG, LAST_MODIFIED), body.digest, TODAY);
+
+        mCache.invalidate(mKey);
+
+        // What the sync adapter does when the rows were cleared: a 304 means nothing now
+        assertFalse(mCache.isCurrent(mKey, TODAY));
+        assertFalse(mCache.isUnchanged(mKey, body.digest, TODAY));
+        assertTrue(validators(TODAY).isEmpty());
+        assertTrue(mCache.isCurrent(otherKey, TODAY));
+    }
+
+    public void testDiscardDropsTheBodyButNotTheEntry() throws IOException {
+        ForecastCache.Body stored = store(PAYLOAD, TODAY);
+        ForecastCache.Body spooled = mCache.save(mKey, new ByteArrayInputStream(new byte[0]));
+
+        mCache.discard(mKey);
+
+        assertFalse(spooled.file.exists());
+        assertTrue(mCache.isUnchanged(mKey, stored.digest, TODAY));
+    }
+
+    public void testClearForgetsEverything() throws IOException {
+        ForecastCache.Body body = store(PAYLOAD, TODAY);
+        ForecastCache.Body spooled = mCache.save(mKey,
+                new ByteArrayInputStream(PAYLOAD.getBytes("UTF-8")));
+
+        ForecastCache.clear(mContext);
+
+        assertFalse(mCache.isCurrent(mKey, TODAY));
+        assertFalse(mCache.isUnchanged(mKey, body.digest, TODAY));
+        assertFalse(spooled.file.exists());
+    }
+}
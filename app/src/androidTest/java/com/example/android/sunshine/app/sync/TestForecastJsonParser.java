@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestForecastJsonParser extends AndroidTestCase {
+
+    // A trimmed down copy of a real OpenWeatherMap daily forecast response
+    static final String FORECAST_JSON = "{\"city\":{\"id\":5375480,\"name\":\"Mountain View\"," +
+            "\"coord\":{\"lon\":-122.083847,\"lat\":37.386051},\"country\":\"US\",\"population\":0}," +
+            "\"cod\":\"200\",\"message\":0.0104,\"cnt\":2,\"list\":[" +
+            "{\"dt\":1461700800,\"temp\":{\"day\":18.2,\"min\":9.5,\"max\":19.07,\"night\":9.5," +
+            "\"eve\":15.44,\"morn\":18.2},\"pressure\":1010.34,\"humidity\":64," +
+            "\"weather\":[{\"id\":800,\"main\":\"Clear\",\"description\":\"clear sky\",\"icon\":\"01d\"}]," +
+            "\"speed\":4.16,\"deg\":298,\"clouds\":0}," +
+            "{\"dt\":1461787200,\"temp\":{\"day\":17.16,\"min\":8.43,\"max\":17.79,\"night\":8.43," +
+            "\"eve\":14.65,\"morn\":11.14},\"pressure\":1011.18,\"humidity\":69," +
+            "\"weather\":[{\"id\":500,\"main\":\"Rain\",\"description\":\"light rain\",\"icon\":\"10d\"}]," +
+            "\"speed\":3.67,\"deg\":290,\"clouds\":12,\"rain\":0.35}]}";
+
+    static final String NOT_FOUND_JSON =
+            "{\"cod\":\"404\",\"message\":\"Error: Not found city\"}";
+
+    static class RecordingListener implements ForecastJsonParser.Listener {
+        final List<Integer> mCodes = new ArrayList<Integer>();
+        final List<Object[]> mDays = new ArrayList<Object[]>();
+        String mCityName;
+        double mLatitude;
+        double mLongitude;
+
+        @Override
+        public boolean onMessageCode(int code) {
+            mCodes.add(code);
+            return code == 200;
+        }
+
+        @Override
+        public void onCity(String cityName, double latitude, double longitude) {
+            mCityName = cityName;
+            mLatitude = latitude;
+            mLongitude = longitude;
+        }
+
+        @Override
+        public void onForecastDay(int dayIndex, ForecastJsonParser.ForecastDay day) {
+            mDays.add(new Object[]{dayIndex, day.weatherId, day.description,
+                    day.high, day.low, day.humidity, day.pressure, day.windSpeed,
+                    day.windDirection});
+        }
+    }
+
+    private static InputStream stream(String json) throws Exception {
+        return new ByteArrayInputStream(json.getBytes("UTF-8"));
+    }
+
+    public void testParseForecast() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        int days = new ForecastJsonParser(listener).parse(stream(FORECAST_JSON));
+
+        assertEquals(2, days);
+        assertEquals("Mountain View", listener.mCityName);
+        assertEquals(37.386051, listener.mLatitude, 1e-9);
+        assertEquals(-122.083847, listener.mLongitude, 1e-9);
+
+        Object[] today = listener.mDays.get(0);
+        assertEquals(0, today[0]);
+        assertEquals(800, today[1]);
+        assertEquals("Clear", today[2]);
+        assertEquals(19.07, (Double) today[3], 1e-9);
+        assertEquals(9.5, (Double) today[4], 1e-9);
+        assertEquals(64, today[5]);
+        assertEquals(1010.34, (Double) today[6], 1e-9);
+        assertEquals(4.16, (Double) today[7], 1e-9);
+        assertEquals(298.0, (Double) today[8], 1e-9);
+
+        Object[] tomorrow = listener.mDays.get(1);
+        assertEquals(1, tomorrow[0]);
+        assertEquals(500, tomorrow[1]);
+        assertEquals("Rain", tomorrow[2]);
+    }
+
+    public void testErrorCodeStopsParse() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        int days = new ForecastJsonParser(listener).parse(stream(NOT_FOUND_JSON));
+
+        assertEquals(0, days);
+        assertEquals(1, listener.mCodes.size());
+        assertEquals(404, (int) listener.mCodes.get(0));
+        assertNull(listener.mCityName);
+    }
+
+    public void testMalformedJsonIsReportedAsJSONException() throws Exception {
+        try {
+            new ForecastJsonParser(new RecordingListener()).parse(stream("{\"list\":[{\"temp\":}"));
+            fail("Expected a JSONException for a malformed payload");
+        } catch (JSONException expected) {
+        }
+    }
+}
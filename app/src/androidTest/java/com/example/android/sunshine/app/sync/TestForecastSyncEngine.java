@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestForecastSyncEngine extends AndroidTestCase {
+
+    private static final long LOCATION_SYNC_MS = 200;
+
+    private static List<ForecastSyncEngine.SyncTarget> targets(int count) {
+        List<ForecastSyncEngine.SyncTarget> targets = new ArrayList<ForecastSyncEngine.SyncTarget>();
+        for (int i = 0; i < count; i++) {
+            targets.add(new ForecastSyncEngine.SyncTarget("location " + i, null, null, i == 0));
+        }
+        return targets;
+    }
+
+    public void testParallelismIsBounded() {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        long start = SystemClock.elapsedRealtime();
+        List<ForecastSyncEngine.SyncTarget> changed = new ForecastSyncEngine(3).syncAll(targets(6),
+                new ForecastSyncEngine.LocationSync() {
+                    @Override
+                    public boolean sync(ForecastSyncEngine.SyncTarget target) {
+                        int now = running.incrementAndGet();
+                        synchronized (maxRunning) {
+                            maxRunning.set(Math.max(maxRunning.get(), now));
+                        }
+                        SystemClock.sleep(LOCATION_SYNC_MS);
+                        running.decrementAndGet();
+                        return true;
+                    }
+                });
+        long elapsed = SystemClock.elapsedRealtime() - start;
+
+        assertEquals(6, changed.size());
+        assertEquals("Error: no more than 3 locations should sync at once", 3, maxRunning.get());
+        // Two rounds of three, not six one after the other
+        assertTrue("Error: sync took " + elapsed + "ms", elapsed < 4 * LOCATION_SYNC_MS);
+    }
+
+    public void testOnlyChangedAndHealthyLocationsAreReported() {
+        List<ForecastSyncEngine.SyncTarget> changed = new ForecastSyncEngine().syncAll(targets(4),
+                new ForecastSyncEngine.LocationSync() {
+                    @Override
+                    public boolean sync(ForecastSyncEngine.SyncTarget target) {
+                        if (target.locationSetting.equals("location 1")) {
+                            throw new RuntimeException("bad location");
+                        }
+                        return !target.locationSetting.equals("location 2");
+                    }
+                });
+
+        assertEquals(2, changed.size());
+        assertEquals("location 0", changed.get(0).locationSetting);
+        assertTrue(changed.get(0).preferred);
+        assertEquals("location 3", changed.get(1).locationSetting);
+    }
+
+    public void testOneBadLocationIsReportedUnchanged() {
+        List<ForecastSyncEngine.SyncTarget> changed = new ForecastSyncEngine().syncAll(targets(1),
+                new ForecastSyncEngine.LocationSync() {
+                    @Override
+                    public boolean sync(ForecastSyncEngine.SyncTarget target) {
+                        throw new RuntimeException("bad location");
+                    }
+                });
+
+        assertEquals(0, changed.size());
+    }
+}
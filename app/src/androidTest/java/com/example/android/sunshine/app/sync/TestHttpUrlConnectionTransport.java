@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/*
+    Runs the transport against a tiny local stand-in for OpenWeatherMap that serves the
+    recorded response from TestForecastJsonParser.
+ */
+public class TestHttpUrlConnectionTransport extends AndroidTestCase {
+
+    private StandInServer mServer;
+
+    /**
+     * Minimal HTTP/1.1 server: answers every GET on a connection with the recorded
+     * forecast, gzipped if the client asked for it, and keeps the connection open.
+     */
+    static class StandInServer extends Thread {
+        final ServerSocket mServerSocket;
+        final byte[] mBody;
+        final AtomicInteger mConnections = new AtomicInteger();
+        final AtomicInteger mRequests = new AtomicInteger();
+
+        StandInServer(String body) throws IOException {
+            mServerSocket = new ServerSocket(0, 0, InetAddress.getByName("127.0.0.1"));
+            mBody = body.getBytes("UTF-8");
+        }
+
+        URL url() throws IOException {
+            return new URL("http://127.0.0.1:" + mServerSocket.getLocalPort()
+                    + "/data/2.5/forecast/daily?q=94043");
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Socket socket = mServerSocket.accept();
+                    mConnections.incrementAndGet();
+                    serve(socket);
+                }
+            } catch (IOException e) {
+                // server closed
+            }
+        }
+
+        private void serve(Socket socket) {
+            try {
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+                OutputStream out = socket.getOutputStream();
+                String requestLine;
+                while ((requestLine = in.readLine()) != null && requestLine.length() > 0) {
+                    boolean gzip = false;
+                    String header;
+                    while ((header = in.readLine()) != null && header.length() > 0) {
+                        String lower = header.toLowerCase();
+                        if (lower.startsWith("accept-encoding:") && lower.contains("gzip")) {
+                            gzip = true;
+                        }
+                    }
+                    mRequests.incrementAndGet();
+
+                    byte[] payload = gzip ? gzip(mBody) : mBody;
+                    StringBuilder response = new StringBuilder()
+                            .append("HTTP/1.1 200 OK\r\n")
+                            .append("Content-Type: application/json; charset=utf-8\r\n")
+                            .append("Content-Length: ").append(payload.length).append("\r\n");
+                    if (gzip) {
+                        response.append("Content-Encoding: gzip\r\n");
+                    }
+                    response.append("\r\n");
+                    out.write(response.toString().getBytes("US-ASCII"));
+                    out.write(payload);
+                    out.flush();
+                }
+                socket.close();
+            } catch (IOException e) {
+                // client went away
+            }
+        }
+
+        void shutdown() throws IOException {
+            mServerSocket.close();
+        }
+
+        private static byte[] gzip(byte[] data) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+            gzip.write(data);
+            gzip.close();
+            return bytes.toByteArray();
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // The forecast repeated a few times so that compression has something to work on
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 8; i++) {
+            body.append(TestForecastJsonParser.FORECAST_JSON).append('\n');
+        }
+        mServer = new StandInServer(body.toString());
+        mServer.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return out.toString("UTF-8");
+    }
+
+    public void testGzipIsNegotiatedAndCounted() throws Exception {
+        HttpUrlConnectionTransport transport = new HttpUrlConnectionTransport();
+
+        WeatherTransport.Response response =
+                transport.get(mServer.url(), Collections.<String, String>emptyMap());
+        String body;
+        try {
+            assertEquals(200, response.getResponseCode());
+            assertEquals("gzip", response.getHeaderField("Content-Encoding"));
+            body = readFully(response.getBody());
+        } finally {
+            response.close();
+        }
+
+        assertEquals(new String(mServer.mBody, "UTF-8"), body);
+        assertEquals(mServer.mBody.length, transport.getBytesDecoded());
+        assertTrue("Error: gzip should have made the transfer smaller (" +
+                        transport.getBytesOnWire() + " on the wire vs " +
+                        transport.getBytesDecoded() + " decoded)",
+                transport.getBytesOnWire() < transport.getBytesDecoded());
+    }
+
+    public void testConnectionIsReused() throws Exception {
+        HttpUrlConnectionTransport transport = new HttpUrlConnectionTransport();
+
+        for (int i = 0; i < 3; i++) {
+            WeatherTransport.Response response =
+                    transport.get(mServer.url(), Collections.<String, String>emptyMap());
+            try {
+                assertEquals(200, response.getResponseCode());
+                readFully(response.getBody());
+            } finally {
+                response.close();
+            }
+        }
+
+        assertEquals(3, mServer.mRequests.get());
+        assertEquals("Error: consecutive requests should share one keep-alive connection",
+                1, mServer.mConnections.get());
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.database.MatrixCursor;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.shared.ForecastPayload;
+
+import java.util.Arrays;
+import java.util.TimeZone;
+
+public class TestWearablePayload extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final long SENT_AT = 1419033600000L;
+
+    private long mToday;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mToday = WeatherContract.normalizeDate(System.currentTimeMillis());
+    }
+
+    // Yesterday, then a week from today
+    private ForecastSnapshot forecast() {
+        MatrixCursor cursor = new MatrixCursor(ForecastSnapshot.COLUMNS);
+        for (int i = -1; i < 7; i++) {
+            long date = WeatherContract.normalizeDate(mToday + i * DAY_IN_MILLIS + DAY_IN_MILLIS / 2);
+            cursor.addRow(new Object[]{i + 2, date, 800 + i, "Clear", 20.5 + i, 10.25 - i,
+                    37.4, -122.1});
+        }
+        try {
+            return ForecastSnapshot.fromCursor("94043", cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static int julianDay(long date) {
+        return Time.getJulianDay(date, TimeZone.getDefault().getOffset(date) / 1000);
+    }
+
+    public void testRoundTrip() {
+        ForecastPayload sent = WearablePayload.from(forecast(), mToday, true, SENT_AT);
+        ForecastPayload received = ForecastPayload.fromBytes(sent.toBytes());
+
+        assertTrue(received.isMetric());
+        assertEquals(SENT_AT, received.getSentAt());
+        assertEquals("Error: yesterday shouldn't be sent", 7, received.size());
+        for (int i = 0; i < 7; i++) {
+            assertEquals(julianDay(mToday) + i, received.getJulianDay(i));
+            assertEquals(800 + i, received.getWeatherId(i));
+            assertEquals(20.5 + i, received.getHigh(i), 0.05);
+            assertEquals(10.25 - i, received.getLow(i), 0.05);
+        }
+        assertEquals(0, received.indexOf(julianDay(mToday)));
+        assertEquals(-1, received.indexOf(julianDay(mToday) - 1));
+        assertEquals(-1, received.indexOf(julianDay(mToday) + 7));
+    }
+
+    public void testTemperaturesAreSentInTheUsersUnits() {
+        ForecastPayload payload = ForecastPayload.fromBytes(
+                WearablePayload.from(forecast(), mToday, false, SENT_AT).toBytes());
+        assertFalse(payload.isMetric());
+        assertEquals(20.5 * 1.8 + 32, payload.getHigh(0), 0.05);
+        assertEquals(10.25 * 1.8 + 32, payload.getLow(0), 0.05);
+    }
+
+    public void testAWeekIsSmall() {
+        byte[] bytes = WearablePayload.from(forecast(), mToday, true, SENT_AT).toBytes();
+        // A 15 byte header and 7 bytes a day
+        assertEquals(15 + 7 * 7, bytes.length);
+    }
+
+    public void testUnknownVersionIsRejected() {
+        byte[] bytes = WearablePayload.from(forecast(), mToday, true, SENT_AT).toBytes();
+        bytes[0] = ForecastPayload.VERSION + 1;
+        try {
+            ForecastPayload.fromBytes(bytes);
+            fail("Error: a payload from a newer version should be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testTruncatedPayloadIsRejected() {
+        byte[] bytes = WearablePayload.from(forecast(), mToday, true, SENT_AT).toBytes();
+        try {
+            ForecastPayload.fromBytes(Arrays.copyOf(bytes, bytes.length - 1));
+            fail("Error: a payload cut short should be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testDaysOutOfOrderCantBeSent() {
+        try {
+            new ForecastPayload(true, SENT_AT, new int[]{2, 1}, new int[]{800, 800},
+                    new double[]{20, 20}, new double[]{10, 10});
+            fail("Error: days out of order should be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import com.example.android.sunshine.shared.WeatherConditions;
+
+/**
+ * Everything the app shows for each OpenWeatherMap condition code, worked out once when the
+ * class loads, so that {@link Utility}'s condition helpers are a single array read.
+ *
+ * The kind of weather for each code comes from {@link WeatherConditions}, which the watch
+ * face shares; the resources for each kind, and the description for each code, are the
+ * app's own.
+ */
+final class ConditionTable {
+
+    static final class Condition {
+        final int kind;
+        // -1 if there is no icon or art for the condition
+        final int iconResourceId;
+        final int artResourceId;
+        // 0 if there is no description of its own, and condition_unknown is shown instead
+        final int stringId;
+        // Null if there is no art for the condition
+        final String artName;
+        final String imageUrl;
+
+        Condition(int kind, int stringId) {
+            this.kind = kind;
+            this.iconResourceId = ICONS[kind];
+            this.artResourceId = ARTS[kind];
+            this.stringId = stringId;
+            this.artName = WeatherConditions.artName(kind);
+            this.imageUrl = IMAGE_URLS[kind];
+        }
+    }
+
+    // Indexed by kind
+    private static final int[] ICONS = new int[WeatherConditions.KIND_COUNT];
+    private static final int[] ARTS = new int[WeatherConditions.KIND_COUNT];
+    private static final String[] IMAGE_URLS = new String[WeatherConditions.KIND_COUNT];
+
+    static {
+        kind(WeatherConditions.UNKNOWN, -1, -1, null);
+        kind(WeatherConditions.STORM, R.drawable.ic_storm, R.drawable.art_storm,
+                "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg");
+        kind(WeatherConditions.LIGHT_RAIN, R.drawable.ic_light_rain, R.drawable.art_light_rain,
+                "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg");
+        kind(WeatherConditions.RAIN, R.drawable.ic_rain, R.drawable.art_rain,
+                "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg");
+        kind(WeatherConditions.SNOW, R.drawable.ic_snow, R.drawable.art_snow,
+                "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG");
+        kind(WeatherConditions.FOG, R.drawable.ic_fog, R.drawable.art_fog,
+                "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg");
+        kind(WeatherConditions.TORNADO, R.drawable.ic_storm, R.drawable.art_storm,
+                "http://upload.wikimedia.org/wikipedia/commons/d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg");
+        kind(WeatherConditions.CLEAR, R.drawable.ic_clear, R.drawable.art_clear,
+                "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg");
+        kind(WeatherConditions.LIGHT_CLOUDS, R.drawable.ic_light_clouds, R.drawable.art_light_clouds,
+                "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg");
+        kind(WeatherConditions.CLOUDS, R.drawable.ic_cloudy, R.drawable.art_clouds,
+                "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg");
+    }
+
+    // Indexed by code
+    private static final Condition[] CONDITIONS = new Condition[WeatherConditions.MAX_CODE + 1];
+    private static final Condition UNKNOWN = new Condition(WeatherConditions.UNKNOWN, 0);
+
+    static {
+        int[] stringIds = new int[WeatherConditions.MAX_CODE + 1];
+        for (int code = 200; code <= 232; code++) {
+            stringIds[code] = R.string.condition_2xx;
+        }
+        for (int code = 300; code <= 321; code++) {
+            stringIds[code] = R.string.condition_3xx;
+        }
+        stringIds[500] = R.string.condition_500;
+        stringIds[501] = R.string.condition_501;
+        stringIds[502] = R.string.condition_502;
+        stringIds[503] = R.string.condition_503;
+        stringIds[504] = R.string.condition_504;
+        stringIds[511] = R.string.condition_511;
+        stringIds[520] = R.string.condition_520;
+        stringIds[531] = R.string.condition_531;
+        stringIds[600] = R.string.condition_600;
+        stringIds[601] = R.string.condition_601;
+        stringIds[602] = R.string.condition_602;
+        stringIds[611] = R.string.condition_611;
+        stringIds[612] = R.string.condition_612;
+        stringIds[615] = R.string.condition_615;
+        stringIds[616] = R.string.condition_616;
+        stringIds[620] = R.string.condition_620;
+        stringIds[621] = R.string.condition_621;
+        stringIds[622] = R.string.condition_622;
+        stringIds[701] = R.string.condition_701;
+        stringIds[711] = R.string.condition_711;
+        stringIds[721] = R.string.condition_721;
+        stringIds[731] = R.string.condition_731;
+        stringIds[741] = R.string.condition_741;
+        stringIds[751] = R.string.condition_751;
+        stringIds[761] = R.string.condition_761;
+        stringIds[762] = R.string.condition_762;
+        stringIds[771] = R.string.condition_771;
+        stringIds[781] = R.string.condition_781;
+        stringIds[800] = R.string.condition_800;
+        stringIds[801] = R.string.condition_801;
+        stringIds[802] = R.string.condition_802;
+        stringIds[803] = R.string.condition_803;
+        stringIds[804] = R.string.condition_804;
+        stringIds[900] = R.string.condition_900;
+        stringIds[901] = R.string.condition_901;
+        stringIds[902] = R.string.condition_902;
+        stringIds[903] = R.string.condition_903;
+        stringIds[904] = R.string.condition_904;
+        stringIds[905] = R.string.condition_905;
+        stringIds[906] = R.string.condition_906;
+        stringIds[951] = R.string.condition_951;
+        stringIds[952] = R.string.condition_952;
+        stringIds[953] = R.string.condition_953;
+        stringIds[954] = R.string.condition_954;
+        stringIds[955] = R.string.condition_955;
+        stringIds[956] = R.string.condition_956;
+        stringIds[957] = R.string.condition_957;
+        stringIds[958] = R.string.condition_958;
+        stringIds[959] = R.string.condition_959;
+        stringIds[960] = R.string.condition_960;
+        stringIds[961] = R.string.condition_961;
+        stringIds[962] = R.string.condition_962;
+
+        for (int code = 0; code <= WeatherConditions.MAX_CODE; code++) {
+            int kind = WeatherConditions.kindOf(code);
+            CONDITIONS[code] = kind == WeatherConditions.UNKNOWN && stringIds[code] == 0
+                    ? UNKNOWN : new Condition(kind, stringIds[code]);
+        }
+    }
+
+    private ConditionTable() {
+    }
+
+    private static void kind(int kind, int iconResourceId, int artResourceId, String imageUrl) {
+        ICONS[kind] = iconResourceId;
+        ARTS[kind] = artResourceId;
+        IMAGE_URLS[kind] = imageUrl;
+    }
+
+    /**
+     * @param weatherId from OpenWeatherMap API response
+     * @return everything shown for the condition; never null
+     */
+    static Condition get(int weatherId) {
+        return weatherId >= 0 && weatherId <= WeatherConditions.MAX_CODE
+                ? CONDITIONS[weatherId] : UNKNOWN;
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.text.format.Time;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Formats the day strings behind {@link Utility#getFriendlyDayString} and friends, and
+ * remembers them for today and the 13 days after it, which is every day the app shows.
+ *
+ * The remembered strings belong to a window, which is keyed by today's julian day, the time
+ * zone and the locale.  Every call checks the key first, so the window moves on at midnight
+ * and is dropped when the time zone or locale changes, without having to be told.  Windows
+ * are never changed once replaced, so the adapter, widgets and sync adapter can all call in
+ * at once.
+ */
+final class DayFormatter {
+
+    static final int WINDOW_DAYS = 14;
+
+    // The strings remembered for each day of the window
+    private static final int FRIENDLY = 0;
+    private static final int FRIENDLY_LONG_TODAY = 1;
+    private static final int DAY_NAME = 2;
+    private static final int MONTH_DAY = 3;
+    private static final int FULL_FRIENDLY = 4;
+    private static final int KINDS = 5;
+
+    private static final DayFormatter sInstance = new DayFormatter();
+
+    private final AtomicReference<Window> mWindow = new AtomicReference<Window>();
+    private final AtomicInteger mHits = new AtomicInteger();
+    private final AtomicInteger mMisses = new AtomicInteger();
+
+    /**
+     * The strings for one run of days, and the formatters that made them.  SimpleDateFormat
+     * isn't thread-safe, so the formatters are only used while holding the window's lock.
+     */
+    private static final class Window {
+        final int today;
+        final int gmtoff;
+        final TimeZone timeZone;
+        final Locale locale;
+        final AtomicReferenceArray<String> strings =
+                new AtomicReferenceArray<String>(KINDS * WINDOW_DAYS);
+        private final SimpleDateFormat dayFormat;
+        private final SimpleDateFormat monthDayFormat;
+        private final SimpleDateFormat shortenedDateFormat;
+
+        Window(int today, int gmtoff, TimeZone timeZone, Locale locale) {
+            this.today = today;
+            this.gmtoff = gmtoff;
+            this.timeZone = timeZone;
+            this.locale = locale;
+            dayFormat = new SimpleDateFormat("EEEE", locale);
+            monthDayFormat = new SimpleDateFormat("MMMM dd", locale);
+            shortenedDateFormat = new SimpleDateFormat("EEE MMM dd", locale);
+            dayFormat.setTimeZone(timeZone);
+            monthDayFormat.setTimeZone(timeZone);
+            shortenedDateFormat.setTimeZone(timeZone);
+        }
+
+        boolean matches(int today, TimeZone timeZone, Locale locale) {
+            return this.today == today && this.timeZone.equals(timeZone)
+                    && this.locale.equals(locale);
+        }
+
+        synchronized String formatDayName(long dateInMillis) {
+            return dayFormat.format(dateInMillis);
+        }
+
+        synchronized String formatMonthDay(long dateInMillis) {
+            return monthDayFormat.format(dateInMillis);
+        }
+
+        synchronized String formatShortened(long dateInMillis) {
+            return shortenedDateFormat.format(dateInMillis);
+        }
+    }
+
+    static DayFormatter getInstance() {
+        return sInstance;
+    }
+
+    // Visible for testing
+    DayFormatter() {
+    }
+
+    /**
+     * @return the window for the day it is at now, replacing the current one if it's for
+     * another day, time zone or locale
+     */
+    private Window window(long now) {
+        TimeZone timeZone = TimeZone.getDefault();
+        Locale locale = Locale.getDefault();
+        int gmtoff = timeZone.getOffset(now) / 1000;
+        int today = Time.getJulianDay(now, gmtoff);
+        Window window = mWindow.get();
+        if (window == null || !window.matches(today, timeZone, locale)) {
+            Window fresh = new Window(today, gmtoff, timeZone, locale);
+            // If another thread got there first, either window is as good as the other
+            mWindow.compareAndSet(window, fresh);
+            window = fresh;
+        }
+        return window;
+    }
+
+    /**
+     * @return where the string is remembered in the window, or -1 if the day is outside it
+     */
+    private static int slot(Window window, int julianDay, int kind) {
+        int day = julianDay - window.today;
+        return day >= 0 && day < WINDOW_DAYS ? kind * WINDOW_DAYS + day : -1;
+    }
+
+    private String remembered(Window window, int slot) {
+        if (slot < 0) {
+            return null;
+        }
+        String string = window.strings.get(slot);
+        if (string != null) {
+            mHits.incrementAndGet();
+        } else {
+            mMisses.incrementAndGet();
+        }
+        return string;
+    }
+
+    private static String remember(Window window, int slot, String string) {
+        if (slot >= 0) {
+            window.strings.set(slot, string);
+        }
+        return string;
+    }
+
+    /**
+     * @see Utility#getFriendlyDayString(Context, long, boolean)
+     */
+    String getFriendlyDayString(Context context, long dateInMillis, boolean displayLongToday,
+                                long now) {
+        Window window = window(now);
+        int julianDay = Time.getJulianDay(dateInMillis, window.gmtoff);
+        int slot = slot(window, julianDay, displayLongToday ? FRIENDLY_LONG_TODAY : FRIENDLY);
+        String string = remembered(window, slot);
+        if (string != null) {
+            return string;
+        }
+
+        // The day string for forecast uses the following logic:
+        // For today: "Today, June 8"
+        // For tomorrow:  "Tomorrow"
+        // For the next 5 days: "Wednesday" (just the day name)
+        // For all days after that: "Mon Jun 8"
+        if (displayLongToday && julianDay == window.today) {
+            string = context.getString(R.string.format_full_friendly_date,
+                    context.getString(R.string.today),
+                    getFormattedMonthDay(dateInMillis, now));
+        } else if (julianDay < window.today + 7) {
+            string = getDayName(context, dateInMillis, now);
+        } else {
+            string = window.formatShortened(dateInMillis);
+        }
+        return remember(window, slot, string);
+    }
+
+    /**
+     * @see Utility#getFullFriendlyDayString(Context, long)
+     */
+    String getFullFriendlyDayString(Context context, long dateInMillis, long now) {
+        Window window = window(now);
+        int slot = slot(window, Time.getJulianDay(dateInMillis, window.gmtoff), FULL_FRIENDLY);
+        String string = remembered(window, slot);
+        if (string != null) {
+            return string;
+        }
+        return remember(window, slot, context.getString(R.string.format_full_friendly_date,
+                getDayName(context, dateInMillis, now),
+                getFormattedMonthDay(dateInMillis, now)));
+    }
+
+    /**
+     * @see Utility#getDayName(Context, long)
+     */
+    String getDayName(Context context, long dateInMillis, long now) {
+        Window window = window(now);
+        int julianDay = Time.getJulianDay(dateInMillis, window.gmtoff);
+        int slot = slot(window, julianDay, DAY_NAME);
+        String string = remembered(window, slot);
+        if (string != null) {
+            return string;
+        }
+        if (julianDay == window.today) {
+            string = context.getString(R.string.today);
+        } else if (julianDay == window.today + 1) {
+            string = context.getString(R.string.tomorrow);
+        } else {
+            string = window.formatDayName(dateInMillis);
+        }
+        return remember(window, slot, string);
+    }
+
+    /**
+     * @see Utility#getFormattedMonthDay(Context, long)
+     */
+    String getFormattedMonthDay(long dateInMillis, long now) {
+        Window window = window(now);
+        int slot = slot(window, Time.getJulianDay(dateInMillis, window.gmtoff), MONTH_DAY);
+        String string = remembered(window, slot);
+        if (string != null) {
+            return string;
+        }
+        return remember(window, slot, window.formatMonthDay(dateInMillis));
+    }
+
+    /**
+     * Forgets every remembered string.  Strings for the resources, such as "Today", aren't
+     * part of the key, so call this if they may have changed with the locale staying the same.
+     */
+    void invalidate() {
+        mWindow.set(null);
+    }
+
+    int getHitCount() {
+        return mHits.get();
+    }
+
+    int getMissCount() {
+        return mMisses.get();
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The rows the forecast list shows, from today on, ready to bind, and how they differ from
+ * the list shown before them.  Built by {@link ForecastListLoader} off the main thread, and
+ * never changed after that.
+ */
+final class ForecastList {
+
+    private static final AtomicLong sVersions = new AtomicLong();
+    private static final ForecastRow[] NO_ROWS = new ForecastRow[0];
+
+    /**
+     * Tells this list apart from every other one built in this process.
+     */
+    final long version = sVersions.incrementAndGet();
+
+    private final ForecastRow[] mRows;
+    private final double mCoordLat;
+    private final double mCoordLong;
+    private final ForecastListDiff mChanges;
+
+    private ForecastList(ForecastRow[] rows, double coordLat, double coordLong,
+                         ForecastList previous) {
+        mRows = rows;
+        mCoordLat = coordLat;
+        mCoordLong = coordLong;
+        mChanges = ForecastListDiff.between(previous, this);
+    }
+
+    /**
+     * Formats the days from today on.
+     *
+     * @param snapshot every day we have for the location, or null if the provider couldn't be
+     *                 read
+     * @param today today's normalized date
+     * @param previous the list this one replaces, or null
+     */
+    static ForecastList build(Context context, ForecastSnapshot snapshot, long today,
+                              ForecastList previous) {
+        if (snapshot == null) {
+            return new ForecastList(NO_ROWS, 0, 0, previous);
+        }
+        int first = snapshot.indexFrom(today);
+        ForecastRow[] rows = new ForecastRow[snapshot.size() - first];
+        boolean localGraphics = Utility.usingLocalGraphics(context);
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = ForecastRow.format(context, snapshot, first + i, localGraphics);
+        }
+        return new ForecastList(rows, snapshot.getCoordLat(), snapshot.getCoordLong(), previous);
+    }
+
+    int size() {
+        return mRows.length;
+    }
+
+    ForecastRow get(int position) {
+        return mRows[position];
+    }
+
+    long getDate(int position) {
+        return mRows[position].date;
+    }
+
+    double getCoordLat() {
+        return mCoordLat;
+    }
+
+    double getCoordLong() {
+        return mCoordLong;
+    }
+
+    /**
+     * @return the position of the day, or -1 if the list doesn't have it
+     */
+    int indexOf(long date) {
+        for (int i = 0; i < mRows.length; i++) {
+            if (mRows[i].date == date) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return how to get from the list shown before this one to this one
+     */
+    ForecastListDiff getChanges() {
+        return mChanges;
+    }
+
+    /**
+     * @return true if the row at position in this list shows the same as the row at
+     * otherPosition in the other
+     */
+    boolean sameContents(int position, ForecastList other, int otherPosition) {
+        // The first row may be laid out differently, as today
+        return (position == 0) == (otherPosition == 0)
+                && mRows[position].looksLike(other.mRows[otherPosition]);
+    }
+}
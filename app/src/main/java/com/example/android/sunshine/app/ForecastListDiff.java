@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.support.v7.widget.RecyclerView;
+
+import java.util.Arrays;
+
+/**
+ * The days inserted, removed and changed between one {@link ForecastList} and the next, as
+ * RecyclerView item notifications.
+ *
+ * Both lists are in date order with one row a day, so the days are matched up by walking
+ * both lists together, comparing dates, in one pass.  Neighbouring notifications of the same
+ * kind are merged into ranges.
+ */
+final class ForecastListDiff {
+
+    private static final int INSERT = 0;
+    private static final int REMOVE = 1;
+    private static final int CHANGE = 2;
+
+    // The list these updates start from, or NO_VERSION to redraw everything
+    private static final long NO_VERSION = -1;
+    private final long mFromVersion;
+
+    // Updates as (kind, position, count) triples, in the order they are to be applied
+    private int[] mUpdates = new int[3 * 4];
+    private int mUpdateCount;
+
+    private int mInserted;
+    private int mRemoved;
+    private int mChanged;
+
+    private ForecastListDiff(long fromVersion) {
+        mFromVersion = fromVersion;
+    }
+
+    /**
+     * @param from the list being shown, or null if there isn't one
+     * @param to the list about to replace it
+     */
+    static ForecastListDiff between(ForecastList from, ForecastList to) {
+        if (from == null) {
+            return new ForecastListDiff(NO_VERSION);
+        }
+        ForecastListDiff diff = new ForecastListDiff(from.version);
+        int oldCount = from.size();
+        int newCount = to.size();
+        int i = 0;
+        int j = 0;
+        // Rows before position j are already as they will be in the new list, and the row at
+        // position j is the old list's row i
+        while (i < oldCount || j < newCount) {
+            if (j == newCount || (i < oldCount && from.getDate(i) < to.getDate(j))) {
+                diff.add(REMOVE, j);
+                i++;
+            } else if (i == oldCount || from.getDate(i) > to.getDate(j)) {
+                diff.add(INSERT, j);
+                j++;
+            } else {
+                // Rows are compared as formatted, so other units or art, or "Today" moving on
+                // at midnight, redraw the rows they show in
+                if (!from.sameContents(i, to, j)) {
+                    diff.add(CHANGE, j);
+                }
+                i++;
+                j++;
+            }
+        }
+        return diff;
+    }
+
+    private void add(int kind, int position) {
+        switch (kind) {
+            case INSERT: mInserted++; break;
+            case REMOVE: mRemoved++; break;
+            default: mChanged++;
+        }
+        if (mUpdateCount > 0) {
+            int last = 3 * (mUpdateCount - 1);
+            int lastPosition = mUpdates[last + 1];
+            int lastCount = mUpdates[last + 2];
+            // Removing rows one at a time takes each from the same position
+            boolean follows = kind == REMOVE
+                    ? position == lastPosition
+                    : position == lastPosition + lastCount;
+            if (mUpdates[last] == kind && follows) {
+                mUpdates[last + 2]++;
+                return;
+            }
+        }
+        if (3 * (mUpdateCount + 1) > mUpdates.length) {
+            mUpdates = Arrays.copyOf(mUpdates, mUpdates.length * 2);
+        }
+        int next = 3 * mUpdateCount++;
+        mUpdates[next] = kind;
+        mUpdates[next + 1] = position;
+        mUpdates[next + 2] = 1;
+    }
+
+    /**
+     * @return true if these updates take the list being shown to the new one
+     */
+    boolean appliesTo(ForecastList shown) {
+        return shown != null && shown.version == mFromVersion;
+    }
+
+    void dispatchTo(RecyclerView.Adapter adapter) {
+        for (int u = 0; u < 3 * mUpdateCount; u += 3) {
+            int position = mUpdates[u + 1];
+            int count = mUpdates[u + 2];
+            switch (mUpdates[u]) {
+                case INSERT:
+                    adapter.notifyItemRangeInserted(position, count);
+                    break;
+                case REMOVE:
+                    adapter.notifyItemRangeRemoved(position, count);
+                    break;
+                default:
+                    adapter.notifyItemRangeChanged(position, count);
+            }
+        }
+    }
+
+    int getInsertedCount() {
+        return mInserted;
+    }
+
+    int getRemovedCount() {
+        return mRemoved;
+    }
+
+    int getChangedCount() {
+        return mChanged;
+    }
+
+    @Override
+    public String toString() {
+        return mInserted + " inserted, " + mRemoved + " removed, " + mChanged + " changed";
+    }
+}
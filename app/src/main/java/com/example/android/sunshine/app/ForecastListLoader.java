@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.support.v4.content.AsyncTaskLoader;
+
+import com.example.android.sunshine.app.data.ForecastSnapshotCache;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/**
+ * Loads the preferred location's forecast for the forecast list, formats every row of it,
+ * and works out which rows changed since the last list it delivered, all on the loader's
+ * thread.
+ *
+ * Like a CursorLoader, it reloads whenever the weather data is changed; the days come from
+ * {@link ForecastSnapshotCache}, so after a sync the list usually shares the snapshot the
+ * sync adapter already built.
+ */
+class ForecastListLoader extends AsyncTaskLoader<ForecastList> {
+
+    private final String mLocationSetting;
+    private final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+    private boolean mObserving;
+    // The last list delivered, which the next one is compared with
+    private volatile ForecastList mList;
+
+    ForecastListLoader(Context context, String locationSetting) {
+        super(context);
+        mLocationSetting = locationSetting;
+    }
+
+    @Override
+    public ForecastList loadInBackground() {
+        Context context = getContext();
+        return ForecastList.build(context,
+                ForecastSnapshotCache.getInstance().get(context, mLocationSetting),
+                WeatherContract.normalizeDate(System.currentTimeMillis()), mList);
+    }
+
+    @Override
+    public void deliverResult(ForecastList list) {
+        if (isReset()) {
+            return;
+        }
+        mList = list;
+        if (isStarted()) {
+            super.deliverResult(list);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mObserving) {
+            // Only this location's changes, not those of every location in the table
+            getContext().getContentResolver().registerContentObserver(
+                    WeatherContract.WeatherEntry.buildWeatherLocation(mLocationSetting), true,
+                    mObserver);
+            mObserving = true;
+        }
+        if (mList != null) {
+            deliverResult(mList);
+        }
+        if (takeContentChanged() || mList == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        if (mObserving) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserving = false;
+        }
+        mList = null;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+
+/**
+ * One row of the forecast list, with every string already formatted and every resource
+ * already looked up, so that binding it is only a matter of setting views.
+ */
+final class ForecastRow {
+    final long date;
+    final int weatherId;
+    // "Wednesday", and "Today, June 24" for the today layout
+    final String dateText;
+    final String longDateText;
+    final int iconResourceId;
+    final int artResourceId;
+    // Null when the bundled graphics are in use
+    final String artUrl;
+    final String description;
+    final String descriptionA11y;
+    final String high;
+    final String highA11y;
+    final String low;
+    final String lowA11y;
+
+    private ForecastRow(long date, int weatherId, String dateText, String longDateText,
+                        int iconResourceId, int artResourceId, String artUrl,
+                        String description, String descriptionA11y, String high,
+                        String highA11y, String low, String lowA11y) {
+        this.date = date;
+        this.weatherId = weatherId;
+        this.dateText = dateText;
+        this.longDateText = longDateText;
+        this.iconResourceId = iconResourceId;
+        this.artResourceId = artResourceId;
+        this.artUrl = artUrl;
+        this.description = description;
+        this.descriptionA11y = descriptionA11y;
+        this.high = high;
+        this.highA11y = highA11y;
+        this.low = low;
+        this.lowA11y = lowA11y;
+    }
+
+    /**
+     * Formats one day of the snapshot.  Does the work binding used to do, so call it off the
+     * main thread.
+     *
+     * @param localGraphics whether the bundled art is in use
+     */
+    static ForecastRow format(Context context, ForecastSnapshot snapshot, int index,
+                              boolean localGraphics) {
+        long date = snapshot.getDate(index);
+        int weatherId = snapshot.getWeatherId(index);
+        String description = Utility.getStringForWeatherCondition(context, weatherId);
+        String high = Utility.formatTemperature(context, snapshot.getHigh(index));
+        String low = Utility.formatTemperature(context, snapshot.getLow(index));
+        return new ForecastRow(date, weatherId,
+                Utility.getFriendlyDayString(context, date, false),
+                Utility.getFriendlyDayString(context, date, true),
+                Utility.getIconResourceForWeatherCondition(weatherId),
+                Utility.getArtResourceForWeatherCondition(weatherId),
+                localGraphics ? null : Utility.getArtUrlForWeatherCondition(context, weatherId),
+                description,
+                context.getString(R.string.a11y_forecast, description),
+                high,
+                context.getString(R.string.a11y_high_temp, high),
+                low,
+                context.getString(R.string.a11y_low_temp, low));
+    }
+
+    /**
+     * @return true if binding the other row would show exactly what this one does
+     */
+    boolean looksLike(ForecastRow other) {
+        return date == other.date
+                && weatherId == other.weatherId
+                && iconResourceId == other.iconResourceId
+                && artResourceId == other.artResourceId
+                && same(artUrl, other.artUrl)
+                && same(dateText, other.dateText)
+                && same(longDateText, other.longDateText)
+                && same(description, other.description)
+                && same(high, other.high)
+                && same(low, other.low);
+    }
+
+    private static boolean same(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -170,7 +170,7 @@ public class SettingsActivity extends PreferenceActivity
             SunshineSyncAdapter.syncImmediately(this);
         } else if ( key.equals(getString(R.string.pref_units_key)) ) {
             // units have changed. update lists of weather entries accordingly
-            getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            notifyWeatherShownDifferently();
             // forcing a sync is the easiest way to get wearables to see the change
             SunshineSyncAdapter.syncImmediately(this);
         } else if ( key.equals(getString(R.string.pref_location_status_key)) ) {
@@ -179,10 +179,18 @@ public class SettingsActivity extends PreferenceActivity
             bindPreferenceSummaryToValue(locationPreference);
         } else if ( key.equals(getString(R.string.pref_art_pack_key)) ) {
             // art pack have changed. update lists of weather entries accordingly
-            getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            notifyWeatherShownDifferently();
         }
     }
 
+    /**
+     * Tells everything showing weather, both the lists and the single days, to reload.
+     */
+    private void notifyWeatherShownDifferently() {
+        getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+        getContentResolver().notifyChange(WeatherContract.WeatherEntry.DAY_CHANGE_URI, null);
+    }
+
     @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
     @Override
     public Intent getParentActivityIntent() {
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * The location and day of each weather row one write to {@link WeatherProvider} touches, so
+ * it can tell just the observers of those rows.
+ *
+ * A location's forecast list hears about a write once, on the location's weather URI.  A
+ * single day's observers hear about it on the day's change URI, which is kept out from under
+ * the location's URI so that the list's notification doesn't reach every day; see
+ * {@link WeatherContract.WeatherEntry#buildWeatherDayChangeUri}.
+ */
+final class ChangedWeather {
+
+    /**
+     * The most days of one location notified one by one.  A write touching more, like a
+     * delete of everything, tells all of the location's days at once instead.
+     */
+    static final int MAX_DAYS_NOTIFIED = 16;
+
+    //SELECT (the row's location_setting), date FROM weather WHERE
+    private static final String SQL_MATCHING_ROWS_PREFIX =
+            "SELECT (SELECT " + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING +
+                    " FROM " + WeatherContract.LocationEntry.TABLE_NAME +
+                    " WHERE " + WeatherContract.LocationEntry.TABLE_NAME + "." +
+                    WeatherContract.LocationEntry._ID + " = " +
+                    WeatherContract.WeatherEntry.TABLE_NAME + "." +
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + "), " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE +
+                    " FROM " + WeatherContract.WeatherEntry.TABLE_NAME + " WHERE ";
+
+    private final SQLiteDatabase mDb;
+    // Location setting -> the days touched, in the order locations were first touched
+    private final Map<String, SortedSet<Long>> mDays = new LinkedHashMap<String, SortedSet<Long>>();
+    // Location _ID -> setting, as looked up so far
+    private final Map<Long, String> mSettings = new HashMap<Long, String>();
+    private boolean mEverything;
+
+    ChangedWeather(SQLiteDatabase db) {
+        mDb = db;
+    }
+
+    void add(String locationSetting, long date) {
+        SortedSet<Long> days = mDays.get(locationSetting);
+        if (days == null) {
+            days = new TreeSet<Long>();
+            mDays.put(locationSetting, days);
+        }
+        days.add(date);
+    }
+
+    /**
+     * Adds the row a weather insert is writing.
+     */
+    void addRow(ContentValues values) {
+        Long locationId = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+        Long date = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        String locationSetting = locationId == null ? null : getLocationSetting(locationId);
+        if (locationSetting == null || date == null) {
+            // Not a row we can place, so tell everybody
+            mEverything = true;
+            return;
+        }
+        add(locationSetting, WeatherContract.normalizeDate(date));
+    }
+
+    /**
+     * Adds the weather rows a selection matches.  Must run before a delete, or before an
+     * update that doesn't move rows to another day or location.
+     */
+    void addMatching(String selection, String[] selectionArgs) {
+        Cursor cursor = mDb.rawQuery(SQL_MATCHING_ROWS_PREFIX + selection, selectionArgs);
+        try {
+            while (cursor.moveToNext()) {
+                if (cursor.isNull(0)) {
+                    mEverything = true;
+                } else {
+                    add(cursor.getString(0), cursor.getLong(1));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * For writes that could touch any row.
+     */
+    void addEverything() {
+        mEverything = true;
+    }
+
+    boolean isEmpty() {
+        return !mEverything && mDays.isEmpty();
+    }
+
+    /**
+     * @return whether the write could have touched any location
+     */
+    boolean isEverything() {
+        return mEverything;
+    }
+
+    /**
+     * @return the locations touched, unless {@link #isEverything()}
+     */
+    Set<String> getLocationSettings() {
+        return mDays.keySet();
+    }
+
+    private String getLocationSetting(long locationId) {
+        if (mSettings.containsKey(locationId)) {
+            return mSettings.get(locationId);
+        }
+        String locationSetting = null;
+        Cursor cursor = mDb.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                WeatherContract.LocationEntry._ID + " = ?",
+                new String[]{Long.toString(locationId)}, null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                locationSetting = cursor.getString(0);
+            }
+        } finally {
+            cursor.close();
+        }
+        mSettings.put(locationId, locationSetting);
+        return locationSetting;
+    }
+
+    /**
+     * @return the URIs to notify, each once
+     */
+    List<Uri> getNotificationUris() {
+        List<Uri> uris = new ArrayList<Uri>();
+        if (mEverything) {
+            uris.add(WeatherContract.WeatherEntry.CONTENT_URI);
+            uris.add(WeatherContract.WeatherEntry.DAY_CHANGE_URI);
+            return uris;
+        }
+        for (Map.Entry<String, SortedSet<Long>> location : mDays.entrySet()) {
+            String locationSetting = location.getKey();
+            uris.add(WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting));
+            if (location.getValue().size() > MAX_DAYS_NOTIFIED) {
+                uris.add(WeatherContract.WeatherEntry.buildWeatherDaysChangeUri(locationSetting));
+            } else {
+                for (long date : location.getValue()) {
+                    uris.add(WeatherContract.WeatherEntry.buildWeatherDayChangeUri(
+                            locationSetting, date));
+                }
+            }
+        }
+        return uris;
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Every day we have for one location, copied out of the provider into arrays, in date
+ * order.  It never changes once built, so it can be handed to any thread; when the data
+ * changes, {@link ForecastSnapshotCache} builds a new one.
+ */
+public final class ForecastSnapshot {
+
+    /**
+     * What to query to build a snapshot.  These are the forecast list's columns, so the query
+     * is answered from the forecast list index.
+     */
+    public static final String[] COLUMNS = {
+            WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+    };
+    // these indices must match the projection
+    static final int COL_ID = 0;
+    static final int COL_DATE = 1;
+    static final int COL_WEATHER_ID = 2;
+    static final int COL_SHORT_DESC = 3;
+    static final int COL_MAX_TEMP = 4;
+    static final int COL_MIN_TEMP = 5;
+    static final int COL_COORD_LAT = 6;
+    static final int COL_COORD_LONG = 7;
+
+    /**
+     * The version of {@link #toPacked()}'s encoding.  A blob of any other version is rejected
+     * by {@link #fromPacked}, and the caller reads the weather table instead.
+     */
+    static final int PACKED_VERSION = 1;
+
+    private final String mLocationSetting;
+    private final double mCoordLat;
+    private final double mCoordLong;
+    private final long[] mIds;
+    private final long[] mDates;
+    private final int[] mWeatherIds;
+    private final String[] mDescriptions;
+    private final double[] mHighs;
+    private final double[] mLows;
+
+    private ForecastSnapshot(String locationSetting, int count, double coordLat,
+                             double coordLong) {
+        mLocationSetting = locationSetting;
+        mCoordLat = coordLat;
+        mCoordLong = coordLong;
+        mIds = new long[count];
+        mDates = new long[count];
+        mWeatherIds = new int[count];
+        mDescriptions = new String[count];
+        mHighs = new double[count];
+        mLows = new double[count];
+    }
+
+    /**
+     * Copies every row of the cursor.
+     *
+     * @param cursor rows in {@link #COLUMNS}, in date order
+     */
+    public static ForecastSnapshot fromCursor(String locationSetting, Cursor cursor) {
+        int count = cursor.getCount();
+        double coordLat = 0;
+        double coordLong = 0;
+        if (cursor.moveToFirst()) {
+            coordLat = cursor.getDouble(COL_COORD_LAT);
+            coordLong = cursor.getDouble(COL_COORD_LONG);
+        }
+        ForecastSnapshot snapshot =
+                new ForecastSnapshot(locationSetting, count, coordLat, coordLong);
+        for (int i = 0; i < count && cursor.moveToPosition(i); i++) {
+            snapshot.mIds[i] = cursor.getLong(COL_ID);
+            snapshot.mDates[i] = cursor.getLong(COL_DATE);
+            snapshot.mWeatherIds[i] = cursor.getInt(COL_WEATHER_ID);
+            snapshot.mDescriptions[i] = cursor.getString(COL_SHORT_DESC);
+            snapshot.mHighs[i] = cursor.getDouble(COL_MAX_TEMP);
+            snapshot.mLows[i] = cursor.getDouble(COL_MIN_TEMP);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Encodes the days into one blob for the packed forecast table.
+     *
+     * The blob is the version byte, the coordinates, the number of days and the first date,
+     * then for each day its _ID, the milliseconds since the day before, the weather id, the
+     * high, the low and the description.  Values are written at full precision, so a
+     * snapshot decoded from the blob equals the one read from the weather table.
+     */
+    public byte[] toPacked() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + size() * 40);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(PACKED_VERSION);
+            out.writeDouble(mCoordLat);
+            out.writeDouble(mCoordLong);
+            out.writeInt(size());
+            long previous = size() == 0 ? 0 : mDates[0];
+            out.writeLong(previous);
+            for (int i = 0; i < size(); i++) {
+                out.writeLong(mIds[i]);
+                // A day or so apart, so the gap always fits
+                out.writeInt((int) (mDates[i] - previous));
+                previous = mDates[i];
+                out.writeInt(mWeatherIds[i]);
+                out.writeDouble(mHighs[i]);
+                out.writeDouble(mLows[i]);
+                out.writeUTF(mDescriptions[i]);
+            }
+            out.flush();
+        } catch (IOException e) {
+            // Not from a ByteArrayOutputStream
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a blob written by {@link #toPacked()}.
+     *
+     * @throws IllegalArgumentException if the blob is cut short or of another version
+     */
+    public static ForecastSnapshot fromPacked(String locationSetting, byte[] packed) {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(packed));
+        try {
+            int version = in.readUnsignedByte();
+            if (version != PACKED_VERSION) {
+                throw new IllegalArgumentException("Packed forecast version " + version);
+            }
+            double coordLat = in.readDouble();
+            double coordLong = in.readDouble();
+            int count = in.readInt();
+            if (count < 0 || count > packed.length) {
+                throw new IllegalArgumentException("Packed forecast of " + count + " days");
+            }
+            ForecastSnapshot snapshot =
+                    new ForecastSnapshot(locationSetting, count, coordLat, coordLong);
+            long date = in.readLong();
+            for (int i = 0; i < count; i++) {
+                snapshot.mIds[i] = in.readLong();
+                date += in.readInt();
+                snapshot.mDates[i] = date;
+                snapshot.mWeatherIds[i] = in.readInt();
+                snapshot.mHighs[i] = in.readDouble();
+                snapshot.mLows[i] = in.readDouble();
+                snapshot.mDescriptions[i] = in.readUTF();
+            }
+            if (in.available() != 0) {
+                throw new IllegalArgumentException(
+                        in.available() + " bytes after the packed forecast");
+            }
+            return snapshot;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Packed forecast cut short", e);
+        }
+    }
+
+    public String getLocationSetting() {
+        return mLocationSetting;
+    }
+
+    public double getCoordLat() {
+        return mCoordLat;
+    }
+
+    public double getCoordLong() {
+        return mCoordLong;
+    }
+
+    public int size() {
+        return mDates.length;
+    }
+
+    /**
+     * @return the weather row's _ID.  A sync replaces the day's row, so use the date to follow
+     * a day from one snapshot to the next.
+     */
+    public long getId(int index) {
+        return mIds[index];
+    }
+
+    public long getDate(int index) {
+        return mDates[index];
+    }
+
+    public int getWeatherId(int index) {
+        return mWeatherIds[index];
+    }
+
+    public String getDescription(int index) {
+        return mDescriptions[index];
+    }
+
+    public double getHigh(int index) {
+        return mHighs[index];
+    }
+
+    public double getLow(int index) {
+        return mLows[index];
+    }
+
+    /**
+     * @param date a normalized date
+     * @return the index of the first day on or after the date, or {@link #size()} if there
+     * is none
+     */
+    public int indexFrom(long date) {
+        int index = Arrays.binarySearch(mDates, date);
+        return index >= 0 ? index : -(index + 1);
+    }
+
+    /**
+     * @param date a normalized date
+     * @return the index of that day, or -1 if we don't have it
+     */
+    public int indexOf(long date) {
+        int index = Arrays.binarySearch(mDates, date);
+        return index >= 0 ? index : -1;
+    }
+
+    @Override
+    public String toString() {
+        return mLocationSetting + ": " + size() + " days"
+                + (size() == 0 ? "" : " from " + mDates[0]);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+/**
+ * Keeps a {@link ForecastSnapshot} of each recently read location, so that the sync adapter,
+ * the widgets and Muzei, which all want the same days for the same place, share one query
+ * instead of running one each.
+ *
+ * {@link WeatherProvider} drops every snapshot whenever it changes anything, before it
+ * notifies observers, so the first reader after a change builds the new snapshot and the
+ * rest share it.  The cache holds a bounded number of days, so a handful of locations fit
+ * but the least recently read is dropped first.
+ *
+ * A snapshot is built from the location's packed forecast when the provider has one, and
+ * from the weather table when it doesn't.
+ */
+public final class ForecastSnapshotCache {
+    private static final String LOG_TAG = ForecastSnapshotCache.class.getSimpleName();
+
+    // A couple of weeks for each of eight or so locations
+    static final int MAX_DAYS = 128;
+
+    private static final ForecastSnapshotCache sInstance = new ForecastSnapshotCache(MAX_DAYS);
+
+    private final LruCache<String, ForecastSnapshot> mSnapshots;
+    // Bumped by every invalidate, so a snapshot read before a change isn't kept after it
+    private int mGeneration;
+
+    ForecastSnapshotCache(int maxDays) {
+        mSnapshots = new LruCache<String, ForecastSnapshot>(maxDays) {
+            @Override
+            protected int sizeOf(String locationSetting, ForecastSnapshot snapshot) {
+                // Count an empty location as a day, so it still takes up room
+                return Math.max(1, snapshot.size());
+            }
+        };
+    }
+
+    public static ForecastSnapshotCache getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * @return every day we have for the location, from memory if nothing has changed since
+     * it was last read, or null if the provider couldn't be queried
+     */
+    public ForecastSnapshot get(Context context, String locationSetting) {
+        ForecastSnapshot snapshot = mSnapshots.get(locationSetting);
+        if (snapshot != null) {
+            return snapshot;
+        }
+
+        int generation;
+        synchronized (this) {
+            generation = mGeneration;
+        }
+        snapshot = readPacked(context, locationSetting);
+        if (snapshot == null) {
+            Cursor cursor = context.getContentResolver().query(
+                    WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting),
+                    ForecastSnapshot.COLUMNS, null, null,
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+            if (cursor == null) {
+                return null;
+            }
+            try {
+                snapshot = ForecastSnapshot.fromCursor(locationSetting, cursor);
+            } finally {
+                cursor.close();
+            }
+        }
+
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mSnapshots.put(locationSetting, snapshot);
+            }
+        }
+        Log.d(LOG_TAG, "Built " + snapshot + " (" + mSnapshots + ")");
+        return snapshot;
+    }
+
+    /**
+     * @return the location's packed forecast, or null if the provider doesn't have one we
+     * can read, in which case the caller reads the weather table
+     */
+    static ForecastSnapshot readPacked(Context context, String locationSetting) {
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.PackedForecastEntry.buildPackedForecastUri(locationSetting),
+                new String[]{WeatherContract.PackedForecastEntry.COLUMN_DATA}, null, null, null);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return ForecastSnapshot.fromPacked(locationSetting, cursor.getBlob(0));
+        } catch (IllegalArgumentException e) {
+            // Packed by another version of the app; the next sync packs it again
+            Log.w(LOG_TAG, "Ignoring the packed forecast for " + locationSetting + ": "
+                    + e.getMessage());
+            return null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Drops every snapshot.  Called whenever the weather or location tables change.
+     */
+    public void invalidate() {
+        synchronized (this) {
+            mGeneration++;
+            mSnapshots.evictAll();
+        }
+    }
+
+    /**
+     * @return how many reads were answered from memory
+     */
+    public int getHitCount() {
+        return mSnapshots.hitCount();
+    }
+
+    /**
+     * @return how many reads had to query the provider
+     */
+    public int getMissCount() {
+        return mSnapshots.missCount();
+    }
+
+    /**
+     * @return how many snapshots were dropped to make room, or because the data changed
+     */
+    public int getEvictionCount() {
+        return mSnapshots.evictionCount();
+    }
+}
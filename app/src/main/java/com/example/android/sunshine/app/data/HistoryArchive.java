@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the days a sync drops from the weather table, in the history table, so that there is
+ * something to draw trends from.
+ *
+ * A location's history is a run of {@link HistoryChunk}s of up to {@link #CHUNK_DAYS} days,
+ * one per row, which never overlap.  The days a sync drops are merged into the chunks they
+ * fall in, normally just the newest, so a sync rewrites a month of history at most.  Days
+ * older than the retention are dropped.  None of this touches the weather table's indexes,
+ * so the live forecast reads no more than before however much history there is.
+ */
+final class HistoryArchive {
+
+    // About a month, so a year of history is a dozen rows
+    static final int CHUNK_DAYS = 32;
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+
+    //location_id = ? AND date < ?
+    private static final String sExpiredWeatherSelection =
+            WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " < ? ";
+
+    //location_id = ?
+    private static final String sLocationIdSelection = HistoryEntry.COLUMN_LOC_KEY + " = ? ";
+
+    //location_id = (SELECT _id FROM location WHERE location_setting = ?)
+    //    AND last_date >= ? AND first_date <= ?
+    static final String sLocationSettingAndRangeSelection =
+            HistoryEntry.COLUMN_LOC_KEY + " = (SELECT " +
+                    LocationEntry._ID + " FROM " +
+                    LocationEntry.TABLE_NAME + " WHERE " +
+                    LocationEntry.COLUMN_LOCATION_SETTING + " = ?) AND " +
+                    HistoryEntry.COLUMN_LAST_DATE + " >= ? AND " +
+                    HistoryEntry.COLUMN_FIRST_DATE + " <= ? ";
+
+    // What HistoryCursor needs of each chunk before it reads the chunk's days
+    static final String[] HEADER_COLUMNS = {
+            HistoryEntry._ID,
+            HistoryEntry.COLUMN_FIRST_DATE,
+            HistoryEntry.COLUMN_LAST_DATE,
+            HistoryEntry.COLUMN_DAYS
+    };
+
+    private volatile int mRetentionDays;
+
+    /**
+     * @param retentionDays how many days of history to keep before the oldest day synced; 0
+     * keeps none, so days a sync drops are deleted as before
+     */
+    HistoryArchive(int retentionDays) {
+        mRetentionDays = retentionDays;
+    }
+
+    void setRetentionDays(int retentionDays) {
+        mRetentionDays = retentionDays;
+    }
+
+    int getRetentionDays() {
+        return mRetentionDays;
+    }
+
+    /**
+     * Copies the location's weather rows dated before the given date into its history, and
+     * drops its history from before the retention.  Runs in the caller's transaction, which
+     * then deletes the rows.
+     *
+     * @return whether the location's history changed
+     */
+    boolean archive(SQLiteDatabase db, String locationSetting, long before) {
+        int retentionDays = mRetentionDays;
+        if (retentionDays <= 0) {
+            return false;
+        }
+        long locationId = getLocationId(db, locationSetting);
+        if (locationId == -1) {
+            return false;
+        }
+
+        HistoryChunk expired;
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME, HistoryChunk.WEATHER_COLUMNS,
+                sExpiredWeatherSelection,
+                new String[]{Long.toString(locationId), Long.toString(before)},
+                null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            expired = HistoryChunk.fromCursor(cursor);
+        } finally {
+            cursor.close();
+        }
+        boolean changed = expired.size() != 0;
+        if (changed) {
+            merge(db, locationId, expired);
+        }
+        return trim(db, locationId, before - retentionDays * DAY_IN_MILLIS) || changed;
+    }
+
+    private static long getLocationId(SQLiteDatabase db, String locationSetting) {
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME, new String[]{LocationEntry._ID},
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[]{locationSetting},
+                null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Merges days into the location's chunks.  Each day goes to the chunk with the latest
+     * first date on or before it, or the first chunk if it is older than them all, so the
+     * chunks still don't overlap afterwards.
+     */
+    private static void merge(SQLiteDatabase db, long locationId, HistoryChunk days) {
+        List<Long> ids = new ArrayList<Long>();
+        List<Long> firstDates = new ArrayList<Long>();
+        Cursor cursor = db.query(HistoryEntry.TABLE_NAME,
+                new String[]{HistoryEntry._ID, HistoryEntry.COLUMN_FIRST_DATE},
+                sLocationIdSelection, new String[]{Long.toString(locationId)},
+                null, null, HistoryEntry.COLUMN_FIRST_DATE + " ASC");
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+                firstDates.add(cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        if (ids.isEmpty()) {
+            write(db, null, locationId, days);
+            return;
+        }
+        int from = 0;
+        for (int chunk = 0; chunk < ids.size() && from < days.size(); chunk++) {
+            // The days before the next chunk's first date belong to this one
+            int to = chunk + 1 < ids.size() ? days.indexFrom(firstDates.get(chunk + 1))
+                    : days.size();
+            if (to > from) {
+                HistoryChunk existing = read(db, ids.get(chunk));
+                write(db, ids.get(chunk), locationId, existing.merge(days.slice(from, to)));
+                from = to;
+            }
+        }
+    }
+
+    /**
+     * Drops the location's days before oldestKept.
+     *
+     * @return whether any were dropped
+     */
+    private static boolean trim(SQLiteDatabase db, long locationId, long oldestKept) {
+        String[] args = {Long.toString(locationId), Long.toString(oldestKept)};
+        boolean trimmed = db.delete(HistoryEntry.TABLE_NAME, sLocationIdSelection + "AND " +
+                HistoryEntry.COLUMN_LAST_DATE + " < ?", args) != 0;
+
+        // What's left before oldestKept is part of a chunk that runs on past it
+        Cursor cursor = db.query(HistoryEntry.TABLE_NAME,
+                new String[]{HistoryEntry._ID, HistoryEntry.COLUMN_DATA},
+                sLocationIdSelection + "AND " + HistoryEntry.COLUMN_FIRST_DATE + " < ?", args,
+                null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                HistoryChunk chunk = decodeOrEmpty(cursor.getBlob(1));
+                write(db, cursor.getLong(0), locationId,
+                        chunk.slice(chunk.indexFrom(oldestKept), chunk.size()));
+                trimmed = true;
+            }
+        } finally {
+            cursor.close();
+        }
+        return trimmed;
+    }
+
+    static HistoryChunk read(SQLiteDatabase db, long chunkId) {
+        Cursor cursor = db.query(HistoryEntry.TABLE_NAME, new String[]{HistoryEntry.COLUMN_DATA},
+                HistoryEntry._ID + " = ?", new String[]{Long.toString(chunkId)},
+                null, null, null);
+        try {
+            return cursor.moveToFirst() ? decodeOrEmpty(cursor.getBlob(0)) : HistoryChunk.empty();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static HistoryChunk decodeOrEmpty(byte[] data) {
+        try {
+            return HistoryChunk.decode(data);
+        } catch (IllegalArgumentException e) {
+            // Written by a version that can't be read any more; the days are lost, but the
+            // rest of the history isn't
+            return HistoryChunk.empty();
+        }
+    }
+
+    /**
+     * Writes days to the chunk's row, or to a new row if chunkId is null, spilling into new
+     * rows past {@link #CHUNK_DAYS}.  A chunk left with no days is deleted.
+     */
+    private static void write(SQLiteDatabase db, Long chunkId, long locationId,
+                              HistoryChunk days) {
+        if (days.size() == 0) {
+            if (chunkId != null) {
+                db.delete(HistoryEntry.TABLE_NAME, HistoryEntry._ID + " = ?",
+                        new String[]{Long.toString(chunkId)});
+            }
+            return;
+        }
+        for (int from = 0; from < days.size(); from += CHUNK_DAYS) {
+            HistoryChunk chunk = days.size() <= CHUNK_DAYS ? days
+                    : days.slice(from, Math.min(from + CHUNK_DAYS, days.size()));
+            ContentValues values = new ContentValues();
+            values.put(HistoryEntry.COLUMN_LOC_KEY, locationId);
+            values.put(HistoryEntry.COLUMN_FIRST_DATE, chunk.getDate(0));
+            values.put(HistoryEntry.COLUMN_LAST_DATE, chunk.getDate(chunk.size() - 1));
+            values.put(HistoryEntry.COLUMN_DAYS, chunk.size());
+            values.put(HistoryEntry.COLUMN_DATA, chunk.encode());
+            if (from == 0 && chunkId != null) {
+                db.update(HistoryEntry.TABLE_NAME, values, HistoryEntry._ID + " = ?",
+                        new String[]{Long.toString(chunkId)});
+            } else {
+                db.insert(HistoryEntry.TABLE_NAME, null, values);
+            }
+        }
+    }
+
+    /**
+     * Drops the history of locations that have been deleted, so a new location that reuses
+     * an _ID doesn't inherit it.  Runs in the caller's transaction.
+     */
+    static void deleteOrphans(SQLiteDatabase db) {
+        db.delete(HistoryEntry.TABLE_NAME, HistoryEntry.COLUMN_LOC_KEY + " NOT IN (SELECT " +
+                LocationEntry._ID + " FROM " + LocationEntry.TABLE_NAME + ")", null);
+    }
+
+    /**
+     * @return the location's days from startDate to endDate, both included, in
+     * {@link HistoryEntry#COLUMNS}.  The days are decoded a chunk at a time as the cursor is
+     * read, so a range of years is never all in memory at once.
+     */
+    static Cursor query(SQLiteDatabase db, String locationSetting, long startDate,
+                        long endDate) {
+        Cursor headers = db.query(HistoryEntry.TABLE_NAME, HEADER_COLUMNS,
+                sLocationSettingAndRangeSelection,
+                new String[]{locationSetting, Long.toString(startDate), Long.toString(endDate)},
+                null, null, HistoryEntry.COLUMN_FIRST_DATE + " ASC");
+        try {
+            return new HistoryCursor(db, headers, startDate, endDate);
+        } finally {
+            headers.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return mRetentionDays > 0 ? "kept for " + mRetentionDays + " days" : "off";
+    }
+}
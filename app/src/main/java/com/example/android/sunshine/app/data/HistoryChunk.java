@@ -0,0 +1,324 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A run of one location's past days, in date order, as held in one row of the history table.
+ *
+ * The encoding is column by column: every date, then every weather id, then each measurement
+ * in turn, each written as the difference from the day before in a zig-zag varint, and the
+ * whole compressed with deflate.  Day to day the differences are small and repetitive, so a
+ * month of days takes a few hundred bytes.  Measurements are kept to hundredths, which is as
+ * precise as the forecast API sends them.
+ */
+final class HistoryChunk {
+
+    /**
+     * The version of {@link #encode()}'s encoding.  A chunk of any other version can't be
+     * decoded.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * What to read from the weather table to build a chunk.
+     */
+    static final String[] WEATHER_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+    // these indices must match WEATHER_COLUMNS
+    private static final int COL_DATE = 0;
+    private static final int COL_WEATHER_ID = 1;
+    private static final int COL_FIRST_MEASURE = 2;
+
+    // The measurements, in the order of WEATHER_COLUMNS
+    static final int MIN_TEMP = 0;
+    static final int MAX_TEMP = 1;
+    static final int HUMIDITY = 2;
+    static final int PRESSURE = 3;
+    static final int WIND_SPEED = 4;
+    static final int DEGREES = 5;
+    static final int MEASURES = 6;
+
+    private static final double SCALE = 100;
+
+    private final long[] mDates;
+    private final int[] mWeatherIds;
+    // [measure][day]
+    private final double[][] mMeasures;
+
+    private HistoryChunk(int count) {
+        mDates = new long[count];
+        mWeatherIds = new int[count];
+        mMeasures = new double[MEASURES][count];
+    }
+
+    static HistoryChunk empty() {
+        return new HistoryChunk(0);
+    }
+
+    /**
+     * Copies every row of the cursor.
+     *
+     * @param cursor rows in {@link #WEATHER_COLUMNS}, in date order
+     */
+    static HistoryChunk fromCursor(Cursor cursor) {
+        HistoryChunk chunk = new HistoryChunk(cursor.getCount());
+        for (int i = 0; i < chunk.size() && cursor.moveToPosition(i); i++) {
+            chunk.mDates[i] = cursor.getLong(COL_DATE);
+            chunk.mWeatherIds[i] = cursor.getInt(COL_WEATHER_ID);
+            for (int m = 0; m < MEASURES; m++) {
+                chunk.mMeasures[m][i] = cursor.getDouble(COL_FIRST_MEASURE + m);
+            }
+        }
+        return chunk;
+    }
+
+    int size() {
+        return mDates.length;
+    }
+
+    long getDate(int index) {
+        return mDates[index];
+    }
+
+    int getWeatherId(int index) {
+        return mWeatherIds[index];
+    }
+
+    /**
+     * @param measure one of {@link #MIN_TEMP} to {@link #DEGREES}
+     */
+    double getMeasure(int measure, int index) {
+        return mMeasures[measure][index];
+    }
+
+    /**
+     * @return the index of the first day on or after the date, or {@link #size()} if there is
+     * none
+     */
+    int indexFrom(long date) {
+        int index = Arrays.binarySearch(mDates, date);
+        return index >= 0 ? index : -(index + 1);
+    }
+
+    /**
+     * @return the days from index from up to, not including, index to
+     */
+    HistoryChunk slice(int from, int to) {
+        HistoryChunk slice = new HistoryChunk(to - from);
+        copy(this, from, slice, 0, to - from);
+        return slice;
+    }
+
+    /**
+     * @return this chunk's days and newer's, in date order.  Where both have a day, newer's
+     * is kept.
+     */
+    HistoryChunk merge(HistoryChunk newer) {
+        HistoryChunk merged = new HistoryChunk(size() + newer.size());
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (i < size() || j < newer.size()) {
+            if (j == newer.size() || (i < size() && mDates[i] < newer.mDates[j])) {
+                copy(this, i++, merged, k++, 1);
+            } else {
+                if (i < size() && mDates[i] == newer.mDates[j]) {
+                    i++;
+                }
+                copy(newer, j++, merged, k++, 1);
+            }
+        }
+        return k == merged.size() ? merged : merged.slice(0, k);
+    }
+
+    private static void copy(HistoryChunk from, int fromIndex, HistoryChunk to, int toIndex,
+                             int count) {
+        System.arraycopy(from.mDates, fromIndex, to.mDates, toIndex, count);
+        System.arraycopy(from.mWeatherIds, fromIndex, to.mWeatherIds, toIndex, count);
+        for (int m = 0; m < MEASURES; m++) {
+            System.arraycopy(from.mMeasures[m], fromIndex, to.mMeasures[m], toIndex, count);
+        }
+    }
+
+    /**
+     * @return the version byte followed by the deflated days
+     */
+    byte[] encode() {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(16 + size() * 16);
+        writeVarint(body, size());
+        long previous = 0;
+        for (long date : mDates) {
+            writeVarint(body, zigZag(date - previous));
+            previous = date;
+        }
+        previous = 0;
+        for (int weatherId : mWeatherIds) {
+            writeVarint(body, zigZag(weatherId - previous));
+            previous = weatherId;
+        }
+        for (double[] measure : mMeasures) {
+            previous = 0;
+            for (double value : measure) {
+                long scaled = Math.round(value * SCALE);
+                writeVarint(body, zigZag(scaled - previous));
+                previous = scaled;
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.size() / 2 + 16);
+        bytes.write(VERSION);
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            DeflaterOutputStream out = new DeflaterOutputStream(bytes, deflater);
+            body.writeTo(out);
+            out.finish();
+        } catch (IOException e) {
+            // Not from a ByteArrayOutputStream
+            throw new IllegalStateException(e);
+        } finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a chunk written by {@link #encode()}.
+     *
+     * @throws IllegalArgumentException if the chunk is corrupt or of another version
+     */
+    static HistoryChunk decode(byte[] bytes) {
+        if (bytes.length == 0 || bytes[0] != VERSION) {
+            throw new IllegalArgumentException("History chunk version "
+                    + (bytes.length == 0 ? "missing" : Integer.toString(bytes[0])));
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream(bytes.length * 4);
+        InflaterInputStream in = new InflaterInputStream(
+                new ByteArrayInputStream(bytes, 1, bytes.length - 1));
+        try {
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("History chunk can't be inflated", e);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        VarintReader reader = new VarintReader(body.toByteArray());
+        long count = reader.read();
+        // Every day takes at least a byte for each column
+        if (count < 0 || count > reader.remaining()) {
+            throw new IllegalArgumentException("History chunk of " + count + " days");
+        }
+        HistoryChunk chunk = new HistoryChunk((int) count);
+        long previous = 0;
+        for (int i = 0; i < chunk.size(); i++) {
+            previous += unZigZag(reader.read());
+            chunk.mDates[i] = previous;
+        }
+        previous = 0;
+        for (int i = 0; i < chunk.size(); i++) {
+            previous += unZigZag(reader.read());
+            chunk.mWeatherIds[i] = (int) previous;
+        }
+        for (double[] measure : chunk.mMeasures) {
+            previous = 0;
+            for (int i = 0; i < chunk.size(); i++) {
+                previous += unZigZag(reader.read());
+                measure[i] = previous / SCALE;
+            }
+        }
+        if (reader.remaining() != 0) {
+            throw new IllegalArgumentException(
+                    reader.remaining() + " bytes after the history chunk");
+        }
+        return chunk;
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    // Seven bits at a time, low bits first, with the top bit set on all but the last byte
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static final class VarintReader {
+        private final byte[] mBytes;
+        private int mPosition;
+
+        VarintReader(byte[] bytes) {
+            mBytes = bytes;
+        }
+
+        long read() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (mPosition == mBytes.length) {
+                    throw new IllegalArgumentException("History chunk cut short");
+                }
+                byte b = mBytes[mPosition++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("History chunk varint too long");
+        }
+
+        int remaining() {
+            return mBytes.length - mPosition;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return size() + " days" + (size() == 0 ? ""
+                : " from " + mDates[0] + " to " + mDates[size() - 1]);
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+
+/**
+ * A day of history per row, in {@link HistoryEntry#COLUMNS}, decoded from the history table
+ * one chunk at a time as the cursor moves.  Only the chunks' dates and sizes are read up
+ * front, so however long the range, the cursor holds one chunk's days.
+ *
+ * As with a SQLiteCursor, the count is fixed when the cursor is made.  If the history is
+ * rewritten while it is being read, rows past what is left read as null; observers are told
+ * of the change, and should query again.
+ */
+final class HistoryCursor extends AbstractCursor {
+
+    // these indices must match HistoryEntry.COLUMNS
+    private static final int COL_ID = 0;
+    private static final int COL_DATE = 1;
+    private static final int COL_WEATHER_ID = 2;
+    private static final int COL_FIRST_MEASURE = 3;
+
+    private final SQLiteDatabase mDb;
+    private final long mStartDate;
+    private final long mEndDate;
+    private final long[] mChunkIds;
+    // The cursor position of each chunk's first day in the range, and then the count
+    private final int[] mOffsets;
+
+    // The chunk the cursor is in, and the index in it of the range's first day
+    private int mChunkIndex = -1;
+    private HistoryChunk mChunk;
+    private int mChunkStart;
+    // The index in mChunk of the current row, or -1 if it is missing
+    private int mRow = -1;
+
+    /**
+     * @param headers the chunks that overlap the range, in {@link HistoryArchive#HEADER_COLUMNS},
+     * in date order
+     */
+    HistoryCursor(SQLiteDatabase db, Cursor headers, long startDate, long endDate) {
+        mDb = db;
+        mStartDate = startDate;
+        mEndDate = endDate;
+        mChunkIds = new long[headers.getCount()];
+        mOffsets = new int[mChunkIds.length + 1];
+        for (int i = 0; i < mChunkIds.length && headers.moveToPosition(i); i++) {
+            mChunkIds[i] = headers.getLong(0);
+            int days;
+            if (headers.getLong(1) >= startDate && headers.getLong(2) <= endDate) {
+                days = headers.getInt(3);
+            } else {
+                // A chunk at either end of the range; only some of its days are in it
+                days = countInRange(HistoryArchive.read(db, mChunkIds[i]));
+            }
+            mOffsets[i + 1] = mOffsets[i] + days;
+        }
+    }
+
+    private int countInRange(HistoryChunk chunk) {
+        int count = 0;
+        for (int i = chunk.indexFrom(mStartDate);
+             i < chunk.size() && chunk.getDate(i) <= mEndDate; i++) {
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public int getCount() {
+        return mOffsets[mOffsets.length - 1];
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return HistoryEntry.COLUMNS;
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        // The last chunk whose first row is at or before the position.  A chunk with no
+        // days in the range shares its offset with the next, so it is never picked.
+        int chunk = 0;
+        int high = mChunkIds.length - 1;
+        while (chunk < high) {
+            int mid = (chunk + high + 1) >>> 1;
+            if (mOffsets[mid] <= newPosition) {
+                chunk = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (chunk != mChunkIndex) {
+            mChunkIndex = chunk;
+            mChunk = HistoryArchive.read(mDb, mChunkIds[chunk]);
+            mChunkStart = mChunk.indexFrom(mStartDate);
+        }
+        int row = mChunkStart + newPosition - mOffsets[chunk];
+        mRow = row < mChunk.size() && mChunk.getDate(row) <= mEndDate ? row : -1;
+        return true;
+    }
+
+    private static boolean isIntegral(int column) {
+        return column == COL_ID || column == COL_DATE || column == COL_WEATHER_ID;
+    }
+
+    @Override
+    public String getString(int column) {
+        if (mRow == -1) {
+            return null;
+        }
+        return isIntegral(column) ? Long.toString(getLong(column))
+                : Double.toString(getDouble(column));
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        if (mRow == -1) {
+            return 0;
+        }
+        switch (column) {
+            case COL_ID:
+            case COL_DATE:
+                return mChunk.getDate(mRow);
+            case COL_WEATHER_ID:
+                return mChunk.getWeatherId(mRow);
+            default:
+                return (long) getDouble(column);
+        }
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        if (column < 0 || column >= HistoryEntry.COLUMNS.length) {
+            throw new IllegalArgumentException("No column " + column);
+        }
+        if (mRow == -1) {
+            return 0;
+        }
+        if (isIntegral(column)) {
+            return getLong(column);
+        }
+        return mChunk.getMeasure(column - COL_FIRST_MEASURE, mRow);
+    }
+
+    @Override
+    public int getType(int column) {
+        if (mRow == -1) {
+            return FIELD_TYPE_NULL;
+        }
+        return isIntegral(column) ? FIELD_TYPE_INTEGER : FIELD_TYPE_FLOAT;
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return mRow == -1;
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.net.Uri;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds back {@link WeatherProvider}'s change notifications for a short window, or until the
+ * end of a batch, and then sends each URI once.
+ *
+ * Every notification makes a CursorLoader requery, so a burst of writes, like a sync's
+ * replace and prune or a batch of operations, reloads each observer once rather than once
+ * per write.  A URI is also dropped if one of its ancestors is going out, since the
+ * ancestor's notification reaches its observers anyway.
+ *
+ * The window is timed on a daemon thread, started on the first held notification and
+ * stopped by {@link #shutdown}.
+ */
+final class NotificationCoalescer {
+
+    // Short enough not to be noticed in the UI, long enough to span a sync's writes
+    static final long DEFAULT_WINDOW_MILLIS = 100;
+
+    interface Notifier {
+        void notifyChange(Uri uri);
+    }
+
+    private static final ThreadFactory TIMER_THREADS = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "NotificationCoalescer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    private final Notifier mNotifier;
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    // Guarded by this
+    private final Set<Uri> mPending = new LinkedHashSet<Uri>();
+    private long mWindowMillis = DEFAULT_WINDOW_MILLIS;
+    private int mBatchDepth;
+    private ScheduledExecutorService mTimer;
+    private ScheduledFuture<?> mScheduledFlush;
+    private long mRequested;
+    private long mEmitted;
+
+    NotificationCoalescer(Notifier notifier) {
+        mNotifier = notifier;
+    }
+
+    /**
+     * @param windowMillis how long to hold notifications for; 0 sends them at the end of each
+     * write or batch
+     */
+    synchronized void setWindowMillis(long windowMillis) {
+        mWindowMillis = windowMillis;
+    }
+
+    synchronized long getWindowMillis() {
+        return mWindowMillis;
+    }
+
+    void add(Collection<Uri> uris) {
+        boolean flushNow;
+        synchronized (this) {
+            mRequested += uris.size();
+            mPending.addAll(uris);
+            flushNow = scheduleFlush();
+        }
+        if (flushNow) {
+            flush();
+        }
+    }
+
+    /**
+     * Holds notifications until the matching {@link #endBatch}.  Batches nest.
+     */
+    synchronized void beginBatch() {
+        mBatchDepth++;
+    }
+
+    void endBatch() {
+        boolean flushNow;
+        synchronized (this) {
+            mBatchDepth--;
+            flushNow = scheduleFlush();
+        }
+        if (flushNow) {
+            flush();
+        }
+    }
+
+    /**
+     * @return true if the caller should flush now, rather than the timer later
+     */
+    private boolean scheduleFlush() {
+        if (mBatchDepth > 0 || mPending.isEmpty()) {
+            return false;
+        }
+        if (mWindowMillis <= 0) {
+            return true;
+        }
+        if (mScheduledFlush == null) {
+            if (mTimer == null) {
+                mTimer = Executors.newSingleThreadScheduledExecutor(TIMER_THREADS);
+            }
+            mScheduledFlush = mTimer.schedule(mFlush, mWindowMillis, TimeUnit.MILLISECONDS);
+        }
+        return false;
+    }
+
+    /**
+     * Sends whatever is pending now, unless a batch is open.
+     */
+    void flush() {
+        List<Uri> uris;
+        synchronized (this) {
+            if (mScheduledFlush != null) {
+                mScheduledFlush.cancel(false);
+                mScheduledFlush = null;
+            }
+            if (mBatchDepth > 0) {
+                // endBatch sends them
+                return;
+            }
+            uris = withoutDescendants(mPending);
+            mPending.clear();
+            mEmitted += uris.size();
+        }
+        for (Uri uri : uris) {
+            mNotifier.notifyChange(uri);
+        }
+    }
+
+    /**
+     * Sends whatever is pending and stops the timer's thread.  A later notification starts
+     * it again.
+     */
+    void shutdown() {
+        ScheduledExecutorService timer;
+        synchronized (this) {
+            timer = mTimer;
+            mTimer = null;
+        }
+        flush();
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+    }
+
+    private static List<Uri> withoutDescendants(Set<Uri> pending) {
+        List<Uri> uris = new ArrayList<Uri>(pending.size());
+        for (Uri uri : pending) {
+            boolean covered = false;
+            for (Uri other : pending) {
+                if (isAncestor(other, uri)) {
+                    covered = true;
+                    break;
+                }
+            }
+            if (!covered) {
+                uris.add(uri);
+            }
+        }
+        return uris;
+    }
+
+    /**
+     * @return whether a notification on ancestor reaches the observers of uri, which it does
+     * for every path below it
+     */
+    static boolean isAncestor(Uri ancestor, Uri uri) {
+        if (!ancestor.getAuthority().equals(uri.getAuthority())) {
+            return false;
+        }
+        List<String> ancestorPath = ancestor.getPathSegments();
+        List<String> path = uri.getPathSegments();
+        return ancestorPath.size() < path.size()
+                && path.subList(0, ancestorPath.size()).equals(ancestorPath);
+    }
+
+    /**
+     * @return how many notifications the provider asked for
+     */
+    synchronized long getRequestedCount() {
+        return mRequested;
+    }
+
+    /**
+     * @return how many notifications were sent
+     */
+    synchronized long getEmittedCount() {
+        return mEmitted;
+    }
+
+    /**
+     * @return how many notifications were folded into others
+     */
+    synchronized long getCoalescedCount() {
+        return mRequested - mEmitted - mPending.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return mRequested + " requested, " + mEmitted + " sent, " + getCoalescedCount()
+                + " coalesced, " + mPending.size() + " pending, window " + mWindowMillis + "ms";
+    }
+}
@@ -19,7 +19,8 @@ import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
-import android.text.format.Time;
+
+import java.util.TimeZone;
 
 /**
  * Defines table and column names for the weather database.
@@ -43,15 +44,96 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    // Change notifications for single days of weather; nothing is queried here
+    public static final String PATH_WEATHER_DAY = "weather_day";
+    public static final String PATH_PACKED_FORECAST = "packed_forecast";
+    public static final String PATH_HISTORY = "history";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
-    // the database to the start of the the Julian day at UTC.
+    // the database to the start of their day in the device's time zone.
     public static long normalizeDate(long startDate) {
-        // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
-        time.set(startDate);
-        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
-        return time.setJulianDay(julianDay);
+        return sDateNormalizer.normalize(startDate);
+    }
+
+    /**
+     * Forgets the time zone normalizeDate has been using.  Called when the device's time zone
+     * changes; the next date is normalized in the new zone.
+     */
+    public static void onTimeZoneChanged() {
+        sDateNormalizer.invalidate();
+    }
+
+    private static final DateNormalizer sDateNormalizer = new DateNormalizer();
+
+    /**
+     * Finds the start of a date's day with arithmetic on the zone's UTC offsets, rather than
+     * by filling in an android.text.format.Time, so normalizing a date never allocates.
+     *
+     * The time zone is looked up once and kept until {@link #invalidate()}, and the last day
+     * found is remembered, so the many dates that fall on the same day (every URI built for
+     * "now", say) cost a range check.
+     */
+    static final class DateNormalizer {
+        private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+        // No zone is further than this from UTC
+        private static final long MAX_OFFSET_MILLIS = 14 * 60 * 60 * 1000L;
+
+        // The zone dates are normalized in, or null to look up the device's zone on next use
+        private TimeZone mZone;
+        // The last day found, as [mDayStart, mNextDayStart)
+        private long mDayStart;
+        private long mNextDayStart;
+
+        synchronized long normalize(long date) {
+            if (mZone == null) {
+                mZone = TimeZone.getDefault();
+            } else if (date >= mDayStart && date < mNextDayStart) {
+                return mDayStart;
+            }
+            long localDay = floorDiv(date + mZone.getOffset(date), DAY_IN_MILLIS);
+            mDayStart = startOfLocalDay(localDay);
+            mNextDayStart = startOfLocalDay(localDay + 1);
+            return mDayStart;
+        }
+
+        synchronized void invalidate() {
+            mZone = null;
+            mDayStart = mNextDayStart = 0;
+        }
+
+        /**
+         * @return the first instant whose local date is the given day, counted from the epoch
+         */
+        private long startOfLocalDay(long localDay) {
+            long midnight = localDay * DAY_IN_MILLIS;
+            // The offsets in force on either side of the day's start.  Almost always the same.
+            int earlyOffset = mZone.getOffset(midnight - MAX_OFFSET_MILLIS);
+            int lateOffset = mZone.getOffset(midnight + MAX_OFFSET_MILLIS);
+            if (earlyOffset == lateOffset) {
+                return midnight - earlyOffset;
+            }
+
+            // A transition is near.  Local midnight is at one of these two instants, or both
+            // if the clocks went back over it; take the first.
+            long early = midnight - earlyOffset;
+            long late = midnight - lateOffset;
+            boolean earlyValid = mZone.getOffset(early) == earlyOffset;
+            boolean lateValid = mZone.getOffset(late) == lateOffset;
+            if (earlyValid && lateValid) {
+                return Math.min(early, late);
+            } else if (earlyValid) {
+                return early;
+            } else if (lateValid) {
+                return late;
+            }
+            // The clocks went forward over midnight, so the day starts when they did
+            return midnight - Math.min(earlyOffset, lateOffset);
+        }
+
+        private static long floorDiv(long x, long y) {
+            long q = x / y;
+            return (x % y != 0 && ((x < 0) != (y < 0))) ? q - 1 : q;
+        }
     }
 
     /* Inner class that defines the table contents of the location table */
@@ -92,6 +174,16 @@ public class WeatherContract {
         public static final Uri CONTENT_URI =
                 BASE_CONTENT_URI.buildUpon().appendPath(PATH_WEATHER).build();
 
+        /**
+         * Where changes to single days of weather are notified.  A day's query gets its
+         * notifications here, under weather_day/[location]/[date], rather than under
+         * weather/[location], because a change notified on a URI reaches the observers of
+         * everything below it.  Here, a location's forecast list can be told once about a
+         * change to the whole week, without every day of the location being told as well.
+         */
+        public static final Uri DAY_CHANGE_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_WEATHER_DAY).build();
+
         public static final String CONTENT_TYPE =
                 ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_WEATHER;
         public static final String CONTENT_ITEM_TYPE =
@@ -126,6 +218,9 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Query parameter for a location's new forecast: its rows dated before it are dropped
+        public static final String PARAM_PRUNE_BEFORE = "prune_before";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -149,6 +244,32 @@ public class WeatherContract {
                     .appendPath(Long.toString(normalizeDate(date))).build();
         }
 
+        /**
+         * A URI to bulkInsert a location's new forecast into.  The rows are written, and every
+         * location's rows from before the given date moved to history, in one transaction with
+         * one change notification, so observers reload once for the whole update.
+         */
+        public static Uri buildWeatherLocationReplace(String locationSetting, long pruneBefore) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_PRUNE_BEFORE,
+                            Long.toString(normalizeDate(pruneBefore))).build();
+        }
+
+        /**
+         * @return where changes to the location's weather on the date are notified
+         */
+        public static Uri buildWeatherDayChangeUri(String locationSetting, long date) {
+            return DAY_CHANGE_URI.buildUpon().appendPath(locationSetting)
+                    .appendPath(Long.toString(normalizeDate(date))).build();
+        }
+
+        /**
+         * @return the parent of every day's change URI for the location
+         */
+        public static Uri buildWeatherDaysChangeUri(String locationSetting) {
+            return DAY_CHANGE_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
         public static String getLocationSettingFromUri(Uri uri) {
             return uri.getPathSegments().get(1);
         }
@@ -164,5 +285,139 @@ public class WeatherContract {
             else
                 return 0;
         }
+
+        public static long getPruneBeforeFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_PRUNE_BEFORE);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return 0;
+        }
+    }
+
+    /**
+     * Inner class that defines the table contents of the packed forecast table: a location's
+     * forecast list in one row, as {@link ForecastSnapshot#toPacked()} encodes it.
+     *
+     * The rows are a copy of the weather table kept for fast reads.  The provider rewrites a
+     * location's row when its forecast is replaced, and drops it on any other change to the
+     * location's weather, so a missing row means "read the weather table".
+     */
+    public static final class PackedForecastEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_PACKED_FORECAST).build();
+
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" +
+                        PATH_PACKED_FORECAST;
+
+        public static final String TABLE_NAME = "packed_forecast";
+
+        // The _ID is the location's _ID, so a location's row is found by its primary key
+
+        // The encoded days, as a blob
+        public static final String COLUMN_DATA = "data";
+
+        /**
+         * @return a URI whose query is the location's packed forecast, in one row with
+         * {@link #COLUMN_DATA}, or no rows if there isn't one.  Changes are notified on the
+         * location's weather URI.
+         */
+        public static Uri buildPackedForecastUri(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+    }
+
+    /**
+     * Inner class that defines the table contents of the history table, where the days a
+     * sync drops from the weather table are kept for trend charts.
+     *
+     * Each row is a chunk of up to a month of one location's days, encoded by HistoryChunk.
+     * The table isn't queried directly: a history URI's query decodes the chunks it covers
+     * into one row per day, with the weather table's column names (see {@link #COLUMNS}),
+     * and the _ID of each row is its date.
+     */
+    public static final class HistoryEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HISTORY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HISTORY;
+
+        public static final String TABLE_NAME = "history";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // The dates of the chunk's first and last days, so a range finds its chunks by index
+        public static final String COLUMN_FIRST_DATE = "first_date";
+        public static final String COLUMN_LAST_DATE = "last_date";
+        // How many days the chunk holds
+        public static final String COLUMN_DAYS = "days";
+        // The encoded days, as a blob
+        public static final String COLUMN_DATA = "data";
+
+        // Query parameters for the first and last dates of a range, both included
+        public static final String PARAM_START = "start";
+        public static final String PARAM_END = "end";
+
+        /**
+         * The columns of a history query, one row per day in date order.  Any projection
+         * given to the query is ignored.
+         */
+        public static final String[] COLUMNS = {
+                _ID,
+                WeatherEntry.COLUMN_DATE,
+                WeatherEntry.COLUMN_WEATHER_ID,
+                WeatherEntry.COLUMN_MIN_TEMP,
+                WeatherEntry.COLUMN_MAX_TEMP,
+                WeatherEntry.COLUMN_HUMIDITY,
+                WeatherEntry.COLUMN_PRESSURE,
+                WeatherEntry.COLUMN_WIND_SPEED,
+                WeatherEntry.COLUMN_DEGREES
+        };
+
+        /**
+         * @return every day of the location's history.  Changes to it are notified here.
+         */
+        public static Uri buildHistoryLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        /**
+         * @return the location's history from startDate to endDate, both included
+         */
+        public static Uri buildHistoryRange(String locationSetting, long startDate,
+                                            long endDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_START, Long.toString(normalizeDate(startDate)))
+                    .appendQueryParameter(PARAM_END, Long.toString(normalizeDate(endDate)))
+                    .build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getStartDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_START);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return Long.MIN_VALUE;
+        }
+
+        public static long getEndDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_END);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return Long.MAX_VALUE;
+        }
     }
 }
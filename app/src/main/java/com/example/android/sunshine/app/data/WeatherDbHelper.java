@@ -15,25 +15,179 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.util.Log;
 
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.PackedForecastEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
 /**
  * Manages a local database for weather data.
+ *
+ * Schema changes are applied by {@link #MIGRATIONS}, one step per version, so an app update
+ * keeps the locations and forecasts already on the device instead of starting from an empty
+ * database and a cold network sync.
+ *
+ * Where the platform supports it the database runs in write-ahead logging mode, so the
+ * forecast list, widgets and Muzei can keep reading while the sync adapter is in the middle
+ * of a write transaction.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
+    private static final String LOG_TAG = WeatherDbHelper.class.getSimpleName();
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    // If you change the database schema, you must increment the database version, change
+    // onCreate to build the new schema, and add a Migration that gets the previous version there.
+    static final int DATABASE_VERSION = 6;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // Set to false to fall back to the rollback journal, where readers wait for the writer.
+    static final boolean WRITE_AHEAD_LOGGING = true;
+
+    // The checkpoint interval and log size limit are left to the framework, which on Jelly
+    // Bean and later checkpoints every 100 pages and truncates the log back to 512KB.  A sync
+    // writes a few dozen rows, so the log, and every reader's walk through it, stays short.
+
+    /**
+     * One step in the upgrade path.  Runs inside the transaction SQLiteOpenHelper opens for
+     * onUpgrade, so a step that throws leaves the database at the version it started from.
+     */
+    static abstract class Migration {
+        // The version the database is at once this step has run
+        final int toVersion;
+
+        Migration(int toVersion) {
+            this.toVersion = toVersion;
+        }
+
+        abstract void migrate(SQLiteDatabase db);
+    }
+
+    // The oldest version we know how to upgrade in place.  Anything older is rebuilt.
+    static final int OLDEST_MIGRATABLE_VERSION = 2;
+
+    // Steps must be in version order, with one for every version after the oldest migratable one.
+    // Each step spells out its own SQL rather than borrowing from onCreate, because onCreate
+    // always describes the newest schema and later steps expect the schema as it was.
+    static final Migration[] MIGRATIONS = {
+            // 2 -> 3: make the weather unique key (location, date) rather than (date, location),
+            // so that its index also serves the per-location queries the UI and sync make.
+            // SQLite can't alter a constraint, so the table is copied.
+            new Migration(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    final String columns = WeatherEntry._ID + ", " +
+                            WeatherEntry.COLUMN_LOC_KEY + ", " +
+                            WeatherEntry.COLUMN_DATE + ", " +
+                            WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                            WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                            WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                            WeatherEntry.COLUMN_HUMIDITY + ", " +
+                            WeatherEntry.COLUMN_PRESSURE + ", " +
+                            WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                            WeatherEntry.COLUMN_DEGREES;
+                    final String newTable = WeatherEntry.TABLE_NAME + "_v3";
+
+                    db.execSQL("CREATE TABLE " + newTable + " (" +
+                            WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                            WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                            WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                            WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+                            WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+                            WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                            WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                            WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                            WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                            WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                            WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+                            " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+                            " UNIQUE (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                            WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);");
+                    db.execSQL("INSERT INTO " + newTable + " (" + columns + ") SELECT " +
+                            columns + " FROM " + WeatherEntry.TABLE_NAME);
+                    db.execSQL("DROP TABLE " + WeatherEntry.TABLE_NAME);
+                    db.execSQL("ALTER TABLE " + newTable + " RENAME TO " + WeatherEntry.TABLE_NAME);
+                }
+            },
+            // 3 -> 4: indexes for the provider's query shapes.  See onCreate.
+            new Migration(4) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX " + WeatherEntry.TABLE_NAME + "_forecast_list ON " +
+                            WeatherEntry.TABLE_NAME + " (" +
+                            WeatherEntry.COLUMN_LOC_KEY + ", " +
+                            WeatherEntry.COLUMN_DATE + ", " +
+                            WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                            WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                            WeatherEntry.COLUMN_SHORT_DESC + ");");
+                    db.execSQL("CREATE INDEX " + WeatherEntry.TABLE_NAME + "_date ON " +
+                            WeatherEntry.TABLE_NAME + " (" + WeatherEntry.COLUMN_DATE + ");");
+                }
+            },
+            // 4 -> 5: the packed forecast table.  It starts empty, and each location's row is
+            // written by its next sync.
+            new Migration(5) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + PackedForecastEntry.TABLE_NAME + " (" +
+                            PackedForecastEntry._ID + " INTEGER PRIMARY KEY, " +
+                            PackedForecastEntry.COLUMN_DATA + " BLOB NOT NULL, " +
+                            " FOREIGN KEY (" + PackedForecastEntry._ID + ") REFERENCES " +
+                            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "));");
+                }
+            },
+            // 5 -> 6: the history table and its index.  See onCreate.
+            new Migration(6) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + HistoryEntry.TABLE_NAME + " (" +
+                            HistoryEntry._ID + " INTEGER PRIMARY KEY, " +
+                            HistoryEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                            HistoryEntry.COLUMN_FIRST_DATE + " INTEGER NOT NULL, " +
+                            HistoryEntry.COLUMN_LAST_DATE + " INTEGER NOT NULL, " +
+                            HistoryEntry.COLUMN_DAYS + " INTEGER NOT NULL, " +
+                            HistoryEntry.COLUMN_DATA + " BLOB NOT NULL, " +
+                            " FOREIGN KEY (" + HistoryEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "));");
+                    db.execSQL("CREATE INDEX " + HistoryEntry.TABLE_NAME + "_range ON " +
+                            HistoryEntry.TABLE_NAME + " (" +
+                            HistoryEntry.COLUMN_LOC_KEY + ", " +
+                            HistoryEntry.COLUMN_FIRST_DATE + ");");
+                }
+            },
+    };
+
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        if (WRITE_AHEAD_LOGGING && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            // The framework gives the database a pool of connections in this mode: one for
+            // writes and the rest for readers, which no longer wait for the writer to commit.
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        // Before Jelly Bean there is no setWriteAheadLoggingEnabled, so WAL is switched on by hand
+        if (WRITE_AHEAD_LOGGING && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                && !db.isReadOnly()) {
+            enableWriteAheadLogging(db);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static boolean enableWriteAheadLogging(SQLiteDatabase db) {
+        return db.enableWriteAheadLogging();
     }
 
     @Override
@@ -75,24 +229,93 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
 
                 // To assure the application have just one weather entry per day
-                // per location, it's created a UNIQUE constraint with REPLACE strategy
-                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
-                WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
+                // per location, it's created a UNIQUE constraint with REPLACE strategy.
+                // Location comes first so the index behind it also finds a location's days.
+                " UNIQUE (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+
+        // The forecast list, both widgets and Muzei ask for a location's days from a start
+        // date, and only for these columns (the _id is the rowid, which every index carries).
+        // Covering them means those queries never touch the table itself.  The detail view
+        // asks for a single day and every column, which the unique key already finds.
+        final String SQL_CREATE_FORECAST_LIST_INDEX = "CREATE INDEX " +
+                WeatherEntry.TABLE_NAME + "_forecast_list ON " + WeatherEntry.TABLE_NAME + " (" +
+                WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + ", " +
+                WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                WeatherEntry.COLUMN_SHORT_DESC + ");";
+
+        // A sync finds every location with days before today by date alone, to prune them
+        final String SQL_CREATE_DATE_INDEX = "CREATE INDEX " +
+                WeatherEntry.TABLE_NAME + "_date ON " + WeatherEntry.TABLE_NAME + " (" +
+                WeatherEntry.COLUMN_DATE + ");";
+
+        // Each location's forecast list in one blob, under the location's own _ID, so reading
+        // it is a single primary key lookup rather than a join over a couple of weeks of rows
+        final String SQL_CREATE_PACKED_FORECAST_TABLE = "CREATE TABLE " +
+                PackedForecastEntry.TABLE_NAME + " (" +
+                PackedForecastEntry._ID + " INTEGER PRIMARY KEY, " +
+                PackedForecastEntry.COLUMN_DATA + " BLOB NOT NULL, " +
+                " FOREIGN KEY (" + PackedForecastEntry._ID + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "));";
+
+        // Past days, a month or so of one location's to a row; see HistoryArchive
+        final String SQL_CREATE_HISTORY_TABLE = "CREATE TABLE " + HistoryEntry.TABLE_NAME + " (" +
+                HistoryEntry._ID + " INTEGER PRIMARY KEY, " +
+                HistoryEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                HistoryEntry.COLUMN_FIRST_DATE + " INTEGER NOT NULL, " +
+                HistoryEntry.COLUMN_LAST_DATE + " INTEGER NOT NULL, " +
+                HistoryEntry.COLUMN_DAYS + " INTEGER NOT NULL, " +
+                HistoryEntry.COLUMN_DATA + " BLOB NOT NULL, " +
+                " FOREIGN KEY (" + HistoryEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "));";
+
+        // A range of a location's history finds its chunks in order of date
+        final String SQL_CREATE_HISTORY_RANGE_INDEX = "CREATE INDEX " +
+                HistoryEntry.TABLE_NAME + "_range ON " + HistoryEntry.TABLE_NAME + " (" +
+                HistoryEntry.COLUMN_LOC_KEY + ", " +
+                HistoryEntry.COLUMN_FIRST_DATE + ");";
 
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_FORECAST_LIST_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_DATE_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_PACKED_FORECAST_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_HISTORY_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_HISTORY_RANGE_INDEX);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
         // Note that this only fires if you change the version number for your database.
         // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
+        if (oldVersion < OLDEST_MIGRATABLE_VERSION) {
+            // Too old to bother migrating.  This database is only a cache for online data,
+            // so it can always be rebuilt and refilled by the next sync.
+            recreate(sqLiteDatabase);
+            return;
+        }
+        for (Migration migration : MIGRATIONS) {
+            if (migration.toVersion > oldVersion && migration.toVersion <= newVersion) {
+                Log.d(LOG_TAG, "Migrating " + DATABASE_NAME + " to version " + migration.toVersion);
+                migration.migrate(sqLiteDatabase);
+            }
+        }
+    }
+
+    @Override
+    public void onDowngrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        // We can't know what a newer version did to the schema, so start over
+        recreate(sqLiteDatabase);
+    }
+
+    private void recreate(SQLiteDatabase sqLiteDatabase) {
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + PackedForecastEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HistoryEntry.TABLE_NAME);
         onCreate(sqLiteDatabase);
     }
 }
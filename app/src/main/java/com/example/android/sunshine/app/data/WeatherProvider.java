@@ -17,25 +17,50 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 public class WeatherProvider extends ContentProvider {
+    private static final String LOG_TAG = WeatherProvider.class.getSimpleName();
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    private NotificationCoalescer mNotifications;
+    // Whether locations' forecasts are kept in the packed forecast table as well
+    private volatile boolean mPackForecasts;
+    private HistoryArchive mHistory;
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
+    static final int PACKED_FORECAST_WITH_LOCATION = 400;
+    static final int HISTORY_WITH_LOCATION = 500;
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -52,22 +77,57 @@ public class WeatherProvider extends ContentProvider {
     }
 
     //location.location_setting = ?
-    private static final String sLocationSettingSelection =
+    static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
     //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
+    static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
     //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
+    static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
+    //location_id = (SELECT _id FROM location WHERE location_setting = ?) AND date < ?
+    static final String sLocationIdAndBeforeDateSelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = (SELECT " +
+                    WeatherContract.LocationEntry._ID + " FROM " +
+                    WeatherContract.LocationEntry.TABLE_NAME + " WHERE " +
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?) AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " < ? ";
+
+    //SELECT location_setting FROM location
+    //    WHERE _id IN (SELECT location_id FROM weather WHERE date < ?)
+    static final String SQL_LOCATIONS_WITH_DAYS_BEFORE =
+            "SELECT " + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " FROM " +
+                    WeatherContract.LocationEntry.TABLE_NAME + " WHERE " +
+                    WeatherContract.LocationEntry._ID + " IN (SELECT " +
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " FROM " +
+                    WeatherContract.WeatherEntry.TABLE_NAME + " WHERE " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " < ?)";
+
+    //_id = (SELECT _id FROM location WHERE location_setting = ?)
+    static final String sPackedForecastByLocationSettingSelection =
+            WeatherContract.PackedForecastEntry._ID + " = (SELECT " +
+                    WeatherContract.LocationEntry._ID + " FROM " +
+                    WeatherContract.LocationEntry.TABLE_NAME + " WHERE " +
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?) ";
+
+    //INSERT OR REPLACE INTO packed_forecast (_id, data)
+    //    SELECT _id, ? FROM location WHERE location_setting = ?
+    private static final String SQL_WRITE_PACKED_FORECAST =
+            "INSERT OR REPLACE INTO " + WeatherContract.PackedForecastEntry.TABLE_NAME + " (" +
+                    WeatherContract.PackedForecastEntry._ID + ", " +
+                    WeatherContract.PackedForecastEntry.COLUMN_DATA + ") SELECT " +
+                    WeatherContract.LocationEntry._ID + ", ? FROM " +
+                    WeatherContract.LocationEntry.TABLE_NAME + " WHERE " +
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?";
+
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
@@ -93,6 +153,25 @@ public class WeatherProvider extends ContentProvider {
         );
     }
 
+    private Cursor getPackedForecast(Uri uri, String[] projection) {
+        if (projection == null) {
+            projection = new String[]{WeatherContract.PackedForecastEntry.COLUMN_DATA};
+        }
+        if (!mPackForecasts) {
+            // There are no rows being kept up to date
+            return new MatrixCursor(projection, 0);
+        }
+        return mOpenHelper.getReadableDatabase().query(
+                WeatherContract.PackedForecastEntry.TABLE_NAME,
+                projection,
+                sPackedForecastByLocationSettingSelection,
+                new String[]{WeatherContract.PackedForecastEntry.getLocationSettingFromUri(uri)},
+                null,
+                null,
+                null
+        );
+    }
+
     private Cursor getWeatherByLocationSettingAndDate(
             Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
@@ -130,6 +209,11 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_PACKED_FORECAST + "/*",
+                PACKED_FORECAST_WITH_LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY + "/*", HISTORY_WITH_LOCATION);
         return matcher;
     }
 
@@ -140,9 +224,33 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         mOpenHelper = new WeatherDbHelper(getContext());
+        mNotifications = new NotificationCoalescer(new NotificationCoalescer.Notifier() {
+            @Override
+            public void notifyChange(Uri uri) {
+                getContext().getContentResolver().notifyChange(uri, null);
+            }
+        });
+        mPackForecasts = getContext().getResources().getBoolean(R.bool.pack_forecasts);
+        mHistory = new HistoryArchive(
+                getContext().getResources().getInteger(R.integer.history_retention_days));
         return true;
     }
 
+    /**
+     * Where the days a sync drops go, and for how long; see HistoryArchive.
+     */
+    HistoryArchive getHistoryArchive() {
+        return mHistory;
+    }
+
+    /**
+     * Turns the packed forecast table on or off.  Off, its queries return no rows and no
+     * location's row is written, so readers use the weather table.
+     */
+    void setPackForecasts(boolean packForecasts) {
+        mPackForecasts = packForecasts;
+    }
+
     /*
         Students: Here's where you'll code the getType function that uses the UriMatcher.  You can
         test this by uncommenting testGetType in TestProvider.
@@ -164,6 +272,10 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case PACKED_FORECAST_WITH_LOCATION:
+                return WeatherContract.PackedForecastEntry.CONTENT_ITEM_TYPE;
+            case HISTORY_WITH_LOCATION:
+                return WeatherContract.HistoryEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -213,14 +325,49 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "packed_forecast/*"
+            case PACKED_FORECAST_WITH_LOCATION: {
+                retCursor = getPackedForecast(uri, projection);
+                break;
+            }
+            // "history/*?start=date&end=date"
+            case HISTORY_WITH_LOCATION: {
+                retCursor = HistoryArchive.query(mOpenHelper.getReadableDatabase(),
+                        WeatherContract.HistoryEntry.getLocationSettingFromUri(uri),
+                        WeatherContract.HistoryEntry.getStartDateFromUri(uri),
+                        WeatherContract.HistoryEntry.getEndDateFromUri(uri));
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        retCursor.setNotificationUri(getContext().getContentResolver(), uri);
+        retCursor.setNotificationUri(getContext().getContentResolver(), getNotificationUri(uri));
         return retCursor;
     }
 
+    /**
+     * @return the URI a query's cursor is told of changes on; see ChangedWeather
+     */
+    private static Uri getNotificationUri(Uri uri) {
+        switch (sUriMatcher.match(uri)) {
+            case WEATHER_WITH_LOCATION_AND_DATE:
+                return WeatherContract.WeatherEntry.buildWeatherDayChangeUri(
+                        WeatherContract.WeatherEntry.getLocationSettingFromUri(uri),
+                        WeatherContract.WeatherEntry.getDateFromUri(uri));
+            case PACKED_FORECAST_WITH_LOCATION:
+                // The packed forecast changes whenever the location's weather does
+                return WeatherContract.WeatherEntry.buildWeatherLocation(
+                        WeatherContract.PackedForecastEntry.getLocationSettingFromUri(uri));
+            case HISTORY_WITH_LOCATION:
+                // Every range of the location's history
+                return WeatherContract.HistoryEntry.buildHistoryLocation(
+                        WeatherContract.HistoryEntry.getLocationSettingFromUri(uri));
+            default:
+                return uri;
+        }
+    }
+
     /*
         Student: Add the ability to insert Locations to the implementation of this function.
      */
@@ -233,12 +380,25 @@ public class WeatherProvider extends ContentProvider {
         switch (match) {
             case WEATHER: {
                 normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                ChangedWeather changes = new ChangedWeather(db);
+                long _id;
+                db.beginTransaction();
+                try {
+                    _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                    if (_id > 0) {
+                        changes.addRow(values);
+                        dropPackedForecasts(db, changes);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
-                break;
+                notifyChange(changes);
+                return returnUri;
             }
             case LOCATION: {
                 long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
@@ -251,7 +411,7 @@ public class WeatherProvider extends ContentProvider {
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return returnUri;
     }
 
@@ -263,25 +423,94 @@ public class WeatherProvider extends ContentProvider {
         // this makes delete all rows return the number of rows deleted
         if ( null == selection ) selection = "1";
         switch (match) {
-            case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
-                break;
+            case WEATHER: {
+                ChangedWeather changes = new ChangedWeather(db);
+                db.beginTransaction();
+                try {
+                    changes.addMatching(selection, selectionArgs);
+                    rowsDeleted = db.delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                    dropPackedForecasts(db, changes);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                if (rowsDeleted != 0) {
+                    notifyChange(changes);
+                }
+                return rowsDeleted;
+            }
             case LOCATION:
-                rowsDeleted = db.delete(
-                        WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                db.beginTransaction();
+                try {
+                    rowsDeleted = db.delete(
+                            WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                    if (rowsDeleted != 0) {
+                        dropAllPackedForecasts(db);
+                        HistoryArchive.deleteOrphans(db);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsDeleted;
     }
 
-    private void normalizeDate(ContentValues values) {
+    /**
+     * Drops the in-memory forecasts before telling observers, so whoever re-reads on the
+     * notification sees the change.
+     */
+    private void notifyChange(Uri uri) {
+        ForecastSnapshotCache.getInstance().invalidate();
+        mNotifications.add(Collections.singletonList(uri));
+    }
+
+    /**
+     * Tells only the observers of the weather rows that changed.
+     */
+    private void notifyChange(ChangedWeather changes) {
+        ForecastSnapshotCache.getInstance().invalidate();
+        mNotifications.add(changes.getNotificationUris());
+    }
+
+    /**
+     * Observers hear about changes a short while after them, once for all the changes in
+     * that time; see NotificationCoalescer.
+     */
+    NotificationCoalescer getNotificationCoalescer() {
+        return mNotifications;
+    }
+
+    /**
+     * Runs the operations in one transaction, and tells observers once at the end.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        mNotifications.beginBatch();
+        db.beginTransaction();
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            return results;
+        } finally {
+            db.endTransaction();
+            // Anyone who read between an operation and the commit cached what was there before
+            ForecastSnapshotCache.getInstance().invalidate();
+            mNotifications.endBatch();
+        }
+    }
+
+    private static void normalizeDate(ContentValues values) {
         // normalize the date value
         if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
             long dateValue = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
@@ -297,20 +526,49 @@ public class WeatherProvider extends ContentProvider {
         int rowsUpdated;
 
         switch (match) {
-            case WEATHER:
+            case WEATHER: {
                 normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
-                break;
+                ChangedWeather changes = new ChangedWeather(db);
+                db.beginTransaction();
+                try {
+                    if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)
+                            || values.containsKey(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)) {
+                        // Rows moving to another day or place are seen by observers of both
+                        changes.addEverything();
+                    } else {
+                        changes.addMatching(selection, selectionArgs);
+                    }
+                    rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                    dropPackedForecasts(db, changes);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                if (rowsUpdated != 0) {
+                    notifyChange(changes);
+                }
+                return rowsUpdated;
+            }
             case LOCATION:
-                rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
+                db.beginTransaction();
+                try {
+                    rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                    if (rowsUpdated != 0) {
+                        // The packed forecasts carry each location's coordinates
+                        dropAllPackedForecasts(db);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsUpdated;
     }
@@ -320,34 +578,286 @@ public class WeatherProvider extends ContentProvider {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         switch (match) {
-            case WEATHER:
+            case WEATHER: {
+                ChangedWeather changes = new ChangedWeather(db);
+                db.beginTransaction();
+                int returnCount;
+                try {
+                    returnCount = insertWeather(db, values, changes);
+                    dropPackedForecasts(db, changes);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                notifyChange(changes);
+                return returnCount;
+            }
+            // "weather/*?prune_before=date"
+            case WEATHER_WITH_LOCATION: {
+                // A location's new forecast.  Writing it, moving the days that are over into
+                // history, for this location and any other the user has had, and repacking
+                // the location's forecast is one transaction, so observers hear about it once
+                // and a reader never sees the packed forecast disagree with the table.
+                String locationSetting =
+                        WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+                long pruneBefore = WeatherContract.WeatherEntry.getPruneBeforeFromUri(uri);
+                ChangedWeather changes = new ChangedWeather(db);
+                List<String> historyChanged = new ArrayList<String>();
                 db.beginTransaction();
-                int returnCount = 0;
+                int returnCount;
                 try {
-                    for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
+                    returnCount = insertWeather(db, values, changes);
+                    if (pruneBefore != 0) {
+                        Set<String> expired = new LinkedHashSet<String>();
+                        expired.add(locationSetting);
+                        expired.addAll(getLocationsWithDaysBefore(db, pruneBefore));
+                        for (String expiredSetting : expired) {
+                            if (pruneLocation(db, expiredSetting, pruneBefore, changes)) {
+                                historyChanged.add(expiredSetting);
+                            }
                         }
                     }
+                    dropPackedForecasts(db, changes);
+                    if (mPackForecasts) {
+                        writePackedForecast(db, locationSetting);
+                    }
                     db.setTransactionSuccessful();
                 } finally {
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                if (!changes.isEmpty()) {
+                    notifyChange(changes);
+                }
+                if (!historyChanged.isEmpty()) {
+                    List<Uri> historyUris = new ArrayList<Uri>(historyChanged.size());
+                    for (String changedSetting : historyChanged) {
+                        historyUris.add(
+                                WeatherContract.HistoryEntry.buildHistoryLocation(changedSetting));
+                    }
+                    mNotifications.add(historyUris);
+                }
                 return returnCount;
+            }
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * @return the settings of the locations with weather rows dated before the given date
+     */
+    private static List<String> getLocationsWithDaysBefore(SQLiteDatabase db, long date) {
+        List<String> locationSettings = new ArrayList<String>();
+        Cursor cursor = db.rawQuery(SQL_LOCATIONS_WITH_DAYS_BEFORE,
+                new String[]{Long.toString(date)});
+        try {
+            while (cursor.moveToNext()) {
+                locationSettings.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return locationSettings;
+    }
+
+    /**
+     * Moves the location's days before the given date into its history and deletes them, in
+     * the caller's transaction, noting the deleted rows in changes.
+     *
+     * @return whether the location's history changed
+     */
+    private boolean pruneLocation(SQLiteDatabase db, String locationSetting, long before,
+                                  ChangedWeather changes) {
+        String[] pruneArgs = {locationSetting, Long.toString(before)};
+        boolean historyChanged = mHistory.archive(db, locationSetting, before);
+        changes.addMatching(sLocationIdAndBeforeDateSelection, pruneArgs);
+        db.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                sLocationIdAndBeforeDateSelection, pruneArgs);
+        return historyChanged;
+    }
+
+    /**
+     * Packs the location's forecast list, as it is in the caller's transaction, into its row
+     * of the packed forecast table.
+     */
+    private static void writePackedForecast(SQLiteDatabase db, String locationSetting) {
+        ForecastSnapshot snapshot;
+        Cursor cursor = sWeatherByLocationSettingQueryBuilder.query(db,
+                ForecastSnapshot.COLUMNS,
+                sLocationSettingSelection,
+                new String[]{locationSetting},
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            snapshot = ForecastSnapshot.fromCursor(locationSetting, cursor);
+        } finally {
+            cursor.close();
+        }
+        SQLiteStatement write = db.compileStatement(SQL_WRITE_PACKED_FORECAST);
+        try {
+            write.bindBlob(1, snapshot.toPacked());
+            write.bindString(2, locationSetting);
+            write.executeInsert();
+        } finally {
+            write.close();
+        }
+    }
+
+    /**
+     * Drops the packed forecasts of the locations a write touched, in the caller's
+     * transaction, so readers go to the weather table until the next sync repacks them.
+     */
+    private static void dropPackedForecasts(SQLiteDatabase db, ChangedWeather changes) {
+        if (changes.isEverything()) {
+            dropAllPackedForecasts(db);
+            return;
+        }
+        for (String locationSetting : changes.getLocationSettings()) {
+            db.delete(WeatherContract.PackedForecastEntry.TABLE_NAME,
+                    sPackedForecastByLocationSettingSelection, new String[]{locationSetting});
+        }
+    }
+
+    private static void dropAllPackedForecasts(SQLiteDatabase db) {
+        db.delete(WeatherContract.PackedForecastEntry.TABLE_NAME, null, null);
+    }
+
+    /**
+     * Writes weather rows in the caller's transaction, noting each one written in changes.
+     * @return the number of rows written
+     */
+    private static int insertWeather(SQLiteDatabase db, ContentValues[] values,
+                                     ChangedWeather changes) {
+        int returnCount = 0;
+        WeatherInserter inserter = new WeatherInserter(db);
+        try {
+            for (ContentValues value : values) {
+                if (inserter.insert(value)) {
+                    changes.addRow(value);
+                    returnCount++;
+                }
+            }
+        } finally {
+            inserter.close();
+        }
+        return returnCount;
+    }
+
+    /**
+     * Inserts weather rows through a single compiled statement, so a batch doesn't rebuild the
+     * INSERT and re-resolve its columns for every row.  Rows that don't have exactly the
+     * weather columns (an explicit _id, say, or a missing column) go through
+     * SQLiteDatabase.insert as before.
+     *
+     * Meant to be used for the length of one transaction, then closed.
+     */
+    static final class WeatherInserter {
+        // Bind order of the compiled statement
+        private static final String[] COLUMNS = {
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                WeatherContract.WeatherEntry.COLUMN_DATE,
+                WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+                WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+                WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+                WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+                WeatherContract.WeatherEntry.COLUMN_DEGREES
+        };
+        private static final int DATE_INDEX = 1;
+        private static final String SQL_INSERT = buildInsertSql();
+
+        private final SQLiteDatabase mDb;
+        private final SQLiteStatement mInsert;
+
+        WeatherInserter(SQLiteDatabase db) {
+            mDb = db;
+            mInsert = db.compileStatement(SQL_INSERT);
+        }
+
+        private static String buildInsertSql() {
+            // Plain INSERT picks up the table's ON CONFLICT REPLACE, just as db.insert does
+            StringBuilder sql = new StringBuilder("INSERT INTO ")
+                    .append(WeatherContract.WeatherEntry.TABLE_NAME).append(" (");
+            for (int i = 0; i < COLUMNS.length; i++) {
+                sql.append(i == 0 ? "" : ",").append(COLUMNS[i]);
+            }
+            sql.append(") VALUES (");
+            for (int i = 0; i < COLUMNS.length; i++) {
+                sql.append(i == 0 ? "?" : ",?");
+            }
+            return sql.append(')').toString();
+        }
+
+        /**
+         * @return true if the row was written
+         */
+        boolean insert(ContentValues value) {
+            if (!hasExactlyTheInsertColumns(value)) {
+                WeatherProvider.normalizeDate(value);
+                return mDb.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value) != -1;
+            }
+
+            // Statement parameters are numbered from 1
+            for (int i = 0; i < COLUMNS.length; i++) {
+                if (i == DATE_INDEX) {
+                    Long date = value.getAsLong(COLUMNS[i]);
+                    if (date != null) {
+                        mInsert.bindLong(i + 1, WeatherContract.normalizeDate(date));
+                    } else {
+                        mInsert.bindNull(i + 1);
+                    }
+                } else {
+                    DatabaseUtils.bindObjectToProgram(mInsert, i + 1, value.get(COLUMNS[i]));
+                }
+            }
+            try {
+                return mInsert.executeInsert() != -1;
+            } catch (SQLException e) {
+                // The same thing db.insert does with a row it can't write
+                Log.e(LOG_TAG, "Error inserting " + value, e);
+                return false;
+            }
+        }
+
+        private static boolean hasExactlyTheInsertColumns(ContentValues value) {
+            if (value.size() != COLUMNS.length) {
+                return false;
+            }
+            for (String column : COLUMNS) {
+                if (!value.containsKey(column)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void close() {
+            mInsert.close();
+        }
+    }
+
+    /**
+     * Adds how many change notifications were sent and saved to
+     * adb shell dumpsys activity provider com.example.android.sunshine.app/.data.WeatherProvider
+     */
+    @Override
+    @TargetApi(18)
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println("Change notifications: " + mNotifications);
+        writer.println("Packed forecasts: " + (mPackForecasts ? "on" : "off"));
+        writer.println("History: " + mHistory);
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
     @Override
     @TargetApi(11)
     public void shutdown() {
+        mNotifications.shutdown();
         mOpenHelper.close();
         super.shutdown();
     }
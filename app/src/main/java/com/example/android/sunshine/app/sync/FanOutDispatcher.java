@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the post-sync updates (widgets, watch, Muzei, notification) side by side, off the
+ * sync thread.
+ *
+ * {@link #dispatch} returns straight away, so a slow consumer, such as the notification
+ * waiting on its artwork download, no longer holds up the sync.  Each consumer has its own
+ * time limit; a consumer still running when it expires is interrupted.  How long each one
+ * took is logged and kept in {@link Stats}.
+ *
+ * The dispatcher lives as long as the sync adapter, which is as long as the process, so its
+ * threads are daemons and never keep the process from exiting.
+ */
+class FanOutDispatcher {
+    private static final String LOG_TAG = FanOutDispatcher.class.getSimpleName();
+
+    // One thread per consumer is plenty; they mostly wait on other processes or the network
+    static final int THREADS = 4;
+    // Syncs are hours apart, so don't keep the threads around between them
+    private static final long IDLE_SECONDS = 30;
+
+    interface Consumer {
+        /**
+         * Pushes the update.  Called on a dispatcher thread; should give up promptly when
+         * interrupted.
+         */
+        void update() throws Exception;
+    }
+
+    /**
+     * Latency figures for one consumer, since the process started.
+     */
+    static final class Stats {
+        int runs;
+        int failures;
+        int timeouts;
+        long totalMillis;
+        long maxMillis;
+
+        synchronized void record(long millis, boolean failed) {
+            runs++;
+            if (failed) {
+                failures++;
+            }
+            totalMillis += millis;
+            maxMillis = Math.max(maxMillis, millis);
+        }
+
+        synchronized void recordTimeout() {
+            timeouts++;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return runs + " runs, " + (runs == 0 ? 0 : totalMillis / runs) + "ms average, "
+                    + maxMillis + "ms max, " + failures + " failed, " + timeouts + " timed out";
+        }
+    }
+
+    private static final ThreadFactory DAEMON_THREADS = new ThreadFactory() {
+        private final ThreadFactory mDefault = Executors.defaultThreadFactory();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = mDefault.newThread(r);
+            thread.setName("FanOut-" + thread.getName());
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    private final ThreadPoolExecutor mExecutor = new ThreadPoolExecutor(THREADS, THREADS,
+            IDLE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), DAEMON_THREADS);
+    private final ScheduledExecutorService mWatchdog =
+            Executors.newSingleThreadScheduledExecutor(DAEMON_THREADS);
+    private final Map<String, Stats> mStats = new HashMap<String, Stats>();
+
+    FanOutDispatcher() {
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Starts a consumer's update and returns without waiting for it.
+     *
+     * @param timeoutMillis how long the update may run before it is interrupted
+     */
+    void dispatch(String name, long timeoutMillis, Consumer consumer) {
+        dispatch(name, timeoutMillis, consumer, null);
+    }
+
+    /**
+     * Starts a consumer's update and returns without waiting for it.
+     *
+     * @param timeoutMillis how long the update may run before it is interrupted
+     * @param onDelivered if not null, run on the dispatcher thread once the update has
+     * returned in time without throwing, and not otherwise
+     */
+    void dispatch(final String name, final long timeoutMillis, final Consumer consumer,
+                  final Runnable onDelivered) {
+        final Stats stats = getStats(name);
+        final long start = SystemClock.elapsedRealtime();
+        // Set by whichever comes first, the update finishing or the watchdog, so an update
+        // the watchdog has given up on is never taken as delivered, and one that has finished,
+        // however it went, is never taken as timed out
+        final AtomicBoolean settled = new AtomicBoolean();
+        final Future<?> future = mExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                boolean failed = false;
+                try {
+                    consumer.update();
+                } catch (Exception e) {
+                    failed = true;
+                    Log.e(LOG_TAG, "Error updating " + name, e);
+                }
+                boolean inTime = settled.compareAndSet(false, true);
+                long millis = SystemClock.elapsedRealtime() - start;
+                stats.record(millis, failed);
+                Log.d(LOG_TAG, "Updated " + name + " in " + millis + "ms (" + stats + ")");
+                if (!failed && inTime && onDelivered != null) {
+                    onDelivered.run();
+                }
+            }
+        });
+        mWatchdog.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (settled.compareAndSet(false, true)) {
+                    future.cancel(true);
+                    stats.recordTimeout();
+                    Log.w(LOG_TAG, "Updating " + name + " took longer than "
+                            + timeoutMillis + "ms, interrupted it");
+                }
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the figures for the named consumer, which are updated as it runs
+     */
+    Stats getStats(String name) {
+        synchronized (mStats) {
+            Stats stats = mStats.get(name);
+            if (stats == null) {
+                stats = new Stats();
+                mStats.put(name, stats);
+            }
+            return stats;
+        }
+    }
+
+    /**
+     * Stops taking work and interrupts anything still running.
+     */
+    void shutdown() {
+        mExecutor.shutdownNow();
+        mWatchdog.shutdownNow();
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decides which of the things that show the preferred location's forecast need to hear
+ * about a sync.
+ *
+ * What each consumer displays is boiled down to a digest of just the fields it shows, and a
+ * consumer is only updated when its digest differs from the one it was last updated with.
+ * Muzei only shows today, so a sync that changes next Thursday leaves it alone; the detail
+ * widget shows every day, so it hears about any change.  A digest is only recorded once the
+ * update has gone through, so an update that fails is tried again after the next sync.
+ * Digests and counts of updates made and suppressed survive the process, in their own
+ * preferences file.
+ *
+ * The notification isn't gated here: it is posted at most once a day whatever the forecast
+ * does, and a digest recorded on a day it declined would hold it back for the rest of the day.
+ */
+class FanOutGate {
+
+    static final String WIDGETS = "widgets";
+    static final String WEARABLES = "wearables";
+    static final String MUZEI = "muzei";
+    static final String[] CONSUMERS = {WIDGETS, WEARABLES, MUZEI};
+
+    private static final String PREFS_NAME = "fan_out";
+    private static final String KEY_DIGEST = ".digest";
+    private static final String KEY_DELIVERED = ".delivered";
+    private static final String KEY_SUPPRESSED = ".suppressed";
+
+    // 64 bit FNV-1a
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final SharedPreferences mPrefs;
+
+    FanOutGate(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Works out what each consumer would show.
+     *
+     * @param forecast the preferred location's forecast; days before today are ignored
+     * @param today today's normalized date
+     * @return a digest for each of {@link #CONSUMERS}
+     */
+    static Map<String, Long> digest(ForecastSnapshot forecast, boolean metric, long today) {
+        String locationSetting = forecast.getLocationSetting();
+        // The widgets show every day, with temperatures in the chosen units
+        long widgets = mix(mix(FNV_OFFSET_BASIS, locationSetting), metric ? 1 : 0);
+        // The watch is sent every day's icon and temperatures, in those units
+        long wearables = mix(FNV_OFFSET_BASIS, metric ? 1 : 0);
+        // Muzei shows art and a title for today's weather at the location
+        long muzei = mix(FNV_OFFSET_BASIS, locationSetting);
+
+        int first = forecast.indexFrom(today);
+        for (int i = first; i < forecast.size(); i++) {
+            long date = forecast.getDate(i);
+            long weatherId = forecast.getWeatherId(i);
+            double high = forecast.getHigh(i);
+            double low = forecast.getLow(i);
+            String description = forecast.getDescription(i);
+
+            widgets = mix(mix(mix(mix(mix(widgets, date), weatherId), high), low), description);
+            wearables = mix(mix(mix(mix(wearables, date), weatherId), high), low);
+            if (i == first && date == today) {
+                muzei = mix(mix(muzei, weatherId), description);
+            }
+        }
+
+        Map<String, Long> digests = new HashMap<String, Long>();
+        digests.put(WIDGETS, widgets);
+        digests.put(WEARABLES, wearables);
+        digests.put(MUZEI, muzei);
+        return digests;
+    }
+
+    /**
+     * @return true if the consumer has not been updated with this digest yet.  Nothing is
+     * recorded but the count of suppressed updates; call {@link #recordDelivered} once the
+     * update has gone through.
+     */
+    boolean shouldUpdate(String consumer, long digest) {
+        String digestKey = consumer + KEY_DIGEST;
+        if (mPrefs.contains(digestKey) && mPrefs.getLong(digestKey, 0) == digest) {
+            String suppressedKey = consumer + KEY_SUPPRESSED;
+            mPrefs.edit().putLong(suppressedKey, mPrefs.getLong(suppressedKey, 0) + 1).apply();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Records that the consumer now shows what the digest stands for, so later syncs that
+     * leave it the same don't update it again.
+     */
+    void recordDelivered(String consumer, long digest) {
+        String deliveredKey = consumer + KEY_DELIVERED;
+        mPrefs.edit()
+                .putLong(consumer + KEY_DIGEST, digest)
+                .putLong(deliveredKey, mPrefs.getLong(deliveredKey, 0) + 1)
+                .apply();
+    }
+
+    /**
+     * @return how many times the consumer has been updated
+     */
+    long getDeliveredCount(String consumer) {
+        return mPrefs.getLong(consumer + KEY_DELIVERED, 0);
+    }
+
+    /**
+     * @return how many times an update to the consumer was skipped because what it shows
+     * hadn't changed
+     */
+    long getSuppressedCount(String consumer) {
+        return mPrefs.getLong(consumer + KEY_SUPPRESSED, 0);
+    }
+
+    /**
+     * Forgets every digest and count, so every consumer is updated after the next sync.
+     */
+    static void clear(Context context) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit().clear().commit();
+    }
+
+    private static long mix(long hash, long value) {
+        for (int i = 0; i < 8; i++) {
+            hash ^= value & 0xff;
+            hash *= FNV_PRIME;
+            value >>>= 8;
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, double value) {
+        return mix(hash, Double.doubleToLongBits(value));
+    }
+
+    private static long mix(long hash, String value) {
+        if (value == null) {
+            return mix(hash, -1L);
+        }
+        hash = mix(hash, (long) value.length());
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+
+/**
+ * Remembers what the last successful sync of each forecast URL looked like, so the next
+ * sync can tell when nothing has changed.
+ *
+ * Two checks are made.  The ETag and Last-Modified validators from the last response are
+ * sent back to the server so it can answer 304 Not Modified without a body.  When the
+ * server doesn't support that, the body is spooled to disk while it is hashed, and if the
+ * hash matches the last payload we parsed there is no need to parse or store it again.
+ *
+ * Dates in the weather table are derived from the day the sync runs on, so an entry is
+ * only ever trusted on the julian day it was recorded, and the sync adapter drops it if the
+ * rows it stored have since gone from the database.
+ */
+class ForecastCache {
+
+    private static final String PREFS_NAME = "forecast_cache";
+    private static final String CACHE_DIR = "forecast";
+
+    private static final String KEY_ETAG = ".etag";
+    private static final String KEY_LAST_MODIFIED = ".last_modified";
+    private static final String KEY_DIGEST = ".digest";
+    private static final String KEY_JULIAN_DAY = ".julian_day";
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * A response body that has been written to the cache directory.
+     */
+    static final class Body {
+        final File file;
+        final String digest;
+        final long length;
+
+        Body(File file, String digest, long length) {
+            this.file = file;
+            this.digest = digest;
+            this.length = length;
+        }
+
+        InputStream open() throws IOException {
+            return new FileInputStream(file);
+        }
+    }
+
+    private final SharedPreferences mPrefs;
+    private final File mDir;
+
+    ForecastCache(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        mDir = new File(context.getCacheDir(), CACHE_DIR);
+    }
+
+    /**
+     * @return a key for the given request URL that is safe to use as a file name.  It is the
+     * URL's SHA-1, so two locations never share validators.
+     */
+    static String keyFor(String url) throws IOException {
+        MessageDigest md = newDigest();
+        return toHex(md.digest(url.getBytes("UTF-8")));
+    }
+
+    /**
+     * Adds the conditional request headers for a previous response, if we have one that
+     * is still valid today.
+     */
+    void addValidators(Map<String, String> requestHeaders, String key, int julianDay) {
+        if (!isCurrent(key, julianDay)) {
+            return;
+        }
+        String etag = mPrefs.getString(key + KEY_ETAG, null);
+        if (etag != null) {
+            requestHeaders.put(HEADER_IF_NONE_MATCH, etag);
+        }
+        String lastModified = mPrefs.getString(key + KEY_LAST_MODIFIED, null);
+        if (lastModified != null) {
+            requestHeaders.put(HEADER_IF_MODIFIED_SINCE, lastModified);
+        }
+    }
+
+    /**
+     * @return true if a 304 Not Modified for this key can be trusted, i.e. the data it
+     * refers to was stored today.
+     */
+    boolean isCurrent(String key, int julianDay) {
+        return mPrefs.getInt(key + KEY_JULIAN_DAY, -1) == julianDay
+                && mPrefs.contains(key + KEY_DIGEST);
+    }
+
+    /**
+     * @return true if the given payload digest is the one we last parsed and stored today
+     */
+    boolean isUnchanged(String key, String digest, int julianDay) {
+        return isCurrent(key, julianDay)
+                && digest.equals(mPrefs.getString(key + KEY_DIGEST, null));
+    }
+
+    /**
+     * Copies the response to the cache directory, hashing it on the way through.
+     * Memory use is bounded by the copy buffer, not by the size of the response.
+     */
+    Body save(String key, InputStream in) throws IOException {
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            throw new IOException("Unable to create " + mDir);
+        }
+
+        MessageDigest md = newDigest();
+        File file = new File(mDir, key);
+        DigestInputStream digestIn = new DigestInputStream(in, md);
+        OutputStream out = new FileOutputStream(file);
+        long length = 0;
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = digestIn.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+                length += count;
+            }
+        } finally {
+            out.close();
+        }
+        return new Body(file, toHex(md.digest()), length);
+    }
+
+    /**
+     * Records a response whose payload is now reflected in the database.  Only its digest is
+     * kept, so the spooled body is deleted.
+     */
+    void commit(String key, WeatherTransport.Response response, String digest, int julianDay) {
+        mPrefs.edit()
+                .putString(key + KEY_ETAG, response.getHeaderField(HEADER_ETAG))
+                .putString(key + KEY_LAST_MODIFIED, response.getHeaderField(HEADER_LAST_MODIFIED))
+                .putString(key + KEY_DIGEST, digest)
+                .putInt(key + KEY_JULIAN_DAY, julianDay)
+                .commit();
+        discard(key);
+    }
+
+    /**
+     * Forgets everything about a key, so the next sync does a full fetch and store.
+     */
+    void invalidate(String key) {
+        mPrefs.edit()
+                .remove(key + KEY_ETAG)
+                .remove(key + KEY_LAST_MODIFIED)
+                .remove(key + KEY_DIGEST)
+                .remove(key + KEY_JULIAN_DAY)
+                .commit();
+        discard(key);
+    }
+
+    /**
+     * Deletes the key's spooled body, if there is one.
+     */
+    void discard(String key) {
+        new File(mDir, key).delete();
+    }
+
+    /**
+     * Forgets every cached response.
+     */
+    static void clear(Context context) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit().clear().commit();
+        File[] files = new File(context.getCacheDir(), CACHE_DIR).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    private static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android device ships SHA-1, but keep the compiler happy.
+            throw new IOException("SHA-1 not available");
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        final char[] HEX = "0123456789abcdef".toCharArray();
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
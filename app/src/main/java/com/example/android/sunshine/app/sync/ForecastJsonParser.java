@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * Token based reader for the OpenWeatherMap daily forecast response.
+ *
+ * Instead of buffering the whole body into a String and building a JSONObject tree,
+ * the stream is walked once and each day is handed to the {@link Listener} as soon as
+ * it has been decoded, so memory use does not grow with the size of the payload.
+ * JsonReader only exists on Honeycomb and above; older devices keep using the
+ * JSONObject path in SunshineSyncAdapter.
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+class ForecastJsonParser {
+
+    // These are the names of the JSON objects that need to be extracted.
+    // They match the ones used by SunshineSyncAdapter.getWeatherDataFromJson.
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+    private static final String OWM_LIST = "list";
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    /**
+     * Values decoded for one forecast day.  A single instance is reused for every day
+     * of a response, so listeners must copy what they need before returning.
+     */
+    static final class ForecastDay {
+        double pressure;
+        int humidity;
+        double windSpeed;
+        double windDirection;
+        double high;
+        double low;
+        String description;
+        int weatherId;
+
+        void clear() {
+            pressure = 0;
+            humidity = 0;
+            windSpeed = 0;
+            windDirection = 0;
+            high = 0;
+            low = 0;
+            description = null;
+            weatherId = 0;
+        }
+    }
+
+    interface Listener {
+        /**
+         * Called when the "cod" field is read.  Returning false stops the parse, which is
+         * what we want for error responses such as 404.
+         */
+        boolean onMessageCode(int code);
+
+        void onCity(String cityName, double latitude, double longitude);
+
+        /**
+         * Called once per element of the "list" array, in order.
+         * @param dayIndex position of the day within the response, 0 being today
+         * @param day the decoded values; only valid for the duration of the call
+         */
+        void onForecastDay(int dayIndex, ForecastDay day);
+    }
+
+    private final Listener mListener;
+    private final ForecastDay mDay = new ForecastDay();
+
+    ForecastJsonParser(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Reads the response from the given stream.  The stream is not closed.
+     * @return the number of forecast days handed to the listener
+     * @throws JSONException if the response is not the JSON we expect
+     */
+    int parse(InputStream in) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            return readForecast(reader);
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            // Report bad payloads the same way the JSONObject path does.
+            throw new JSONException(e.getMessage());
+        }
+    }
+
+    private int readForecast(JsonReader reader) throws IOException, JSONException {
+        int days = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MESSAGE_CODE.equals(name)) {
+                if (!mListener.onMessageCode(reader.nextInt())) {
+                    return days;
+                }
+            } else if (OWM_CITY.equals(name)) {
+                readCity(reader);
+            } else if (OWM_LIST.equals(name)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    readDay(reader);
+                    mListener.onForecastDay(days++, mDay);
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return days;
+    }
+
+    private void readCity(JsonReader reader) throws IOException {
+        String cityName = null;
+        double latitude = 0;
+        double longitude = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coord = reader.nextName();
+                    if (OWM_LATITUDE.equals(coord)) {
+                        latitude = reader.nextDouble();
+                    } else if (OWM_LONGITUDE.equals(coord)) {
+                        longitude = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        mListener.onCity(cityName, latitude, longitude);
+    }
+
+    private void readDay(JsonReader reader) throws IOException, JSONException {
+        mDay.clear();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                mDay.pressure = reader.nextDouble();
+            } else if (OWM_HUMIDITY.equals(name)) {
+                mDay.humidity = (int) reader.nextDouble();
+            } else if (OWM_WINDSPEED.equals(name)) {
+                mDay.windSpeed = reader.nextDouble();
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                mDay.windDirection = reader.nextDouble();
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                // Temperatures are in a child object called "temp".
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String temp = reader.nextName();
+                    if (OWM_MAX.equals(temp)) {
+                        mDay.high = reader.nextDouble();
+                    } else if (OWM_MIN.equals(temp)) {
+                        mDay.low = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // Description is in a child array called "weather", which is 1 element long.
+                reader.beginArray();
+                boolean first = true;
+                while (reader.hasNext()) {
+                    if (first && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                        readWeather(reader);
+                        first = false;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (mDay.description == null) {
+            throw new JSONException("No value for " + OWM_DESCRIPTION);
+        }
+    }
+
+    private void readWeather(JsonReader reader) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_DESCRIPTION.equals(name)) {
+                mDay.description = reader.nextString();
+            } else if (OWM_WEATHER_ID.equals(name)) {
+                mDay.weatherId = reader.nextInt();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Refreshes the forecast for several locations at once.
+ *
+ * Each location is fetched, parsed and written on its own worker, with at most
+ * {@link #MAX_PARALLEL_LOCATIONS} in flight, so a sync takes about as long as its slowest
+ * location rather than the sum of all of them.  The work for a single location is
+ * supplied by the caller through {@link LocationSync}.
+ */
+class ForecastSyncEngine {
+    private static final String LOG_TAG = ForecastSyncEngine.class.getSimpleName();
+
+    // Enough to hide network latency without opening a pile of sockets on a phone
+    static final int MAX_PARALLEL_LOCATIONS = 3;
+
+    /**
+     * One location to refresh.
+     */
+    static final class SyncTarget {
+        // The location setting string, as stored in the location table
+        final String locationSetting;
+        // Optional coordinates from the Place Picker, used instead of the setting if present
+        final String latitude;
+        final String longitude;
+        // The preferred location is the one the UI, widgets, watch and Muzei show
+        final boolean preferred;
+
+        SyncTarget(String locationSetting, String latitude, String longitude, boolean preferred) {
+            this.locationSetting = locationSetting;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.preferred = preferred;
+        }
+
+        @Override
+        public String toString() {
+            return locationSetting + (preferred ? " (preferred)" : "");
+        }
+    }
+
+    interface LocationSync {
+        /**
+         * Fetches and stores the forecast for one location.  Called on a worker thread.
+         * @return true if new forecast rows were written
+         */
+        boolean sync(SyncTarget target);
+    }
+
+    private final int mMaxParallel;
+
+    ForecastSyncEngine() {
+        this(MAX_PARALLEL_LOCATIONS);
+    }
+
+    ForecastSyncEngine(int maxParallel) {
+        mMaxParallel = maxParallel;
+    }
+
+    /**
+     * Refreshes every target and waits for all of them to finish.
+     * @return the targets for which new rows were written
+     */
+    List<SyncTarget> syncAll(List<SyncTarget> targets, final LocationSync locationSync) {
+        List<SyncTarget> changed = new ArrayList<SyncTarget>();
+        if (targets.size() == 1) {
+            // Nothing to overlap, so don't bother with threads
+            try {
+                if (locationSync.sync(targets.get(0))) {
+                    changed.add(targets.get(0));
+                }
+            } catch (RuntimeException e) {
+                // The same as a worker's failure, so the caller sees the same result either way
+                Log.e(LOG_TAG, "Error syncing " + targets.get(0), e);
+            }
+            return changed;
+        }
+
+        ExecutorService executor =
+                Executors.newFixedThreadPool(Math.max(1, Math.min(mMaxParallel, targets.size())));
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>(targets.size());
+            for (final SyncTarget target : targets) {
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return locationSync.sync(target);
+                    }
+                }));
+            }
+            for (int i = 0; i < targets.size(); i++) {
+                try {
+                    if (results.get(i).get()) {
+                        changed.add(targets.get(i));
+                    }
+                } catch (ExecutionException e) {
+                    // One bad location shouldn't stop the others
+                    Log.e(LOG_TAG, "Error syncing " + targets.get(i), e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            // The sync was cancelled; whatever finished is already in the database
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+        return changed;
+    }
+}
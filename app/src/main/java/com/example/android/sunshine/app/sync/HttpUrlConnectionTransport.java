@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * {@link WeatherTransport} on top of the platform HttpURLConnection.
+ *
+ * We ask for gzip ourselves rather than relying on the platform to do it, which means we
+ * also unzip ourselves and can count the bytes on either side.  Responses are finished by
+ * reading the body to the end and closing it instead of calling disconnect(), which lets
+ * HttpURLConnection keep the socket alive for the next request to the same host.
+ */
+class HttpUrlConnectionTransport implements WeatherTransport {
+
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    private static final String ENCODING_GZIP = "gzip";
+
+    private static final int CONNECT_TIMEOUT_MS = 15 * 1000;
+    private static final int READ_TIMEOUT_MS = 30 * 1000;
+
+    private final AtomicLong mBytesOnWire = new AtomicLong();
+    private final AtomicLong mBytesDecoded = new AtomicLong();
+
+    @Override
+    public Response get(URL url, Map<String, String> requestHeaders) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("GET");
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        connection.setRequestProperty(HEADER_ACCEPT_ENCODING, ENCODING_GZIP);
+        for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        }
+        connection.connect();
+        return new HttpResponse(connection);
+    }
+
+    @Override
+    public long getBytesOnWire() {
+        return mBytesOnWire.get();
+    }
+
+    @Override
+    public long getBytesDecoded() {
+        return mBytesDecoded.get();
+    }
+
+    private class HttpResponse implements Response {
+        private final HttpURLConnection mConnection;
+        private InputStream mBody;
+
+        HttpResponse(HttpURLConnection connection) {
+            mConnection = connection;
+        }
+
+        @Override
+        public int getResponseCode() throws IOException {
+            return mConnection.getResponseCode();
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (mBody == null) {
+                InputStream in = new CountingInputStream(mConnection.getInputStream(), mBytesOnWire);
+                if (ENCODING_GZIP.equalsIgnoreCase(mConnection.getHeaderField(HEADER_CONTENT_ENCODING))) {
+                    in = new GZIPInputStream(in);
+                }
+                mBody = new CountingInputStream(in, mBytesDecoded);
+            }
+            return mBody;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                // Reading to the end of the body is what allows the connection to be reused.
+                InputStream body = getBody();
+                byte[] buffer = new byte[1024];
+                while (body.read(buffer) != -1) {
+                    // discard
+                }
+                body.close();
+            } catch (IOException e) {
+                // Error responses have no readable body; don't try to reuse those.
+                mConnection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Adds every byte that passes through to a shared counter.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private final AtomicLong mCounter;
+
+        CountingInputStream(InputStream in, AtomicLong counter) {
+            super(in);
+            mCounter = counter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mCounter.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                mCounter.addAndGet(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            long skipped = super.skip(byteCount);
+            mCounter.addAndGet(skipped);
+            return skipped;
+        }
+    }
+}
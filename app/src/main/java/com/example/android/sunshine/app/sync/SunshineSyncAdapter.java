@@ -3,6 +3,7 @@ package com.example.android.sunshine.app.sync;
 import android.accounts.Account;
 import android.accounts.AccountManager;
 import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
@@ -36,8 +37,11 @@ import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+import com.example.android.sunshine.app.data.ForecastSnapshotCache;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
+import com.example.android.sunshine.shared.ForecastPayload;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.PendingResult;
@@ -64,6 +68,10 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Vector;
 import java.util.concurrent.ExecutionException;
 
@@ -80,21 +88,21 @@ implements DataApi.DataListener {
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
 
+    // How long each post-sync update may take before it is interrupted.  The notification
+    // waits on its artwork from the network; when that runs out it uses the bundled art.
+    private static final long WIDGETS_TIMEOUT_MILLIS = 1000;
+    private static final long WEARABLES_TIMEOUT_MILLIS = 5000;
+    private static final long MUZEI_TIMEOUT_MILLIS = 1000;
+    private static final long NOTIFICATION_TIMEOUT_MILLIS = 10000;
+    // The name the notification's runs are logged under; it isn't one of the gate's consumers
+    private static final String NOTIFICATION = "notification";
 
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
     private final SunshineSyncAdapter mSunshineSyncAdapter;
     private GoogleApiClient mGoogleApiClient;
+    private WeatherTransport mTransport = new HttpUrlConnectionTransport();
+    private final ForecastSyncEngine mSyncEngine = new ForecastSyncEngine();
+    private final FanOutGate mFanOutGate;
+    private final FanOutDispatcher mFanOutDispatcher = new FanOutDispatcher();
 
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID,  LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
@@ -110,6 +118,7 @@ implements DataApi.DataListener {
         super(context, autoInitialize);
         // set up GoogleApiClient to communicate with the watchface
         mSunshineSyncAdapter = this;
+        mFanOutGate = new FanOutGate(context);
         mGoogleApiClient = new GoogleApiClient.Builder(context)
                 .addConnectionCallbacks(new GoogleApiClient.ConnectionCallbacks() {
                     @Override
@@ -139,16 +148,170 @@ implements DataApi.DataListener {
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
 
+        Context context = getContext();
+        final ForecastCache forecastCache = new ForecastCache(context);
+        final int julianStartDay = getJulianStartDay();
+        long bytesOnWire = mTransport.getBytesOnWire();
+        long bytesDecoded = mTransport.getBytesDecoded();
+
+        // Refresh the preferred location and every other stored one side by side
+        List<ForecastSyncEngine.SyncTarget> changed = mSyncEngine.syncAll(getSyncTargets(context),
+                new ForecastSyncEngine.LocationSync() {
+                    @Override
+                    public boolean sync(ForecastSyncEngine.SyncTarget target) {
+                        return syncLocation(target, forecastCache, julianStartDay);
+                    }
+                });
+
+        // Everything we push out shows the preferred location only.  This runs even if
+        // nothing was downloaded, since what the consumers show can also change with the
+        // units setting or the day.
+        fanOut(context);
+
+        Log.d(LOG_TAG, "Sync Complete. " + changed.size() + " locations changed. Transferred "
+                + (mTransport.getBytesOnWire() - bytesOnWire) + " bytes ("
+                + (mTransport.getBytesDecoded() - bytesDecoded) + " decoded)");
+    }
+
+    /**
+     * Updates the widgets, the watch and Muzei, but only those for which what they show of
+     * the preferred location's forecast has changed since they were last updated, and offers
+     * the notification today's forecast.  The forecast is read once, here, and the updates run on the fan-out
+     * dispatcher, so the sync doesn't wait for them.  Reading it builds the snapshot that the
+     * widgets and Muzei will then find in memory.
+     */
+    private void fanOut(Context context) {
+        final ForecastSnapshot forecast = ForecastSnapshotCache.getInstance().get(context,
+                Utility.getPreferredLocation(context));
+        if (forecast == null) {
+            return;
+        }
+        final long todayDate = WeatherContract.normalizeDate(System.currentTimeMillis());
+        Map<String, Long> digests = FanOutGate.digest(forecast, Utility.isMetric(context),
+                todayDate);
+        final TodayForecast today = TodayForecast.from(forecast, todayDate);
+
+        final long widgetsDigest = digests.get(FanOutGate.WIDGETS);
+        if (mFanOutGate.shouldUpdate(FanOutGate.WIDGETS, widgetsDigest)) {
+            mFanOutDispatcher.dispatch(FanOutGate.WIDGETS, WIDGETS_TIMEOUT_MILLIS,
+                    new FanOutDispatcher.Consumer() {
+                        @Override
+                        public void update() {
+                            updateWidgets();
+                        }
+                    }, recordDelivered(FanOutGate.WIDGETS, widgetsDigest));
+        }
+        // The watch and the notification show today, so there's nothing to send without it
+        // The watch's update only goes through once the data layer has taken the item, which
+        // is after update() returns, so its digest is recorded from the put's result
+        final long wearablesDigest = digests.get(FanOutGate.WEARABLES);
+        if (today != null && mFanOutGate.shouldUpdate(FanOutGate.WEARABLES, wearablesDigest)) {
+            mFanOutDispatcher.dispatch(FanOutGate.WEARABLES, WEARABLES_TIMEOUT_MILLIS,
+                    new FanOutDispatcher.Consumer() {
+                        @Override
+                        public void update() {
+                            updateWearables(forecast, todayDate, null,
+                                    recordDelivered(FanOutGate.WEARABLES, wearablesDigest));
+                        }
+                    });
+        }
+        final long muzeiDigest = digests.get(FanOutGate.MUZEI);
+        if (mFanOutGate.shouldUpdate(FanOutGate.MUZEI, muzeiDigest)) {
+            mFanOutDispatcher.dispatch(FanOutGate.MUZEI, MUZEI_TIMEOUT_MILLIS,
+                    new FanOutDispatcher.Consumer() {
+                        @Override
+                        public void update() {
+                            updateMuzei();
+                        }
+                    }, recordDelivered(FanOutGate.MUZEI, muzeiDigest));
+        }
+        // notifyWeather keeps to one notification a day by itself
+        if (today != null) {
+            mFanOutDispatcher.dispatch(NOTIFICATION, NOTIFICATION_TIMEOUT_MILLIS,
+                    new FanOutDispatcher.Consumer() {
+                        @Override
+                        public void update() {
+                            notifyWeather(today);
+                        }
+                    });
+        }
+
+        StringBuilder counts = new StringBuilder("Fan-out updates made/suppressed:");
+        for (String consumer : FanOutGate.CONSUMERS) {
+            counts.append(' ').append(consumer).append(' ')
+                    .append(mFanOutGate.getDeliveredCount(consumer)).append('/')
+                    .append(mFanOutGate.getSuppressedCount(consumer));
+        }
+        Log.d(LOG_TAG, counts.toString());
+    }
+
+    /**
+     * @return what to run once the consumer's update has gone through
+     */
+    private Runnable recordDelivered(final String consumer, final long digest) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                mFanOutGate.recordDelivered(consumer, digest);
+            }
+        };
+    }
+
+    /**
+     * @return the preferred location, followed by every other location stored in the
+     * location table
+     */
+    private static List<ForecastSyncEngine.SyncTarget> getSyncTargets(Context context) {
+        List<ForecastSyncEngine.SyncTarget> targets = new ArrayList<ForecastSyncEngine.SyncTarget>();
+
         // We no longer need just the location String, but also potentially the latitude and
         // longitude, in case we are syncing based on a new Place Picker API result.
-        Context context = getContext();
         String locationQuery = Utility.getPreferredLocation(context);
-        String locationLatitude = String.valueOf(Utility.getLocationLatitude(context));
-        String locationLongitude = String.valueOf(Utility.getLocationLongitude(context));
+        if (Utility.isLocationLatLonAvailable(context)) {
+            targets.add(new ForecastSyncEngine.SyncTarget(locationQuery,
+                    String.valueOf(Utility.getLocationLatitude(context)),
+                    String.valueOf(Utility.getLocationLongitude(context)),
+                    true));
+        } else {
+            targets.add(new ForecastSyncEngine.SyncTarget(locationQuery, null, null, true));
+        }
+
+        // The others are fetched by the coordinates the API gave us for them last time, since
+        // a Place Picker address isn't something the API can look up by name
+        Cursor locationCursor = context.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                        WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+                        WeatherContract.LocationEntry.COLUMN_COORD_LONG},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " != ?",
+                new String[]{locationQuery},
+                null);
+        if (locationCursor != null) {
+            try {
+                while (locationCursor.moveToNext()) {
+                    targets.add(new ForecastSyncEngine.SyncTarget(locationCursor.getString(0),
+                            locationCursor.getString(1), locationCursor.getString(2), false));
+                }
+            } finally {
+                locationCursor.close();
+            }
+        }
+        return targets;
+    }
+
+    /**
+     * Fetches the forecast for one location and writes it to the weather table.
+     * Runs on one of the sync engine's workers.
+     *
+     * @return true if new rows were written for this location
+     */
+    private boolean syncLocation(ForecastSyncEngine.SyncTarget target,
+                                 ForecastCache forecastCache, int julianStartDay) {
+        String locationQuery = target.locationSetting;
 
         // These two need to be declared outside the try/catch
         // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
+        WeatherTransport.Response response = null;
         BufferedReader reader = null;
 
         // Will contain the raw JSON response as a string.
@@ -180,9 +343,9 @@ implements DataApi.DataListener {
             // if we have a lat/lon to work with, and use those when we do. Otherwise, the weather
             // service may not understand the location address provided by the Place Picker API
             // and the user could end up with no weather! The horror!
-            if (Utility.isLocationLatLonAvailable(context)) {
-                uriBuilder.appendQueryParameter(LAT_PARAM, locationLatitude)
-                        .appendQueryParameter(LON_PARAM, locationLongitude);
+            if (target.latitude != null && target.longitude != null) {
+                uriBuilder.appendQueryParameter(LAT_PARAM, target.latitude)
+                        .appendQueryParameter(LON_PARAM, target.longitude);
             } else {
                 uriBuilder.appendQueryParameter(QUERY_PARAM, locationQuery);
             }
@@ -194,48 +357,101 @@ implements DataApi.DataListener {
                     .build();
 
             URL url = new URL(builtUri.toString());
+            String cacheKey = ForecastCache.keyFor(builtUri.toString());
+
+            // The cache only vouches for rows we stored.  If they've gone, because the
+            // database was rebuilt or cleared, a 304 or a matching digest means nothing.
+            if (!hasStoredForecast(target, julianStartDay)) {
+                forecastCache.invalidate(cacheKey);
+            }
+
+            // Give the server a chance to tell us nothing changed since the last sync
+            Map<String, String> requestHeaders = new HashMap<String, String>();
+            forecastCache.addValidators(requestHeaders, cacheKey, julianStartDay);
 
             // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
+            response = mTransport.get(url, requestHeaders);
+
+            if (response.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED
+                    && forecastCache.isCurrent(cacheKey, julianStartDay)) {
+                Log.d(LOG_TAG, "Forecast for " + target + " not modified");
+                setLocationStatus(target, LOCATION_STATUS_OK);
+                return false;
+            }
 
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
+            InputStream inputStream = response.getBody();
             if (inputStream == null) {
                 // Nothing to do.
-                return;
-            }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
+                return false;
             }
 
-            if (buffer.length() == 0) {
+            // Spool the response to disk, hashing it as it goes by.  If it is the same
+            // payload we stored earlier today there's nothing to parse, store or announce.
+            ForecastCache.Body body = forecastCache.save(cacheKey, inputStream);
+            if (body.length == 0) {
                 // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
+                forecastCache.discard(cacheKey);
+                setLocationStatus(target, LOCATION_STATUS_SERVER_DOWN);
+                return false;
+            }
+            if (forecastCache.isUnchanged(cacheKey, body.digest, julianStartDay)) {
+                forecastCache.commit(cacheKey, response, body.digest, julianStartDay);
+                Log.d(LOG_TAG, "Forecast for " + target + " unchanged");
+                setLocationStatus(target, LOCATION_STATUS_OK);
+                return false;
+            }
+
+            boolean stored;
+            // Where we can, decode the forecast as a stream rather than holding
+            // the whole response (and a JSONObject tree of it) in memory.
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                InputStream bodyStream = body.open();
+                try {
+                    stored = getWeatherDataFromStream(bodyStream, target, julianStartDay);
+                } finally {
+                    bodyStream.close();
+                }
+            } else {
+                // Read the input stream into a String
+                StringBuilder buffer = new StringBuilder();
+                reader = new BufferedReader(new InputStreamReader(body.open()));
+
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
+                    // But it does make debugging a *lot* easier if you print out the completed
+                    // buffer for debugging.
+                    buffer.append(line).append('\n');
+                }
+                forecastJsonStr = buffer.toString();
+                stored = getWeatherDataFromJson(forecastJsonStr, target, julianStartDay);
+            }
+
+            if (stored) {
+                forecastCache.commit(cacheKey, response, body.digest, julianStartDay);
+            } else {
+                forecastCache.invalidate(cacheKey);
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
+            return stored;
         } catch (IOException e) {
             Log.e(LOG_TAG, "Error ", e);
             // If the code didn't successfully get the weather data, there's no point in attempting
             // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+            setLocationStatus(target, LOCATION_STATUS_SERVER_DOWN);
+            return false;
         } catch (JSONException e) {
             Log.e(LOG_TAG, e.getMessage(), e);
             e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            setLocationStatus(target, LOCATION_STATUS_SERVER_INVALID);
+            return false;
         } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+            if (response != null) {
+                // Closing, rather than disconnecting, lets the connection be reused
+                try {
+                    response.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing response", e);
+                }
             }
             if (reader != null) {
                 try {
@@ -245,7 +461,14 @@ implements DataApi.DataListener {
                 }
             }
         }
-        return;
+    }
+
+    /**
+     * Replaces the HTTP stack used to talk to the weather service, e.g. to point the sync
+     * at a local stand-in server.
+     */
+    void setTransport(WeatherTransport transport) {
+        mTransport = transport;
     }
 
     /**
@@ -254,9 +477,12 @@ implements DataApi.DataListener {
      *
      * Fortunately parsing is easy:  constructor takes the JSON string and converts it
      * into an Object hierarchy for us.
+     *
+     * @return true if the forecast made it into the database
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
+    private boolean getWeatherDataFromJson(String forecastJsonStr,
+                                           ForecastSyncEngine.SyncTarget target,
+                                           int julianStartDay)
             throws JSONException {
 
         // Now we have a String representing the complete forecast in JSON Format.
@@ -305,11 +531,11 @@ implements DataApi.DataListener {
                     case HttpURLConnection.HTTP_OK:
                         break;
                     case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
+                        setLocationStatus(target, LOCATION_STATUS_INVALID);
+                        return false;
                     default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+                        setLocationStatus(target, LOCATION_STATUS_SERVER_DOWN);
+                        return false;
                 }
             }
 
@@ -322,7 +548,7 @@ implements DataApi.DataListener {
             double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
             double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
 
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
+            long locationId = addLocation(target.locationSetting, cityName, cityLatitude, cityLongitude);
 
             // Insert the new weather information into the database
             Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
@@ -333,16 +559,10 @@ implements DataApi.DataListener {
 
             // Since this data is also sent in-order and the first day is always the
             // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
-
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+            // normalized UTC date for all of our weather (see getJulianStartDay).
 
             // now we work exclusively in UTC
-            dayTime = new Time();
+            Time dayTime = new Time();
 
             for(int i = 0; i < weatherArray.length(); i++) {
                 // These are the values that will be collected.
@@ -398,30 +618,161 @@ implements DataApi.DataListener {
                 cVVector.add(weatherValues);
             }
 
-            int inserted = 0;
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
-
-                updateWidgets();
-                updateWearables(null);
-                updateMuzei();
-                notifyWeather();
-            }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
+            storeWeatherData(cVVector, target, julianStartDay);
+            return true;
 
         } catch (JSONException e) {
             Log.e(LOG_TAG, e.getMessage(), e);
             e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            setLocationStatus(target, LOCATION_STATUS_SERVER_INVALID);
+            return false;
+        }
+    }
+
+    /**
+     * Streaming counterpart of getWeatherDataFromJson.  The response is decoded token by
+     * token and every day becomes a ContentValues row as soon as it has been read, so we
+     * never hold the raw body or a JSONObject tree of it.
+     *
+     * @return true if the forecast made it into the database
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private boolean getWeatherDataFromStream(InputStream inputStream,
+                                             ForecastSyncEngine.SyncTarget target,
+                                             int julianStartDay)
+            throws IOException {
+        StreamingForecastListener listener =
+                new StreamingForecastListener(target, julianStartDay);
+        try {
+            new ForecastJsonParser(listener).parse(inputStream);
+            if (listener.mStopped) {
+                // the server told us about an error, and the location status is already set
+                return false;
+            }
+            if (listener.mLocationId == -1) {
+                throw new JSONException("No value for city");
+            }
+            storeWeatherData(listener.mRows, target, julianStartDay);
+            return true;
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            setLocationStatus(target, LOCATION_STATUS_SERVER_INVALID);
+            return false;
+        }
+    }
+
+    /**
+     * OWM returns daily forecasts based upon the local time of the city that is being
+     * asked for, and the first day is always the current day.  We start at the day
+     * returned by local time.  Otherwise this is a mess.
+     */
+    private static int getJulianStartDay() {
+        Time dayTime = new Time();
+        dayTime.setToNow();
+        return Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+    }
+
+    /**
+     * Turns the days decoded by {@link ForecastJsonParser} into rows for the weather table.
+     */
+    private class StreamingForecastListener implements ForecastJsonParser.Listener {
+        final ForecastSyncEngine.SyncTarget mTarget;
+        final int mJulianStartDay;
+        // now we work exclusively in UTC
+        final Time mDayTime = new Time();
+        final Vector<ContentValues> mRows = new Vector<ContentValues>();
+        long mLocationId = -1;
+        boolean mStopped;
+
+        StreamingForecastListener(ForecastSyncEngine.SyncTarget target, int julianStartDay) {
+            mTarget = target;
+            mJulianStartDay = julianStartDay;
+        }
+
+        @Override
+        public boolean onMessageCode(int code) {
+            switch (code) {
+                case HttpURLConnection.HTTP_OK:
+                    return true;
+                case HttpURLConnection.HTTP_NOT_FOUND:
+                    setLocationStatus(mTarget, LOCATION_STATUS_INVALID);
+                    break;
+                default:
+                    setLocationStatus(mTarget, LOCATION_STATUS_SERVER_DOWN);
+                    break;
+            }
+            mStopped = true;
+            return false;
+        }
+
+        @Override
+        public void onCity(String cityName, double latitude, double longitude) {
+            mLocationId = addLocation(mTarget.locationSetting, cityName, latitude, longitude);
+            // OWM sends the city first, but don't depend on it
+            for (ContentValues row : mRows) {
+                row.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, mLocationId);
+            }
+        }
+
+        @Override
+        public void onForecastDay(int dayIndex, ForecastJsonParser.ForecastDay day) {
+            ContentValues weatherValues = new ContentValues();
+
+            if (mLocationId != -1) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, mLocationId);
+            }
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    mDayTime.setJulianDay(mJulianStartDay + dayIndex));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, day.humidity);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, day.pressure);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, day.windSpeed);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, day.windDirection);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, day.high);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, day.low);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, day.description);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, day.weatherId);
+
+            mRows.add(weatherValues);
+        }
+    }
+
+    /**
+     * Writes one location's parsed forecast to the provider.  bulkInsert runs the whole
+     * batch in a single transaction, so readers never see a half written forecast, and
+     * drops every location's days from before today in the same transaction, so we don't
+     * build up an endless history, even of places the user has moved on from, and observers
+     * reload once.
+     */
+    private void storeWeatherData(Vector<ContentValues> cVVector,
+                                  ForecastSyncEngine.SyncTarget target, int julianStartDay) {
+        // add to database
+        if ( cVVector.size() > 0 ) {
+            ContentValues[] cvArray = new ContentValues[cVVector.size()];
+            cVVector.toArray(cvArray);
+            getContext().getContentResolver().bulkInsert(
+                    WeatherContract.WeatherEntry.buildWeatherLocationReplace(
+                            target.locationSetting, new Time().setJulianDay(julianStartDay)),
+                    cvArray);
+        }
+        Log.d(LOG_TAG, "Sync of " + target + " complete. " + cVVector.size() + " Inserted");
+        setLocationStatus(target, LOCATION_STATUS_OK);
+    }
+
+    /**
+     * @return true if the weather table holds the target's forecast from the given day on
+     */
+    private boolean hasStoredForecast(ForecastSyncEngine.SyncTarget target, int julianStartDay) {
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        target.locationSetting, new Time().setJulianDay(julianStartDay)),
+                new String[]{WeatherContract.WeatherEntry._ID}, null, null, null);
+        if (cursor == null) {
+            return false;
+        }
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
         }
     }
 
@@ -447,63 +798,72 @@ implements DataApi.DataListener {
                 DataItem item = event.getDataItem();
                 if (item.getUri().getPath().compareTo("/watch_bump") == 0) {
                     DataMap dataMap = DataMapItem.fromDataItem(item).getDataMap();
+                    final String different = dataMap.getString(DATE_KEY);
                     Log.d(LOG_TAG,
                             "onDataChanged data ('"
-                                    + dataMap.getString(DATE_KEY)
+                                    + different
                                     + "')");
-                    updateWearables(dataMap.getString(DATE_KEY));
+                    // This arrives on the main thread, so read the forecast on the dispatcher
+                    mFanOutDispatcher.dispatch(FanOutGate.WEARABLES, WEARABLES_TIMEOUT_MILLIS,
+                            new FanOutDispatcher.Consumer() {
+                                @Override
+                                public void update() {
+                                    Context context = getContext();
+                                    ForecastSnapshot forecast = ForecastSnapshotCache
+                                            .getInstance().get(context,
+                                                    Utility.getPreferredLocation(context));
+                                    long todayDate = WeatherContract.normalizeDate(
+                                            System.currentTimeMillis());
+                                    if (forecast != null && forecast.indexOf(todayDate) >= 0) {
+                                        updateWearables(forecast, todayDate, different, null);
+                                    }
+                                }
+                            });
                 }
             }
         }
     }
 
-    private void updateWearables(String different) {
-        Context context = getContext();
-        String locationQuery = Utility.getPreferredLocation(context);
-
-        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-        // we'll query our contentProvider, as always
-        Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-        if (cursor.moveToFirst()) {
-            int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-            double high = cursor.getDouble(INDEX_MAX_TEMP);
-            double low = cursor.getDouble(INDEX_MIN_TEMP);
-
-            Log.d(LOG_TAG,
-                    "updateWearables data (weather id "
-                            + weatherId
-                            + ", low "
-                            + low
-                            + ", high "
-                            + high
-                            + ", different "
-                            + different
-                            + ")");
-
-            PutDataMapRequest dataMapRequest = PutDataMapRequest.create("/wx");
-            DataMap dataMap = dataMapRequest.getDataMap();
-            dataMap.putInt(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-            dataMap.putString(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-                    Utility.formatTemperature(context, high));
-            dataMap.putString(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-                    Utility.formatTemperature(context, low));
-            if (different != null) {
-                dataMap.putString("different", different);
-            }
-            PutDataRequest dataRequest = dataMapRequest.asPutDataRequest()
-                    .setUrgent();
-            PendingResult<DataApi.DataItemResult> pendingResult =
-                     Wearable.DataApi.putDataItem(mGoogleApiClient, dataRequest);
-            Log.d(LOG_TAG, "updateWearables pendingResult: " + pendingResult);
-            pendingResult.setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
-                @Override
-                public void onResult(@NonNull DataApi.DataItemResult dataItemResult) {
-                    Log.d(LOG_TAG, "onResult: " + dataItemResult.getDataItem());
-                }
-            });
+    /**
+     * Sends the watch every day of the forecast from today on, so it can move on to the next
+     * day by itself.
+     * @param onPut run once the data layer has accepted the item, or null
+     */
+    private void updateWearables(ForecastSnapshot forecast, long todayDate, String different,
+                                 @Nullable final Runnable onPut) {
+        ForecastPayload payload = WearablePayload.from(forecast, todayDate,
+                Utility.isMetric(getContext()), System.currentTimeMillis());
+        byte[] bytes = payload.toBytes();
+
+        Log.d(LOG_TAG,
+                "updateWearables data ("
+                        + payload
+                        + ", "
+                        + bytes.length
+                        + " bytes, different "
+                        + different
+                        + ")");
+
+        PutDataMapRequest dataMapRequest = PutDataMapRequest.create("/wx");
+        DataMap dataMap = dataMapRequest.getDataMap();
+        dataMap.putByteArray(WearablePayload.KEY_FORECAST, bytes);
+        if (different != null) {
+            dataMap.putString("different", different);
         }
+        PutDataRequest dataRequest = dataMapRequest.asPutDataRequest()
+                .setUrgent();
+        PendingResult<DataApi.DataItemResult> pendingResult =
+                 Wearable.DataApi.putDataItem(mGoogleApiClient, dataRequest);
+        Log.d(LOG_TAG, "updateWearables pendingResult: " + pendingResult);
+        pendingResult.setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
+            @Override
+            public void onResult(@NonNull DataApi.DataItemResult dataItemResult) {
+                Log.d(LOG_TAG, "onResult: " + dataItemResult.getDataItem());
+                if (onPut != null && dataItemResult.getStatus().isSuccess()) {
+                    onPut.run();
+                }
+            }
+        });
     }
 
     private void updateWidgets() {
@@ -524,7 +884,7 @@ implements DataApi.DataListener {
         }
     }
 
-    private void notifyWeather() {
+    private void notifyWeather(TodayForecast today) {
         Context context = getContext();
         //checking the last update and notify if it' the first of the day
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
@@ -539,94 +899,84 @@ implements DataApi.DataListener {
 
             if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
                 // Last sync was more than 1 day ago, let's send a notification with the weather.
-                String locationQuery = Utility.getPreferredLocation(context);
-
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
-
-                    int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
-                    Resources resources = context.getResources();
-                    int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-                    String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
-
-                    // On Honeycomb and higher devices, we can retrieve the size of the large icon
-                    // Prior to that, we use a fixed size
-                    @SuppressLint("InlinedApi")
-                    int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-                    @SuppressLint("InlinedApi")
-                    int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-
-                    // Retrieve the large icon
-                    Bitmap largeIcon;
-                    try {
-                        largeIcon = Glide.with(context)
-                                .load(artUrl)
-                                .asBitmap()
-                                .error(artResourceId)
-                                .fitCenter()
-                                .into(largeIconWidth, largeIconHeight).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
-                        largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
-                    }
-                    String title = context.getString(R.string.app_name);
-
-                    // Define the text of the forecast.
-                    String contentText = String.format(context.getString(R.string.format_notification),
-                            desc,
-                            Utility.formatTemperature(context, high),
-                            Utility.formatTemperature(context, low));
-
-                    // NotificationCompatBuilder is a very convenient way to build backward-compatible
-                    // notifications.  Just throw in some data.
-                    NotificationCompat.Builder mBuilder =
-                            new NotificationCompat.Builder(getContext())
-                                    .setColor(resources.getColor(R.color.primary_light))
-                                    .setSmallIcon(iconId)
-                                    .setLargeIcon(largeIcon)
-                                    .setContentTitle(title)
-                                    .setContentText(contentText);
-
-                    // Make something interesting happen when the user clicks on the notification.
-                    // In this case, opening the app is sufficient.
-                    Intent resultIntent = new Intent(context, MainActivity.class);
-
-                    // The stack builder object will contain an artificial back stack for the
-                    // started Activity.
-                    // This ensures that navigating backward from the Activity leads out of
-                    // your application to the Home screen.
-                    TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
-                    stackBuilder.addNextIntent(resultIntent);
-                    PendingIntent resultPendingIntent =
-                            stackBuilder.getPendingIntent(
-                                    0,
-                                    PendingIntent.FLAG_UPDATE_CURRENT
-                            );
-                    mBuilder.setContentIntent(resultPendingIntent);
-
-                    NotificationManager mNotificationManager =
-                            (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
-                    // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
-                    mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
-
-                    //refreshing last sync
-                    SharedPreferences.Editor editor = prefs.edit();
-                    editor.putLong(lastNotificationKey, System.currentTimeMillis());
-                    editor.commit();
+                int weatherId = today.weatherId;
+                double high = today.high;
+                double low = today.low;
+                String desc = today.description;
+
+                int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
+                Resources resources = context.getResources();
+                int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
+                String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
+
+                // On Honeycomb and higher devices, we can retrieve the size of the large icon
+                // Prior to that, we use a fixed size
+                @SuppressLint("InlinedApi")
+                int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                        ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
+                        : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+                @SuppressLint("InlinedApi")
+                int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                        ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
+                        : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+
+                // Retrieve the large icon
+                Bitmap largeIcon;
+                try {
+                    largeIcon = Glide.with(context)
+                            .load(artUrl)
+                            .asBitmap()
+                            .error(artResourceId)
+                            .fitCenter()
+                            .into(largeIconWidth, largeIconHeight).get();
+                } catch (InterruptedException | ExecutionException e) {
+                    Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
+                    largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
                 }
-                cursor.close();
+                String title = context.getString(R.string.app_name);
+
+                // Define the text of the forecast.
+                String contentText = String.format(context.getString(R.string.format_notification),
+                        desc,
+                        Utility.formatTemperature(context, high),
+                        Utility.formatTemperature(context, low));
+
+                // NotificationCompatBuilder is a very convenient way to build backward-compatible
+                // notifications.  Just throw in some data.
+                NotificationCompat.Builder mBuilder =
+                        new NotificationCompat.Builder(getContext())
+                                .setColor(resources.getColor(R.color.primary_light))
+                                .setSmallIcon(iconId)
+                                .setLargeIcon(largeIcon)
+                                .setContentTitle(title)
+                                .setContentText(contentText);
+
+                // Make something interesting happen when the user clicks on the notification.
+                // In this case, opening the app is sufficient.
+                Intent resultIntent = new Intent(context, MainActivity.class);
+
+                // The stack builder object will contain an artificial back stack for the
+                // started Activity.
+                // This ensures that navigating backward from the Activity leads out of
+                // your application to the Home screen.
+                TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
+                stackBuilder.addNextIntent(resultIntent);
+                PendingIntent resultPendingIntent =
+                        stackBuilder.getPendingIntent(
+                                0,
+                                PendingIntent.FLAG_UPDATE_CURRENT
+                        );
+                mBuilder.setContentIntent(resultPendingIntent);
+
+                NotificationManager mNotificationManager =
+                        (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
+                // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
+                mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
+
+                //refreshing last sync
+                SharedPreferences.Editor editor = prefs.edit();
+                editor.putLong(lastNotificationKey, System.currentTimeMillis());
+                editor.commit();
             }
         }
     }
@@ -772,6 +1122,16 @@ implements DataApi.DataListener {
         getSyncAccount(context);
     }
 
+    /**
+     * Only the preferred location has a status; the UI has nothing to say about any other.
+     */
+    private void setLocationStatus(ForecastSyncEngine.SyncTarget target,
+                                   @LocationStatus int locationStatus) {
+        if (target.preferred) {
+            setLocationStatus(getContext(), locationStatus);
+        }
+    }
+
     /**
      * Sets the location status into shared preference.  This function should not be called from
      * the UI thread because it uses commit to write to the shared preferences.
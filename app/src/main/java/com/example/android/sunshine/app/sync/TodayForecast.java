@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+
+/**
+ * Today's forecast for the preferred location, taken once after a sync and handed to every
+ * consumer that shows it, so none of them has to look it up again.  Immutable, so
+ * it can be shared between the fan-out threads.
+ */
+final class TodayForecast {
+    final String locationSetting;
+    final long date;
+    final int weatherId;
+    final double high;
+    final double low;
+    final String description;
+
+    TodayForecast(String locationSetting, long date, int weatherId, double high, double low,
+                  String description) {
+        this.locationSetting = locationSetting;
+        this.date = date;
+        this.weatherId = weatherId;
+        this.high = high;
+        this.low = low;
+        this.description = description;
+    }
+
+    /**
+     * @param today today's normalized date
+     * @return today's day of the forecast, or null if the forecast doesn't have one
+     */
+    static TodayForecast from(ForecastSnapshot forecast, long today) {
+        int index = forecast.indexOf(today);
+        if (index < 0) {
+            return null;
+        }
+        return new TodayForecast(forecast.getLocationSetting(), today,
+                forecast.getWeatherId(index),
+                forecast.getHigh(index),
+                forecast.getLow(index),
+                forecast.getDescription(index));
+    }
+
+    @Override
+    public String toString() {
+        return locationSetting + " " + date + ": " + description + " (" + weatherId + ") "
+                + high + "/" + low;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+import com.example.android.sunshine.shared.ForecastPayload;
+
+import java.util.TimeZone;
+
+/**
+ * Builds the forecast sent to the watch on /wx from the preferred location's snapshot.
+ */
+final class WearablePayload {
+
+    /**
+     * The DataMap key the encoded {@link ForecastPayload} is sent under.
+     */
+    static final String KEY_FORECAST = "forecast";
+
+    private WearablePayload() {
+    }
+
+    /**
+     * @param today today's normalized date; days before it aren't sent
+     * @param metric whether the temperatures are to be in Celsius
+     * @param now when the payload is being sent
+     */
+    static ForecastPayload from(ForecastSnapshot forecast, long today, boolean metric,
+                                long now) {
+        int first = forecast.indexFrom(today);
+        int count = Math.min(forecast.size() - first, ForecastPayload.MAX_DAYS);
+        int[] julianDays = new int[count];
+        int[] weatherIds = new int[count];
+        double[] highs = new double[count];
+        double[] lows = new double[count];
+        TimeZone zone = TimeZone.getDefault();
+        for (int i = 0; i < count; i++) {
+            long date = forecast.getDate(first + i);
+            julianDays[i] = Time.getJulianDay(date, zone.getOffset(date) / 1000);
+            weatherIds[i] = forecast.getWeatherId(first + i);
+            highs[i] = inUnits(forecast.getHigh(first + i), metric);
+            lows[i] = inUnits(forecast.getLow(first + i), metric);
+        }
+        return new ForecastPayload(metric, now, julianDays, weatherIds, highs, lows);
+    }
+
+    // Data is stored in Celsius, as in Utility.formatTemperature
+    private static double inUnits(double celsius, boolean metric) {
+        return metric ? celsius : (celsius * 1.8) + 32;
+    }
+}
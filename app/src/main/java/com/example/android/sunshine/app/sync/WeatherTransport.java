@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * How the sync adapter talks to the weather service.  Kept behind an interface so the
+ * sync can be pointed at a local stand-in server, or at a different HTTP stack, without
+ * touching the parsing and storage code.
+ */
+interface WeatherTransport {
+
+    /**
+     * The answer to a GET.  Always close it, even if the body was never read, so the
+     * underlying connection can be handed back for reuse.
+     */
+    interface Response extends Closeable {
+        int getResponseCode() throws IOException;
+
+        /**
+         * @return the named response header, or null if the server didn't send it
+         */
+        String getHeaderField(String name);
+
+        /**
+         * @return the decoded response body.  Any transfer compression has already
+         * been undone.
+         */
+        InputStream getBody() throws IOException;
+    }
+
+    /**
+     * Issues a GET for the given URL.
+     * @param requestHeaders extra headers to send, e.g. for conditional requests.  May be empty.
+     */
+    Response get(URL url, Map<String, String> requestHeaders) throws IOException;
+
+    /**
+     * @return the number of body bytes received from the network so far
+     */
+    long getBytesOnWire();
+
+    /**
+     * @return the number of body bytes handed to callers so far, after decompression
+     */
+    long getBytesDecoded();
+}
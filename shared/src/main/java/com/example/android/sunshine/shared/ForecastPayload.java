@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.shared;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * The forecast the phone sends the watch: every day from today on, packed into a few bytes a
+ * day, so the watch can move on to the next day at midnight without asking the phone.
+ *
+ * Days are identified by julian day, which is the same calendar day whatever the time zone.
+ * Temperatures are in the units the user chose on the phone, to a tenth of a degree.
+ *
+ * The encoding, big-endian:
+ * <pre>
+ * byte   version, {@link #VERSION}
+ * byte   flags, {@link #FLAG_METRIC}
+ * long   when the phone sent it, in milliseconds since the epoch
+ * int    the julian day of the first day
+ * byte   the number of days, unsigned
+ * then for each day, in order:
+ * byte   days after the first day, unsigned
+ * short  OpenWeatherMap condition code
+ * short  high, in tenths of a degree
+ * short  low, in tenths of a degree
+ * </pre>
+ */
+public final class ForecastPayload {
+
+    public static final int VERSION = 1;
+    public static final int FLAG_METRIC = 1;
+    /**
+     * The most days a payload can hold, and the furthest after the first day one can be.
+     */
+    public static final int MAX_DAYS = 255;
+
+    private static final int HEADER_BYTES = 1 + 1 + 8 + 4 + 1;
+    private static final int DAY_BYTES = 1 + 2 + 2 + 2;
+
+    private final boolean mMetric;
+    private final long mSentAt;
+    private final int mFirstJulianDay;
+    private final int[] mDayOffsets;
+    private final int[] mWeatherIds;
+    private final short[] mHighs;
+    private final short[] mLows;
+
+    private ForecastPayload(boolean metric, long sentAt, int firstJulianDay, int count) {
+        mMetric = metric;
+        mSentAt = sentAt;
+        mFirstJulianDay = firstJulianDay;
+        mDayOffsets = new int[count];
+        mWeatherIds = new int[count];
+        mHighs = new short[count];
+        mLows = new short[count];
+    }
+
+    /**
+     * @param julianDays the days, in ascending order, all within {@link #MAX_DAYS} of the first
+     * @param highs in the units the user chose
+     * @param lows in the units the user chose
+     * @throws IllegalArgumentException if the days can't be encoded
+     */
+    public ForecastPayload(boolean metric, long sentAt, int[] julianDays, int[] weatherIds,
+                           double[] highs, double[] lows) {
+        this(metric, sentAt, julianDays.length == 0 ? 0 : julianDays[0], julianDays.length);
+        if (julianDays.length > MAX_DAYS) {
+            throw new IllegalArgumentException("Too many days: " + julianDays.length);
+        }
+        for (int i = 0; i < julianDays.length; i++) {
+            int offset = julianDays[i] - mFirstJulianDay;
+            if (offset > MAX_DAYS || (i > 0 && offset <= mDayOffsets[i - 1])) {
+                throw new IllegalArgumentException("Days out of order at " + julianDays[i]);
+            }
+            mDayOffsets[i] = offset;
+            mWeatherIds[i] = weatherIds[i];
+            mHighs[i] = tenths(highs[i]);
+            mLows[i] = tenths(lows[i]);
+        }
+    }
+
+    private static short tenths(double degrees) {
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE,
+                Math.round(degrees * 10)));
+    }
+
+    public byte[] toBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + DAY_BYTES * size());
+        buffer.put((byte) VERSION);
+        buffer.put((byte) (mMetric ? FLAG_METRIC : 0));
+        buffer.putLong(mSentAt);
+        buffer.putInt(mFirstJulianDay);
+        buffer.put((byte) size());
+        for (int i = 0; i < size(); i++) {
+            buffer.put((byte) mDayOffsets[i]);
+            buffer.putShort((short) mWeatherIds[i]);
+            buffer.putShort(mHighs[i]);
+            buffer.putShort(mLows[i]);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the bytes are from a version we don't know, or
+     * aren't a whole payload
+     */
+    public static ForecastPayload fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        try {
+            int version = buffer.get();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unknown payload version " + version);
+            }
+            boolean metric = (buffer.get() & FLAG_METRIC) != 0;
+            long sentAt = buffer.getLong();
+            int firstJulianDay = buffer.getInt();
+            int count = buffer.get() & 0xff;
+            ForecastPayload payload = new ForecastPayload(metric, sentAt, firstJulianDay, count);
+            for (int i = 0; i < count; i++) {
+                payload.mDayOffsets[i] = buffer.get() & 0xff;
+                payload.mWeatherIds[i] = buffer.getShort();
+                payload.mHighs[i] = buffer.getShort();
+                payload.mLows[i] = buffer.getShort();
+            }
+            return payload;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Payload cut short at " + bytes.length + " bytes");
+        }
+    }
+
+    public boolean isMetric() {
+        return mMetric;
+    }
+
+    /**
+     * @return when the phone sent the forecast, in milliseconds since the epoch
+     */
+    public long getSentAt() {
+        return mSentAt;
+    }
+
+    public int size() {
+        return mDayOffsets.length;
+    }
+
+    public int getJulianDay(int index) {
+        return mFirstJulianDay + mDayOffsets[index];
+    }
+
+    public int getWeatherId(int index) {
+        return mWeatherIds[index];
+    }
+
+    public double getHigh(int index) {
+        return mHighs[index] / 10.0;
+    }
+
+    public double getLow(int index) {
+        return mLows[index] / 10.0;
+    }
+
+    /**
+     * @return the index of the day, or -1 if the payload doesn't have it
+     */
+    public int indexOf(int julianDay) {
+        int offset = julianDay - mFirstJulianDay;
+        for (int i = 0; i < mDayOffsets.length && mDayOffsets[i] <= offset; i++) {
+            if (mDayOffsets[i] == offset) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return size() + " days from julian day " + mFirstJulianDay + ", sent at " + mSentAt;
+    }
+}
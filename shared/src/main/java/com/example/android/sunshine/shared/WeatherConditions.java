@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.shared;
+
+/**
+ * Sorts OpenWeatherMap condition codes into the kinds of weather Sunshine draws, for the
+ * phone app and the watch face alike.
+ *
+ * The kinds are worked out once, into a table indexed by code, so a lookup is one array
+ * read.  Each module keeps its own tables of resources indexed by kind, since resource ids
+ * differ from module to module.
+ *
+ * Based on weather code data found at:
+ * http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+ */
+public final class WeatherConditions {
+
+    public static final int UNKNOWN = 0;
+    public static final int STORM = 1;
+    public static final int LIGHT_RAIN = 2;
+    public static final int RAIN = 3;
+    public static final int SNOW = 4;
+    public static final int FOG = 5;
+    // Drawn as a storm, but has its own Muzei image
+    public static final int TORNADO = 6;
+    public static final int CLEAR = 7;
+    public static final int LIGHT_CLOUDS = 8;
+    public static final int CLOUDS = 9;
+    /**
+     * The number of kinds, for sizing tables indexed by kind.
+     */
+    public static final int KIND_COUNT = 10;
+
+    /**
+     * The highest condition code OpenWeatherMap uses.  Codes above it are unknown.
+     */
+    public static final int MAX_CODE = 999;
+
+    // The name each kind's art has in an art pack, as in art_storm.png
+    private static final String[] ART_NAMES = {
+            null,
+            "storm",
+            "light_rain",
+            "rain",
+            "snow",
+            "fog",
+            "storm",
+            "clear",
+            "light_clouds",
+            "clouds"
+    };
+
+    private static final byte[] KINDS = new byte[MAX_CODE + 1];
+
+    static {
+        fill(200, 232, STORM);
+        fill(300, 321, LIGHT_RAIN);
+        fill(500, 504, RAIN);
+        fill(511, 511, SNOW);
+        fill(520, 531, RAIN);
+        fill(600, 622, SNOW);
+        fill(701, 761, FOG);
+        fill(781, 781, TORNADO);
+        fill(800, 800, CLEAR);
+        fill(801, 801, LIGHT_CLOUDS);
+        fill(802, 804, CLOUDS);
+    }
+
+    private WeatherConditions() {
+    }
+
+    private static void fill(int first, int last, int kind) {
+        for (int code = first; code <= last; code++) {
+            KINDS[code] = (byte) kind;
+        }
+    }
+
+    /**
+     * @param weatherId from OpenWeatherMap API response
+     * @return the kind of weather, or {@link #UNKNOWN}
+     */
+    public static int kindOf(int weatherId) {
+        return weatherId >= 0 && weatherId <= MAX_CODE ? KINDS[weatherId] : UNKNOWN;
+    }
+
+    /**
+     * @return the name of the kind's art in an art pack, or null for {@link #UNKNOWN}
+     */
+    public static String artName(int kind) {
+        return ART_NAMES[kind];
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.creationgroundmedia.watch;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.shared.ForecastPayload;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+public class TestForecastCache extends AndroidTestCase {
+
+    private static final long SENT_AT = 1419033600000L;
+    private static final long RECEIVED_AT = SENT_AT + 1000;
+
+    private File mFile;
+    private ForecastCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = new File(mContext.getCacheDir(), "test_forecast");
+        mCache = new ForecastCache(mFile);
+        mCache.clear();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCache.clear();
+        super.tearDown();
+    }
+
+    private static byte[] payload() {
+        return new ForecastPayload(true, SENT_AT, new int[]{2457012, 2457013},
+                new int[]{800, 501}, new double[]{25, 21.5}, new double[]{16, 12.5}).toBytes();
+    }
+
+    public void testSavedForecastIsLoaded() {
+        mCache.save(payload(), RECEIVED_AT);
+
+        // As a new watch face would, with nothing carried over
+        ForecastCache.Entry entry = new ForecastCache(mFile).load();
+        assertNotNull("Error: the saved forecast wasn't loaded", entry);
+        assertEquals(RECEIVED_AT, entry.receivedAt);
+        assertEquals(SENT_AT, entry.forecast.getSentAt());
+        assertEquals(2, entry.forecast.size());
+        assertEquals(501, entry.forecast.getWeatherId(1));
+        assertEquals(21.5, entry.forecast.getHigh(1), 0.05);
+    }
+
+    public void testNothingSavedLoadsNothing() {
+        assertNull(mCache.load());
+    }
+
+    public void testUnreadableFileLoadsNothing() throws Exception {
+        FileOutputStream out = new FileOutputStream(mFile);
+        try {
+            out.write(new byte[]{1, 2, 3});
+        } finally {
+            out.close();
+        }
+        assertNull("Error: a cut short cache should be discarded", mCache.load());
+    }
+
+    public void testForecastGoesStale() {
+        assertFalse(ForecastCache.isStale(RECEIVED_AT, RECEIVED_AT));
+        assertFalse(ForecastCache.isStale(RECEIVED_AT,
+                RECEIVED_AT + ForecastCache.STALE_AFTER_MS));
+        assertTrue(ForecastCache.isStale(RECEIVED_AT,
+                RECEIVED_AT + ForecastCache.STALE_AFTER_MS + 1));
+        // The watch's clock was set back since
+        assertTrue(ForecastCache.isStale(RECEIVED_AT, RECEIVED_AT - 1));
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.creationgroundmedia.watch;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/*
+    Draws interactive frames of the watch face into a bitmap, and checks that once the face is
+    sized and has its weather, drawing allocates nothing and reuses the cached layer.  Frame
+    times for the run are written to the log under this class's tag.
+ */
+public class TestWatchFaceRenderer extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWatchFaceRenderer.class.getSimpleName();
+
+    private static final int SIZE = 320;
+    private static final int FRAMES = 1000;
+
+    private WatchFaceRenderer mRenderer;
+    private Canvas mCanvas;
+    private Rect mBounds;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRenderer = new WatchFaceRenderer(mContext);
+        mRenderer.setWeather(
+                BitmapFactory.decodeResource(mContext.getResources(), R.drawable.art_clear),
+                mContext.getColor(R.color.dark_sky_blue), mContext.getColor(R.color.light_sky_blue));
+        mRenderer.setTemperatures("25\u00b0", "16\u00b0");
+        mCanvas = new Canvas(Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+        mBounds = new Rect(0, 0, SIZE, SIZE);
+    }
+
+    private void drawFrames(int frames) {
+        for (int i = 0; i < frames; i++) {
+            mRenderer.draw(mCanvas, mBounds, (i / 3600) % 12, (i / 60) % 60, i % 60, true);
+        }
+    }
+
+    public void testInteractiveFramesAllocateNothing() {
+        if (!AllocationCounter.isAvailable()) {
+            // Allocations are only counted in debug builds
+            return;
+        }
+        // The first frame sizes everything
+        drawFrames(1);
+        int allocations = AllocationCounter.count(new Runnable() {
+            @Override
+            public void run() {
+                drawFrames(FRAMES);
+            }
+        });
+        assertEquals("Error: drawing " + FRAMES + " frames allocated", 0, allocations);
+    }
+
+    public void testLayerIsOnlyRebuiltWhenItChanges() {
+        FrameTimes frameTimes = mRenderer.getFrameTimes();
+        drawFrames(FRAMES);
+        assertEquals(FRAMES, frameTimes.getFrameCount());
+        assertEquals("Error: the layer was rebuilt while nothing changed",
+                1, frameTimes.getLayerBuildCount());
+
+        // New weather, a tap and a trip through ambient mode each need a new layer
+        mRenderer.setTemperatures("18\u00b0", "9\u00b0");
+        drawFrames(10);
+        mRenderer.setBackgroundColor(mContext.getColor(R.color.background2));
+        drawFrames(10);
+        mRenderer.setAmbient(true, false);
+        drawFrames(10);
+        mRenderer.setAmbient(false, false);
+        drawFrames(10);
+        assertEquals(4, frameTimes.getLayerBuildCount());
+
+        StringWriter dump = new StringWriter();
+        frameTimes.dump("", new PrintWriter(dump));
+        Log.i(LOG_TAG, dump.toString());
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.creationgroundmedia.watch;
+
+import android.os.Debug;
+
+import com.example.android.sunshine.app.BuildConfig;
+
+/**
+ * Counts the objects the current thread allocates while running some work, in debug builds.
+ * Release builds just run the work.
+ */
+final class AllocationCounter {
+
+    /**
+     * What {@link #count} returns when counting isn't available.
+     */
+    static final int NOT_COUNTED = -1;
+
+    private AllocationCounter() {
+    }
+
+    static boolean isAvailable() {
+        return BuildConfig.DEBUG;
+    }
+
+    /**
+     * @return how many objects the work allocated on this thread, or {@link #NOT_COUNTED}
+     */
+    @SuppressWarnings("deprecation")
+    static int count(Runnable work) {
+        if (!isAvailable()) {
+            work.run();
+            return NOT_COUNTED;
+        }
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        try {
+            work.run();
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        return Debug.getThreadAllocCount();
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.creationgroundmedia.watch;
+
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.example.android.sunshine.shared.ForecastPayload;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The last forecast the phone sent, kept in a file so a new watch face can show the weather in
+ * its first frame rather than waiting on the phone.
+ *
+ * The file is the time the watch received the forecast, in milliseconds since the epoch by the
+ * watch's clock, followed by the {@link ForecastPayload} as the phone sent it.  A week is under
+ * a hundred bytes, so it is read and written on the main thread.
+ */
+final class ForecastCache {
+
+    private static final String LOG_TAG = ForecastCache.class.getSimpleName();
+
+    /**
+     * How long a forecast is shown as current.  The phone syncs every three hours and only sends
+     * the forecast when it changes, so this allows for a few quiet syncs.
+     */
+    static final long STALE_AFTER_MS = TimeUnit.HOURS.toMillis(12);
+
+    /**
+     * A forecast and when the watch got it.
+     */
+    static final class Entry {
+        final ForecastPayload forecast;
+        final long receivedAt;
+
+        Entry(ForecastPayload forecast, long receivedAt) {
+            this.forecast = forecast;
+            this.receivedAt = receivedAt;
+        }
+    }
+
+    /**
+     * @return whether a forecast received then is too old to show as current, or from the
+     * future by the watch's clock
+     */
+    static boolean isStale(long receivedAt, long now) {
+        return now - receivedAt > STALE_AFTER_MS || now < receivedAt;
+    }
+
+    private final AtomicFile mFile;
+
+    ForecastCache(File file) {
+        mFile = new AtomicFile(file);
+    }
+
+    /**
+     * @return the forecast last saved, or null if there isn't one we can read
+     */
+    Entry load() {
+        byte[] bytes;
+        try {
+            bytes = mFile.readFully();
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Can't read the cached forecast", e);
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        try {
+            long receivedAt = in.readLong();
+            byte[] payload = new byte[in.available()];
+            in.readFully(payload);
+            return new Entry(ForecastPayload.fromBytes(payload), receivedAt);
+        } catch (IOException | IllegalArgumentException e) {
+            // Cut short, or written by an older version of the watch face
+            Log.w(LOG_TAG, "Discarding the cached forecast: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @param payload the forecast as the phone sent it
+     * @param receivedAt when the watch got it
+     */
+    void save(byte[] payload, long receivedAt) {
+        FileOutputStream stream = null;
+        try {
+            stream = mFile.startWrite();
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeLong(receivedAt);
+            out.write(payload);
+            out.flush();
+            mFile.finishWrite(stream);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Can't cache the forecast", e);
+            if (stream != null) {
+                mFile.failWrite(stream);
+            }
+        }
+    }
+
+    void clear() {
+        mFile.delete();
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.creationgroundmedia.watch;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * How long the last few hundred frames of the watch face took to draw, and how often the
+ * cached layer had to be rebuilt for them.  Recording doesn't allocate, so it can stay on in
+ * every frame; see it with
+ * <pre>adb shell dumpsys activity service com.creationgroundmedia.watch.WatchFace</pre>
+ */
+final class FrameTimes {
+
+    // Ten minutes of interactive frames at one a second
+    static final int CAPACITY = 600;
+
+    private final long[] mNanos = new long[CAPACITY];
+    private int mNext;
+    private long mFrames;
+    private long mLayerBuilds;
+
+    synchronized void record(long nanos) {
+        mNanos[mNext] = nanos;
+        mNext = (mNext + 1) % CAPACITY;
+        mFrames++;
+    }
+
+    synchronized void recordLayerBuild() {
+        mLayerBuilds++;
+    }
+
+    synchronized long getFrameCount() {
+        return mFrames;
+    }
+
+    synchronized long getLayerBuildCount() {
+        return mLayerBuilds;
+    }
+
+    synchronized void reset() {
+        mNext = 0;
+        mFrames = 0;
+        mLayerBuilds = 0;
+    }
+
+    /**
+     * Prints the frame count, layer builds, and the mean and percentiles of the frames kept.
+     */
+    synchronized void dump(String prefix, PrintWriter out) {
+        int kept = (int) Math.min(mFrames, CAPACITY);
+        out.println(prefix + "frames: " + mFrames + ", layer builds: " + mLayerBuilds);
+        if (kept == 0) {
+            return;
+        }
+        long[] sorted = Arrays.copyOf(mNanos, kept);
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long nanos : sorted) {
+            total += nanos;
+        }
+        out.println(prefix + String.format(Locale.US,
+                "last %d frames: mean %.3f ms, 50%% %.3f ms, 90%% %.3f ms, 99%% %.3f ms, max %.3f ms",
+                kept, total / 1e6 / kept, millis(sorted, 0.50), millis(sorted, 0.90),
+                millis(sorted, 0.99), sorted[kept - 1] / 1e6));
+    }
+
+    private static double millis(long[] sorted, double fraction) {
+        return sorted[(int) Math.min(sorted.length - 1, fraction * sorted.length)] / 1e6;
+    }
+}
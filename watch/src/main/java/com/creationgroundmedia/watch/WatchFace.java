@@ -20,15 +20,9 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.content.res.Resources;
-import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.LinearGradient;
-import android.graphics.Paint;
 import android.graphics.Rect;
-import android.graphics.Shader;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
@@ -41,6 +35,8 @@ import android.util.Log;
 import android.view.SurfaceHolder;
 
 import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.shared.ForecastPayload;
+import com.example.android.sunshine.shared.WeatherConditions;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.PendingResult;
@@ -54,6 +50,9 @@ import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.lang.ref.WeakReference;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
@@ -77,13 +76,49 @@ public class WatchFace extends CanvasWatchFaceService {
      */
     private static final long INTERACTIVE_UPDATE_RATE_MS = TimeUnit.SECONDS.toMillis(1);
     private static final String DATE_KEY = "DateTime";
+    private static final String CACHE_FILE = "forecast";
 
     /**
      * Handler message id for updating the time periodically in interactive mode.
      */
     private static final int MSG_UPDATE_TIME = 0;
+
+    /**
+     * Art for each kind of weather in {@link WeatherConditions}, -1 if there is none.
+     */
+    private static final int[] ART_RESOURCES = new int[WeatherConditions.KIND_COUNT];
+    /**
+     * Background colors for each kind of weather, 0 if there are none.
+     */
+    private static final int[] DARK_BG_COLORS = new int[WeatherConditions.KIND_COUNT];
+    private static final int[] LIGHT_BG_COLORS = new int[WeatherConditions.KIND_COUNT];
+
+    static {
+        kind(WeatherConditions.UNKNOWN, -1, 0, 0);
+        kind(WeatherConditions.STORM, R.drawable.art_storm, R.color.dark_storm, R.color.light_storm);
+        kind(WeatherConditions.LIGHT_RAIN, R.drawable.art_light_rain,
+                R.color.dark_sky_blue, R.color.light_sky_blue);
+        kind(WeatherConditions.RAIN, R.drawable.art_rain, R.color.dark_gray, R.color.light_gray);
+        kind(WeatherConditions.SNOW, R.drawable.art_snow, R.color.dark_gray, R.color.light_gray);
+        kind(WeatherConditions.FOG, R.drawable.art_fog, R.color.dark_gray, R.color.light_gray);
+        kind(WeatherConditions.TORNADO, R.drawable.art_storm,
+                R.color.dark_storm, R.color.light_storm);
+        kind(WeatherConditions.CLEAR, R.drawable.art_clear,
+                R.color.dark_sky_blue, R.color.light_sky_blue);
+        kind(WeatherConditions.LIGHT_CLOUDS, R.drawable.art_light_clouds,
+                R.color.dark_sky_blue, R.color.light_sky_blue);
+        kind(WeatherConditions.CLOUDS, R.drawable.art_clouds,
+                R.color.dark_gray, R.color.light_gray);
+    }
+
     private Context mContext;
 
+    private static void kind(int kind, int artResourceId, int darkBgColorId, int lightBgColorId) {
+        ART_RESOURCES[kind] = artResourceId;
+        DARK_BG_COLORS[kind] = darkBgColorId;
+        LIGHT_BG_COLORS[kind] = lightBgColorId;
+    }
+
     @Override
     public Engine onCreateEngine() {
         return new Engine();
@@ -116,21 +151,15 @@ public class WatchFace extends CanvasWatchFaceService {
             GoogleApiClient.OnConnectionFailedListener {
 
         // Used in onDataChanged()
-        // Must match content provider contract WeatherContract
+        // Must match WearablePayload.KEY_FORECAST in the app,
         // because that's what the sender (SyncAdapter) uses
-        public static final String WEATHER_ID = "weather_id";
-        public static final String MIN = "min";
-        public static final String MAX = "max";
+        public static final String FORECAST = "forecast";
 
         private final String LOG_TAG = this.getClass().getSimpleName();
         final Handler mUpdateTimeHandler = new EngineHandler(this);
         boolean mRegisteredTimeZoneReceiver = false;
         boolean haveWxData = false;
-        Paint mBackgroundPaint;
-        Paint mHandPaint;
-        Paint mHighPaint;
-        Paint mLowPaint;
-        private Bitmap mWxArtBitmap;
+        WatchFaceRenderer mRenderer;
         boolean mAmbient;
         Time mTime;
         final BroadcastReceiver mTimeZoneReceiver = new BroadcastReceiver() {
@@ -150,9 +179,13 @@ public class WatchFace extends CanvasWatchFaceService {
         private GoogleApiClient mGoogleApiClient;
         private String mWxLow;
         private String mWxHigh;
-        private LinearGradient mGradient;
-        private int mDarkBg;
-        private int mLightBg;
+        // Every day the phone last sent, so we can move on at midnight by ourselves
+        private ForecastPayload mForecast;
+        private long mForecastReceivedAt;
+        private int mShownJulianDay;
+        private ForecastCache mForecastCache;
+        // Whether we've asked the phone for a newer forecast since the one we have went stale
+        private boolean mStaleBumpSent;
 
         @Override
         public void onCreate(SurfaceHolder holder) {
@@ -165,29 +198,8 @@ public class WatchFace extends CanvasWatchFaceService {
                     .setAcceptsTapEvents(true)
                     .build());
 
-            Resources resources = WatchFace.this.getResources();
-
             mContext = getApplicationContext();
-            mBackgroundPaint = new Paint();
-            mBackgroundPaint.setColor(getColor(R.color.background));
-
-            mHandPaint = new Paint();
-            mHandPaint.setColor(getColor(R.color.analog_hands));
-            mHandPaint.setStrokeWidth(resources.getDimension(R.dimen.analog_hand_stroke));
-            mHandPaint.setAntiAlias(true);
-            mHandPaint.setStrokeCap(Paint.Cap.ROUND);
-
-            mHighPaint = new Paint();
-            mHighPaint.setColor(getColor(R.color.high_text));
-            mHighPaint.setTextSize(60);
-            mHighPaint.setTextAlign(Paint.Align.CENTER);
-            mHighPaint.setAntiAlias(true);
-
-            mLowPaint = new Paint();
-            mLowPaint.setColor(getColor(R.color.low_text));
-            mLowPaint.setTextSize(40);
-            mLowPaint.setTextAlign(Paint.Align.CENTER);
-            mLowPaint.setAntiAlias(true);
+            mRenderer = new WatchFaceRenderer(mContext);
 
             setWxArtBitmap(800);
 
@@ -200,6 +212,16 @@ public class WatchFace extends CanvasWatchFaceService {
                     .build();
 
             Log.d(LOG_TAG, "mGoogleApiClient: " + mGoogleApiClient);
+
+            // Show the last forecast we had in the first frame, rather than waiting on the phone
+            mForecastCache = new ForecastCache(new File(mContext.getFilesDir(), CACHE_FILE));
+            ForecastCache.Entry cached = mForecastCache.load();
+            if (cached != null) {
+                mForecast = cached.forecast;
+                mForecastReceivedAt = cached.receivedAt;
+                Log.d(LOG_TAG, "onCreate cached forecast: " + mForecast);
+                showToday();
+            }
         }
 
         @Override
@@ -217,6 +239,7 @@ public class WatchFace extends CanvasWatchFaceService {
         @Override
         public void onTimeTick() {
             super.onTimeTick();
+            checkForNewDay();
             invalidate();
         }
 
@@ -225,12 +248,7 @@ public class WatchFace extends CanvasWatchFaceService {
             super.onAmbientModeChanged(inAmbientMode);
             if (mAmbient != inAmbientMode) {
                 mAmbient = inAmbientMode;
-                if (mLowBitAmbient) {
-                    mHandPaint.setAntiAlias(!inAmbientMode);
-                    mHighPaint.setAntiAlias(!inAmbientMode);
-                    mLowPaint.setAntiAlias(!inAmbientMode);
-                    mLowPaint.setAntiAlias(!inAmbientMode);
-                }
+                mRenderer.setAmbient(inAmbientMode, mLowBitAmbient);
                 invalidate();
             }
 
@@ -245,7 +263,6 @@ public class WatchFace extends CanvasWatchFaceService {
          */
         @Override
         public void onTapCommand(int tapType, int x, int y, long eventTime) {
-            Resources resources = WatchFace.this.getResources();
             switch (tapType) {
                 case TAP_TYPE_TOUCH:
                     // The user has started touching the screen.
@@ -259,77 +276,35 @@ public class WatchFace extends CanvasWatchFaceService {
                     // because the background becomes a gradient
                     // with colors based on the weather condition.
                     mTapCount++;
-                    mBackgroundPaint.setColor(getColor(mTapCount % 2 == 0 ?
+                    mRenderer.setBackgroundColor(getColor(mTapCount % 2 == 0 ?
                             R.color.background : R.color.background2));
                     break;
             }
             invalidate();
         }
 
+        @Override
+        public void onSurfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+            super.onSurfaceChanged(holder, format, width, height);
+            // Size everything now, rather than in the next frame
+            mRenderer.setSize(width, height);
+        }
+
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
             mTime.setToNow();
+            mRenderer.draw(canvas, bounds, mTime.hour, mTime.minute, mTime.second, haveWxData);
+        }
 
-            // Draw the background.
-            if (isInAmbientMode()) {
-                canvas.drawColor(Color.BLACK);
-            } else {
-                int width = canvas.getWidth();
-                int height = canvas.getHeight();
-                // draw background gradient
-                mGradient = new LinearGradient(width, 0, width, height,
-                        mDarkBg, mLightBg, Shader.TileMode.CLAMP);
-                mBackgroundPaint.setDither(true);
-                mBackgroundPaint.setShader(mGradient);
-                canvas.drawRect(0, 0, width, height, mBackgroundPaint);
-            }
-
-            // Find the center. Ignore the window insets so that, on round watches with a
-            // "chin", the watch face is centered on the entire screen, not just the usable
-            // portion.
-            float centerX = bounds.width() / 2f;
-            float centerY = bounds.height() / 2f;
-
-            float secRot = mTime.second / 30f * (float) Math.PI;
-            int minutes = mTime.minute;
-            float minRot = minutes / 30f * (float) Math.PI;
-            float hrRot = ((mTime.hour + (minutes / 60f)) / 6f) * (float) Math.PI;
-
-            float secLength = centerX - 20;
-            float minLength = centerX - 40;
-            float hrLength = centerX - 80;
-
-            if (!mAmbient) {
-                if (haveWxData) {
-                    Bitmap wxArtBitmap;
-                    int wxArtSize = mWxArtBitmap.getHeight();
-                    int minBounds = (int) Math.min(centerX, centerY);
-                    wxArtBitmap = wxArtSize > minBounds ?
-                            Bitmap.createScaledBitmap(mWxArtBitmap, minBounds, minBounds, false)
-                            : mWxArtBitmap;
-                    canvas.drawBitmap(wxArtBitmap, centerX - wxArtSize / 2, centerY - wxArtSize, null);
-
-                    float highOriginX = centerX;
-                    float highOriginY = centerY * 1.5F;
-                    canvas.drawText(mWxHigh, highOriginX, highOriginY, mHighPaint);
-
-                    float lowOriginX = centerX;
-                    float lowOriginY = centerY * 1.75F;
-                    canvas.drawText(mWxLow, lowOriginX, lowOriginY, mLowPaint);
-                }
-
-                float secX = (float) Math.sin(secRot) * secLength;
-                float secY = (float) -Math.cos(secRot) * secLength;
-                canvas.drawLine(centerX, centerY, centerX + secX, centerY + secY, mHandPaint);
-            }
-
-            float minX = (float) Math.sin(minRot) * minLength;
-            float minY = (float) -Math.cos(minRot) * minLength;
-            canvas.drawLine(centerX, centerY, centerX + minX, centerY + minY, mHandPaint);
-
-            float hrX = (float) Math.sin(hrRot) * hrLength;
-            float hrY = (float) -Math.cos(hrRot) * hrLength;
-            canvas.drawLine(centerX, centerY, centerX + hrX, centerY + hrY, mHandPaint);
+        /**
+         * Adds how long frames are taking to draw to
+         * adb shell dumpsys activity service com.creationgroundmedia.watch.WatchFace
+         */
+        @Override
+        protected void dump(String prefix, FileDescriptor fd, PrintWriter out, String[] args) {
+            super.dump(prefix, fd, out, args);
+            out.println(prefix + "Frame times:");
+            mRenderer.getFrameTimes().dump(prefix + "  ", out);
         }
 
         @Override
@@ -359,7 +334,9 @@ public class WatchFace extends CanvasWatchFaceService {
         @Override
         public void onConnected(@Nullable Bundle bundle) {
             Wearable.DataApi.addListener(mGoogleApiClient, this);
-            if (!haveWxData) {
+            // The phone sends the whole week, so we only need to ask when we have nothing
+            // for today, or what we have is old
+            if (!haveWxData || isStale()) {
                 sendBump();
             }
             Log.d(LOG_TAG, "onConnected: " + bundle);
@@ -379,16 +356,22 @@ public class WatchFace extends CanvasWatchFaceService {
                     Log.d(LOG_TAG, "onDataChanged URI " + item.getUri().getPath());
                     if (item.getUri().getPath().compareTo("/wx") == 0) {
                         DataMap dataMap = DataMapItem.fromDataItem(item).getDataMap();
-                        setWxArtBitmap(dataMap.getInt(WEATHER_ID));
-                        setWxLow(dataMap.getString(MIN));
-                        setWxHigh(dataMap.getString(MAX));
-                        Log.d(LOG_TAG,
-                                "onDataChanged data (low "
-                                + mWxLow
-                                + ", high "
-                                + mWxHigh
-                                + "')");
-                        haveWxData = true;
+                        byte[] bytes = dataMap.getByteArray(FORECAST);
+                        if (bytes == null) {
+                            continue;
+                        }
+                        try {
+                            mForecast = ForecastPayload.fromBytes(bytes);
+                        } catch (IllegalArgumentException e) {
+                            // From a phone with a newer app than ours
+                            Log.e(LOG_TAG, "Can't read the forecast: " + e.getMessage());
+                            continue;
+                        }
+                        mForecastReceivedAt = System.currentTimeMillis();
+                        mStaleBumpSent = false;
+                        mForecastCache.save(bytes, mForecastReceivedAt);
+                        Log.d(LOG_TAG, "onDataChanged forecast: " + mForecast);
+                        showToday();
                         invalidate();
                     }
                 }
@@ -440,6 +423,7 @@ public class WatchFace extends CanvasWatchFaceService {
          * Handle updating the time periodically in interactive mode.
          */
         private void handleUpdateTimeMessage() {
+            checkForNewDay();
             invalidate();
             if (shouldTimerBeRunning()) {
                 long timeMs = System.currentTimeMillis();
@@ -468,101 +452,71 @@ public class WatchFace extends CanvasWatchFaceService {
         }
 
         /**
-         * Helper method to provide the art resource id according to the weather condition id returned
-         * by the OpenWeatherMap call.
-         * @param weatherId from OpenWeatherMap API response
-         * @return resource id for the corresponding icon. -1 if no relation is found.
-         * Copied from app
+         * Shows today's weather from the last forecast the phone sent, or nothing if it doesn't
+         * cover today, in which case we ask the phone for a new one.
          */
-        private int getArtResourceForWeatherCondition(int weatherId) {
-            // Based on weather code data found at:
-            // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-            if (weatherId >= 200 && weatherId <= 232) {
-                return R.drawable.art_storm;
-            } else if (weatherId >= 300 && weatherId <= 321) {
-                return R.drawable.art_light_rain;
-            } else if (weatherId >= 500 && weatherId <= 504) {
-                return R.drawable.art_rain;
-            } else if (weatherId == 511) {
-                return R.drawable.art_snow;
-            } else if (weatherId >= 520 && weatherId <= 531) {
-                return R.drawable.art_rain;
-            } else if (weatherId >= 600 && weatherId <= 622) {
-                return R.drawable.art_snow;
-            } else if (weatherId >= 701 && weatherId <= 761) {
-                return R.drawable.art_fog;
-            } else if (weatherId == 761 || weatherId == 781) {
-                return R.drawable.art_storm;
-            } else if (weatherId == 800) {
-                return R.drawable.art_clear;
-            } else if (weatherId == 801) {
-                return R.drawable.art_light_clouds;
-            } else if (weatherId >= 802 && weatherId <= 804) {
-                return R.drawable.art_clouds;
+        private void showToday() {
+            mTime.setToNow();
+            mShownJulianDay = Time.getJulianDay(mTime.toMillis(false), mTime.gmtoff);
+            int index = mForecast == null ? -1 : mForecast.indexOf(mShownJulianDay);
+            if (index < 0) {
+                haveWxData = false;
+                if (mGoogleApiClient.isConnected()) {
+                    sendBump();
+                }
+                return;
             }
-            return -1;
+            setWxArtBitmap(mForecast.getWeatherId(index));
+            setWxHigh(getString(R.string.format_temperature, mForecast.getHigh(index)));
+            setWxLow(getString(R.string.format_temperature, mForecast.getLow(index)));
+            mRenderer.setStale(isStale());
+            Log.d(LOG_TAG, "showToday (low " + mWxLow + ", high " + mWxHigh + ")");
+            haveWxData = true;
         }
 
         /**
-         * Patterned after @getArtResourceForWeatherCondition above
-         * @param weatherId from OpenWeatherMap API response
-         * @param dark boolean to select dark or light version of the color.
-         *             Both are used to make the background gradient.
-         * @return color for the corresponding weather condition. -1 if no relation is found.
+         * Moves on to the next day's weather once it's past midnight, and dims it once it's
+         * stale.
          */
-        private int getBgForWeatherCondition(int weatherId, boolean dark) {
-            // Based on weather code data found at:
-            // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-            if (weatherId >= 200 && weatherId <= 232) {
-                // storm
-                return dark? getColor(R.color.dark_storm) : getColor(R.color.light_storm);
-            } else if (weatherId >= 300 && weatherId <= 321) {
-                // light rain
-                return dark? getColor(R.color.dark_sky_blue) : getColor(R.color.light_sky_blue);
-            } else if (weatherId >= 500 && weatherId <= 504) {
-                // rain
-                return dark? getColor(R.color.dark_gray) : getColor(R.color.light_gray);
-            } else if (weatherId == 511) {
-                // snow
-                return dark? getColor(R.color.dark_gray) : getColor(R.color.light_gray);
-            } else if (weatherId >= 520 && weatherId <= 531) {
-                // rain
-                return dark? getColor(R.color.dark_gray) : getColor(R.color.light_gray);
-            } else if (weatherId >= 600 && weatherId <= 622) {
-                // snow
-                return dark? getColor(R.color.dark_gray) : getColor(R.color.light_gray);
-            } else if (weatherId >= 701 && weatherId <= 761) {
-                // fog
-                return dark? getColor(R.color.dark_gray) : getColor(R.color.light_gray);
-            } else if (weatherId == 761 || weatherId == 781) {
-                // storm
-                return dark? getColor(R.color.dark_storm) : getColor(R.color.light_storm);
-            } else if (weatherId == 800) {
-                // clear
-                return dark? getColor(R.color.dark_sky_blue) : getColor(R.color.light_sky_blue);
-            } else if (weatherId == 801) {
-                // light clouds
-                return dark? getColor(R.color.dark_sky_blue) : getColor(R.color.light_sky_blue);
-            } else if (weatherId >= 802 && weatherId <= 804) {
-                // clouds
-                return dark? getColor(R.color.dark_gray) : getColor(R.color.light_gray);
+        private void checkForNewDay() {
+            if (mForecast == null) {
+                return;
+            }
+            mTime.setToNow();
+            if (Time.getJulianDay(mTime.toMillis(false), mTime.gmtoff) != mShownJulianDay) {
+                showToday();
             }
-            return -1;
+            boolean stale = isStale();
+            mRenderer.setStale(stale);
+            if (stale && !mStaleBumpSent && mGoogleApiClient.isConnected()) {
+                mStaleBumpSent = true;
+                sendBump();
+            }
+        }
+
+        private boolean isStale() {
+            return mForecast != null
+                    && ForecastCache.isStale(mForecastReceivedAt, System.currentTimeMillis());
         }
 
         public void setWxArtBitmap(int weatherId) {
-            mWxArtBitmap = BitmapFactory.decodeResource(mContext.getResources(),
-                    getArtResourceForWeatherCondition(weatherId));
-            mDarkBg = getBgForWeatherCondition(weatherId, true);
-            mLightBg = getBgForWeatherCondition(weatherId, false);
+            // The kinds of weather are shared with the app, the art and colors are ours
+            int kind = WeatherConditions.kindOf(weatherId);
+            // Dark and light versions of the color make the background gradient
+            mRenderer.setWeather(
+                    BitmapFactory.decodeResource(mContext.getResources(), ART_RESOURCES[kind]),
+                    DARK_BG_COLORS[kind] == 0 ? -1 : getColor(DARK_BG_COLORS[kind]),
+                    LIGHT_BG_COLORS[kind] == 0 ? -1 : getColor(LIGHT_BG_COLORS[kind]));
         }
 
         public void setWxLow(String wxLow) {
             this.mWxLow = wxLow;
+            mRenderer.setTemperatures(mWxHigh, mWxLow);
         }
 
         public void setWxHigh(String mWxHigh) {
             this.mWxHigh = mWxHigh;
+            mRenderer.setTemperatures(mWxHigh, mWxLow);
         }
     }
 }
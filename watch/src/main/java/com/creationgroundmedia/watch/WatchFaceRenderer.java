@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.creationgroundmedia.watch;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.LinearGradient;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Shader;
+
+import com.example.android.sunshine.app.R;
+
+/**
+ * Draws the watch face for {@link WatchFace}.
+ *
+ * Everything that depends only on the size of the face or on the weather - the background
+ * gradient, the art scaled to fit and where the text goes - is worked out when those change.
+ * The parts that don't move are then drawn once into a layer, which is kept until the
+ * weather, a tap or ambient mode changes them, so an interactive frame is one bitmap copy and
+ * the hands, and {@link #draw} allocates nothing.
+ *
+ * Weather that has gone stale is drawn dimmed, so it isn't taken for the current forecast.
+ */
+final class WatchFaceRenderer {
+
+    // How opaque stale weather is drawn
+    private static final int STALE_ALPHA = 0x60;
+
+    private final Paint mBackgroundPaint;
+    private final Paint mArtPaint;
+    private final Paint mHandPaint;
+    private final Paint mHighPaint;
+    private final Paint mLowPaint;
+
+    private boolean mAmbient;
+
+    // The weather, as last set
+    private Bitmap mArt;
+    private int mDarkBg;
+    private int mLightBg;
+    private String mHigh;
+    private String mLow;
+    private boolean mStale;
+
+    // Worked out from the size of the face and the weather
+    private int mWidth;
+    private int mHeight;
+    private float mCenterX;
+    private float mCenterY;
+    private float mSecLength;
+    private float mMinLength;
+    private float mHrLength;
+    private Bitmap mScaledArt;
+    private float mArtLeft;
+    private float mArtTop;
+    private float mHighY;
+    private float mLowY;
+
+    // The background, art and temperatures, drawn at the size of the face
+    private Bitmap mLayer;
+    private final Canvas mLayerCanvas = new Canvas();
+    private boolean mLayerValid;
+    private boolean mLayerShowsWeather;
+
+    private final FrameTimes mFrameTimes = new FrameTimes();
+
+    WatchFaceRenderer(Context context) {
+        mBackgroundPaint = new Paint();
+        mBackgroundPaint.setColor(context.getColor(R.color.background));
+        mBackgroundPaint.setDither(true);
+
+        mHandPaint = new Paint();
+        mHandPaint.setColor(context.getColor(R.color.analog_hands));
+        mHandPaint.setStrokeWidth(context.getResources().getDimension(R.dimen.analog_hand_stroke));
+        mHandPaint.setAntiAlias(true);
+        mHandPaint.setStrokeCap(Paint.Cap.ROUND);
+
+        mArtPaint = new Paint();
+
+        mHighPaint = new Paint();
+        mHighPaint.setColor(context.getColor(R.color.high_text));
+        mHighPaint.setTextSize(60);
+        mHighPaint.setTextAlign(Paint.Align.CENTER);
+        mHighPaint.setAntiAlias(true);
+
+        mLowPaint = new Paint();
+        mLowPaint.setColor(context.getColor(R.color.low_text));
+        mLowPaint.setTextSize(40);
+        mLowPaint.setTextAlign(Paint.Align.CENTER);
+        mLowPaint.setAntiAlias(true);
+    }
+
+    /**
+     * @param art the art for the weather, at its own size
+     * @param darkBg the color at the bottom of the background gradient
+     * @param lightBg the color at the top of it
+     */
+    void setWeather(Bitmap art, int darkBg, int lightBg) {
+        mArt = art;
+        mDarkBg = darkBg;
+        mLightBg = lightBg;
+        layout();
+        mLayerValid = false;
+    }
+
+    void setTemperatures(String high, String low) {
+        mHigh = high;
+        mLow = low;
+        mLayerValid = false;
+    }
+
+    /**
+     * @param stale whether the weather is too old to show as current
+     */
+    void setStale(boolean stale) {
+        if (stale == mStale) {
+            return;
+        }
+        mStale = stale;
+        int alpha = stale ? STALE_ALPHA : 0xff;
+        mArtPaint.setAlpha(alpha);
+        mHighPaint.setAlpha(alpha);
+        mLowPaint.setAlpha(alpha);
+        mLayerValid = false;
+    }
+
+    void setBackgroundColor(int color) {
+        mBackgroundPaint.setColor(color);
+        mLayerValid = false;
+    }
+
+    /**
+     * @param lowBitAmbient whether to stop anti-aliasing in ambient mode
+     */
+    void setAmbient(boolean ambient, boolean lowBitAmbient) {
+        mAmbient = ambient;
+        if (lowBitAmbient) {
+            mHandPaint.setAntiAlias(!ambient);
+            mHighPaint.setAntiAlias(!ambient);
+            mLowPaint.setAntiAlias(!ambient);
+        }
+        mLayerValid = false;
+    }
+
+    /**
+     * Sizes everything for a face of the given size.  Drawing calls this itself when the size
+     * changes, so it only needs calling ahead of time to keep the work out of the first frame.
+     */
+    void setSize(int width, int height) {
+        if (width == mWidth && height == mHeight) {
+            return;
+        }
+        mWidth = width;
+        mHeight = height;
+        if (mLayer != null) {
+            mLayer.recycle();
+        }
+        mLayer = width > 0 && height > 0
+                ? Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888) : null;
+        mLayerCanvas.setBitmap(mLayer);
+        layout();
+        mLayerValid = false;
+    }
+
+    private void layout() {
+        if (mWidth == 0 || mHeight == 0) {
+            return;
+        }
+        // Find the center. Ignore the window insets so that, on round watches with a
+        // "chin", the watch face is centered on the entire screen, not just the usable
+        // portion.
+        mCenterX = mWidth / 2f;
+        mCenterY = mHeight / 2f;
+
+        mSecLength = mCenterX - 20;
+        mMinLength = mCenterX - 40;
+        mHrLength = mCenterX - 80;
+
+        mBackgroundPaint.setShader(new LinearGradient(mWidth, 0, mWidth, mHeight,
+                mDarkBg, mLightBg, Shader.TileMode.CLAMP));
+
+        if (mArt != null) {
+            int minBounds = (int) Math.min(mCenterX, mCenterY);
+            mScaledArt = mArt.getHeight() > minBounds
+                    ? Bitmap.createScaledBitmap(mArt, minBounds, minBounds, false)
+                    : mArt;
+            mArtLeft = mCenterX - mScaledArt.getWidth() / 2;
+            mArtTop = mCenterY - mScaledArt.getHeight();
+        }
+        mHighY = mCenterY * 1.5F;
+        mLowY = mCenterY * 1.75F;
+    }
+
+    /**
+     * Draws the parts of the face that don't move into the layer.
+     */
+    private void buildLayer(boolean showWeather) {
+        mLayerCanvas.drawRect(0, 0, mWidth, mHeight, mBackgroundPaint);
+        if (showWeather) {
+            mLayerCanvas.drawBitmap(mScaledArt, mArtLeft, mArtTop, mArtPaint);
+            mLayerCanvas.drawText(mHigh, mCenterX, mHighY, mHighPaint);
+            mLayerCanvas.drawText(mLow, mCenterX, mLowY, mLowPaint);
+        }
+        mLayerValid = true;
+        mLayerShowsWeather = showWeather;
+        mFrameTimes.recordLayerBuild();
+    }
+
+    /**
+     * @param showWeather whether there is any weather to show yet
+     */
+    void draw(Canvas canvas, Rect bounds, int hour, int minute, int second,
+              boolean showWeather) {
+        long start = System.nanoTime();
+        setSize(bounds.width(), bounds.height());
+
+        // Draw the background, and in interactive mode the weather
+        if (mAmbient) {
+            canvas.drawColor(Color.BLACK);
+        } else {
+            if (!mLayerValid || mLayerShowsWeather != showWeather) {
+                buildLayer(showWeather);
+            }
+            canvas.drawBitmap(mLayer, 0, 0, null);
+        }
+
+        float secRot = second / 30f * (float) Math.PI;
+        float minRot = minute / 30f * (float) Math.PI;
+        float hrRot = ((hour + (minute / 60f)) / 6f) * (float) Math.PI;
+
+        if (!mAmbient) {
+            float secX = (float) Math.sin(secRot) * mSecLength;
+            float secY = (float) -Math.cos(secRot) * mSecLength;
+            canvas.drawLine(mCenterX, mCenterY, mCenterX + secX, mCenterY + secY, mHandPaint);
+        }
+
+        float minX = (float) Math.sin(minRot) * mMinLength;
+        float minY = (float) -Math.cos(minRot) * mMinLength;
+        canvas.drawLine(mCenterX, mCenterY, mCenterX + minX, mCenterY + minY, mHandPaint);
+
+        float hrX = (float) Math.sin(hrRot) * mHrLength;
+        float hrY = (float) -Math.cos(hrRot) * mHrLength;
+        canvas.drawLine(mCenterX, mCenterY, mCenterX + hrX, mCenterY + hrY, mHandPaint);
+
+        mFrameTimes.record(System.nanoTime() - start);
+    }
+
+    FrameTimes getFrameTimes() {
+        return mFrameTimes;
+    }
+}